@@ -90,7 +90,8 @@ public class BgpPreviewService {
     private IntervalMap<IpRange, List<RoaPrefix>> roaPrefixes = new NestedIntervalMap<>(IpResourceIntervalStrategy.getInstance());
     private IntervalMap<IpRange, List<RoaPrefix>> filteredRoaPrefixes = new NestedIntervalMap<>(IpResourceIntervalStrategy.getInstance());
 
-    private ImmutableList<RoaPrefix> validatedRoaPrefixes = ImmutableList.of();
+    // only modified sequentially, the delta listener looks up the prefixes to remove here
+    private Map<ValidatedRpkiObjects.RoaPrefix, RoaPrefix> validatedRoaPrefixes = new HashMap<>();
     private ImmutableList<RoaPrefix> roaPrefixAssertions = ImmutableList.of();
     private ImmutableList<IgnoreFilter> ignoreFilters = ImmutableList.of();
     private Map<String, ImmutableList<BgpPreviewEntry>> bgpPreviewEntries = new TreeMap<>();
@@ -150,6 +151,19 @@ public class BgpPreviewService {
         public IpRange getPrefix() {
             return prefix.toIpRange();
         }
+
+        static RoaPrefix of(ValidatedRpkiObjects.RoaPrefix p) {
+            return of(
+                    p.getTrustAnchor(),
+                    p.getLocations(),
+                    null,
+                    null,
+                    p.getAsn(),
+                    new PackedIpRange(p.getPrefix()),
+                    p.getMaximumLength(),
+                    p.getEffectiveLength()
+            );
+        }
     }
 
     @lombok.Value(staticConstructor = "of")
@@ -259,7 +273,7 @@ public class BgpPreviewService {
                 )).collect(Collectors.toList())
         );
 
-        validatedRpkiObjects.addListener(objects -> updateValidatedRoaPrefixes(objects.stream().flatMap(x -> x.getRoaPrefixes().stream())));
+        validatedRpkiObjects.addDeltaListener(this::updateValidatedRoaPrefixes);
         ignoreFilterService.addListener(this::updateIgnoreFilters);
         roaPrefixAssertionsService.addListener(this::updateRoaPrefixAssertions);
     }
@@ -381,38 +395,83 @@ public class BgpPreviewService {
         });
     }
 
-    void updateValidatedRoaPrefixes(Stream<ValidatedRpkiObjects.RoaPrefix> prefixes) {
+    /**
+     * Apply the changes of the validated ROA prefixes to the prefix maps in place and
+     * only revalidate the BGP entries covered by one of the changed prefixes.
+     */
+    void updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta delta) {
         sequential(() -> {
-            final ImmutableList<RoaPrefix> validatedRoaPrefixes = ImmutableList.copyOf(prefixes
-                    .map(p -> RoaPrefix.of(
-                            p.getTrustAnchor(),
-                            p.getLocations(),
-                            null,
-                            null,
-                            p.getAsn(),
-                            new PackedIpRange(p.getPrefix()),
-                            p.getMaximumLength(),
-                            p.getEffectiveLength()
-                    ))
-                    .iterator()
-            );
-            final NestedIntervalMap<IpRange, List<RoaPrefix>> roaPrefixes = recalculateRoaPrefixes(validatedRoaPrefixes, this.ignoreFilters, this.roaPrefixAssertions);
-            final NestedIntervalMap<IpRange, List<RoaPrefix>> filteredRoaPrefixes = recalculateFilteredRoaPrefixes(validatedRoaPrefixes, this.ignoreFilters);
-            final Map<String, ImmutableList<BgpPreviewEntry>> validatedBgpPreviewEntries = validateBgpRisEntries(this.bgpPreviewEntries, roaPrefixes);
+            final Predicate<RoaPrefixDefinition> ignored = new IgnoreFiltersPredicate(this.ignoreFilters.stream());
+            final NestedIntervalMap<IpRange, Boolean> changedRanges = new NestedIntervalMap<>(IpResourceIntervalStrategy.getInstance());
+            Stream.concat(delta.getRemoved().stream(), delta.getAdded().stream())
+                    .forEach(p -> changedRanges.put(p.getPrefix(), Boolean.TRUE));
+
+            final Long t = Time.timed(() -> writeLocked(() -> {
+                delta.getRemoved().forEach(p -> {
+                    // the ignore filters may have changed since it was added
+                    final RoaPrefix removed = this.validatedRoaPrefixes.remove(p);
+                    if (removed != null) {
+                        removeRoaPrefix(this.roaPrefixes, removed);
+                        removeRoaPrefix(this.filteredRoaPrefixes, removed);
+                    }
+                });
+                delta.getAdded().forEach(p -> {
+                    final RoaPrefix added = RoaPrefix.of(p);
+                    this.validatedRoaPrefixes.put(p, added);
+                    addRoaPrefix(ignored.test(added) ? this.filteredRoaPrefixes : this.roaPrefixes, added);
+                });
+            }));
 
-            writeLocked(() -> {
-                this.validatedRoaPrefixes = validatedRoaPrefixes;
-                this.roaPrefixes = roaPrefixes;
-                this.filteredRoaPrefixes = filteredRoaPrefixes;
-                this.bgpPreviewEntries = validatedBgpPreviewEntries;
-            });
+            final Map<String, ImmutableList<BgpPreviewEntry>> updatedBgpPreviewEntries = this.bgpPreviewEntries.entrySet().stream().collect(
+                    Collectors.toMap(
+                            Map.Entry::getKey,
+                            entry -> revalidateBgpRisEntries(entry.getValue(), changedRanges, this.roaPrefixes)));
+            writeLocked(() -> this.bgpPreviewEntries = updatedBgpPreviewEntries);
+
+            log.info("Applied {} added and {} removed validated ROA prefixes in {}ms",
+                    delta.getAdded().size(), delta.getRemoved().size(), t);
         });
     }
 
+    private ImmutableList<BgpPreviewEntry> revalidateBgpRisEntries(
+            ImmutableList<BgpPreviewEntry> bgpRisEntries,
+            IntervalMap<IpRange, Boolean> changedRanges,
+            IntervalMap<IpRange, List<RoaPrefix>> roaPrefixes
+    ) {
+        final ImmutableList.Builder<BgpPreviewEntry> builder = ImmutableList.builder();
+        bgpRisEntries.parallelStream()
+                .map(bgpRisEntry -> changedRanges.findExactOrFirstLessSpecific(bgpRisEntry.getPrefix()) == null ?
+                        bgpRisEntry :
+                        bgpRisEntry.ofValidity(validateBgpRisEntry(roaPrefixes, bgpRisEntry)))
+                .forEachOrdered(builder::add);
+        return builder.build();
+    }
+
+    private static void addRoaPrefix(IntervalMap<IpRange, List<RoaPrefix>> roaPrefixes, RoaPrefix p) {
+        final IpRange ipRange = p.getPrefix();
+        List<RoaPrefix> existing = roaPrefixes.findExact(ipRange);
+        if (existing == null) {
+            existing = new ArrayList<>(1);
+            roaPrefixes.put(ipRange, existing);
+        }
+        existing.add(p);
+    }
+
+    private static void removeRoaPrefix(IntervalMap<IpRange, List<RoaPrefix>> roaPrefixes, RoaPrefix p) {
+        final IpRange ipRange = p.getPrefix();
+        final List<RoaPrefix> existing = roaPrefixes.findExact(ipRange);
+        if (existing != null) {
+            existing.remove(p);
+            if (existing.isEmpty()) {
+                roaPrefixes.remove(ipRange);
+            }
+        }
+    }
+
     private void updateIgnoreFilters(Collection<IgnoreFilter> filters) {
         sequential(() -> {
-            final NestedIntervalMap<IpRange, List<RoaPrefix>> roaPrefixes = recalculateRoaPrefixes(this.validatedRoaPrefixes, this.ignoreFilters, this.roaPrefixAssertions);
-            final NestedIntervalMap<IpRange, List<RoaPrefix>> filteredRoaPrefixes = recalculateFilteredRoaPrefixes(this.validatedRoaPrefixes, this.ignoreFilters);
+            final NestedIntervalMap<IpRange, List<RoaPrefix>> roaPrefixes = recalculateRoaPrefixes(this.validatedRoaPrefixes.values(), this.ignoreFilters, this.roaPrefixAssertions);
+            final NestedIntervalMap<IpRange, List<RoaPrefix>> filteredRoaPrefixes = recalculateFilteredRoaPrefixes(this.validatedRoaPrefixes.values(), this.ignoreFilters);
 
             writeLocked(() -> {
                 this.ignoreFilters = ImmutableList.copyOf(filters);
@@ -441,7 +500,7 @@ public class BgpPreviewService {
                             .iterator()
             );
 
-            final NestedIntervalMap<IpRange, List<RoaPrefix>> updatedRoaPrefixes = recalculateRoaPrefixes(this.validatedRoaPrefixes, this.ignoreFilters, roaPrefixAssertions);
+            final NestedIntervalMap<IpRange, List<RoaPrefix>> updatedRoaPrefixes = recalculateRoaPrefixes(this.validatedRoaPrefixes.values(), this.ignoreFilters, roaPrefixAssertions);
             final Map<String, ImmutableList<BgpPreviewEntry>> updatedBgpPreviewEntries = validateBgpRisEntries(this.bgpPreviewEntries, this.roaPrefixes);
 
             writeLocked(() -> {
@@ -453,7 +512,7 @@ public class BgpPreviewService {
     }
 
     private static NestedIntervalMap<IpRange, List<RoaPrefix>> recalculateRoaPrefixes(
-            ImmutableList<RoaPrefix> validatedRoaPrefixes,
+            Collection<RoaPrefix> validatedRoaPrefixes,
             ImmutableList<IgnoreFilter> ignoreFilters,
             ImmutableList<RoaPrefix> roaPrefixAssertions
     ) {
@@ -463,35 +522,19 @@ public class BgpPreviewService {
                         .stream()
                         .filter(new IgnoreFiltersPredicate(ignoreFilters.stream()).negate()),
                 roaPrefixAssertions.stream()
-        ).forEach(p -> {
-            final IpRange ipRange = p.getPrefix();
-            List<RoaPrefix> existing = roaPrefixes.findExact(ipRange);
-            if (existing == null) {
-                existing = new ArrayList<>(1);
-                roaPrefixes.put(ipRange, existing);
-            }
-            existing.add(p);
-        });
+        ).forEach(p -> addRoaPrefix(roaPrefixes, p));
         return roaPrefixes;
     }
 
     private static NestedIntervalMap<IpRange, List<RoaPrefix>> recalculateFilteredRoaPrefixes(
-            ImmutableList<RoaPrefix> validatedRoaPrefixes,
+            Collection<RoaPrefix> validatedRoaPrefixes,
             ImmutableList<IgnoreFilter> ignoreFilters
     ) {
         NestedIntervalMap<IpRange, List<RoaPrefix>> roaPrefixes = new NestedIntervalMap<>(IpResourceIntervalStrategy.getInstance());
         validatedRoaPrefixes
                 .stream()
                 .filter(new IgnoreFiltersPredicate(ignoreFilters.stream()))
-                .forEach(p -> {
-                    final IpRange ipRange = p.getPrefix();
-                    List<RoaPrefix> existing = roaPrefixes.findExact(ipRange);
-                    if (existing == null) {
-                        existing = new ArrayList<>(1);
-                        roaPrefixes.put(ipRange, existing);
-                    }
-                    existing.add(p);
-                });
+                .forEach(p -> addRoaPrefix(roaPrefixes, p));
         return roaPrefixes;
     }
 
@@ -34,12 +34,16 @@ import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.api.Api;
 import net.ripe.rpki.validator3.api.ApiResponse;
 import net.ripe.rpki.validator3.storage.lmdb.Lmdb;
+import net.ripe.rpki.validator3.storage.lmdb.LmdbCompactionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
 import java.util.Map;
 
 @RestController
@@ -50,6 +54,9 @@ public class LmdbController {
     @Autowired
     private Lmdb lmdb;
 
+    @Autowired
+    private LmdbCompactionService lmdbCompactionService;
+
     @GetMapping("/tx")
     public ResponseEntity<ApiResponse<Map<Long, Lmdb.TxInfo>>> tx() {
         return ResponseEntity.ok(
@@ -67,4 +74,22 @@ public class LmdbController {
                         .build()
         );
     }
+
+    @PostMapping("/compact")
+    public ResponseEntity<ApiResponse<LmdbCompactionService.CompactionResult>> compact() throws IOException {
+        return ResponseEntity.ok(
+                ApiResponse.<LmdbCompactionService.CompactionResult>builder()
+                        .data(lmdbCompactionService.compact())
+                        .build()
+        );
+    }
+
+    @PostMapping("/backup")
+    public ResponseEntity<ApiResponse<LmdbCompactionService.CompactionResult>> backup(@RequestParam("path") String path) throws IOException {
+        return ResponseEntity.ok(
+                ApiResponse.<LmdbCompactionService.CompactionResult>builder()
+                        .data(lmdbCompactionService.backup(path))
+                        .build()
+        );
+    }
 }
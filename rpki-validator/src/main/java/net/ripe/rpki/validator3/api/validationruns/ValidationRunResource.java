@@ -74,6 +74,8 @@ public class ValidationRunResource {
 
     List<ValidationCheckResource> validationChecks;
 
+    List<ValidationPhaseResource> phases;
+
     Integer validatedObjectCount;
 
     Integer addedObjectCount;
@@ -97,6 +99,12 @@ public class ValidationRunResource {
                     .stream()
                     .map(check -> ValidationCheckResource.of(check, check.formattedMessage(messageSource, locale)))
                     .collect(Collectors.toList())
+            )
+            .phases(
+                validationRun.getPhases()
+                    .stream()
+                    .map(ValidationPhaseResource::of)
+                    .collect(Collectors.toList())
             );
 
         validationRun.visit(new ValidationRun.Visitor() {
@@ -52,6 +52,7 @@ import java.util.Date;
 import java.util.Map;
 import java.util.TreeMap;
 
+import static org.quartz.DateBuilder.IntervalUnit.HOUR;
 import static org.quartz.DateBuilder.IntervalUnit.MINUTE;
 import static org.quartz.DateBuilder.IntervalUnit.SECOND;
 import static org.quartz.DateBuilder.futureDate;
@@ -87,6 +88,10 @@ public class BackgroundJobs extends JobListenerSupport {
         schedule(DownloadBgpRisDumpsJob.class,
                 futureDate(10, SECOND),
                 simpleSchedule().repeatForever().withIntervalInMinutes(10));
+
+        schedule(LmdbCompactionJob.class,
+                futureDate(1, HOUR),
+                simpleSchedule().repeatForever().withIntervalInHours(24));
     }
 
     private <T extends Trigger> void schedule(Class<? extends Job> jobClass, Date startAt, ScheduleBuilder<T> schedule) throws SchedulerException {
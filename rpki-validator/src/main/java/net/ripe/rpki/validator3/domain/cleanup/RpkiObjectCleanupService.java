@@ -33,6 +33,8 @@ import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
 import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.validator3.domain.validation.ValidationProfile;
+import net.ripe.rpki.validator3.domain.validation.ValidationProfiler;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
@@ -62,6 +64,9 @@ public class RpkiObjectCleanupService {
     @Autowired
     private RpkiObjects rpkiObjects;
 
+    @Autowired
+    private ValidationProfiler profiler;
+
     private final Duration cleanupGraceDuration;
 
     private final Lmdb lmdb;
@@ -79,12 +84,21 @@ public class RpkiObjectCleanupService {
      * Objects that are no longer reachable will be deleted after a configurable grace duration.
      */
     public long cleanupRpkiObjects() throws Exception {
+        final ValidationProfile profile = profiler.start();
+        try {
+            return cleanupRpkiObjects(profile);
+        } finally {
+            profiler.complete("rpki-object-cleanup", null, profile);
+        }
+    }
+
+    private long cleanupRpkiObjects(ValidationProfile profile) {
         Instant now = Instant.now();
         final List<TrustAnchor> trustAnchors = lmdb.readTx(tx -> this.trustAnchors.findAll(tx));
         final Set<Key> markThem = ConcurrentHashMap.newKeySet();
         log.info("Verify starting cleanup ");
-        lmdb.readTx0(tx -> rpkiObjects.verify(tx));
-        final Long t0 = Time.timed(() ->
+        profile.timed("verify", () -> lmdb.readTx0(tx -> rpkiObjects.verify(tx)));
+        final Long t0 = Time.timed(() -> profile.timed("trace-reachable-objects", () ->
                 trustAnchors.stream()
                         .peek(trustAnchor -> log.debug("tracing objects for trust anchor {}", trustAnchor))
                         .parallel()
@@ -94,17 +108,31 @@ public class RpkiObjectCleanupService {
                                     if (resourceCertificate != null) {
                                         traceCertificateAuthority(tx, now, resourceCertificate, markThem);
                                     }
-                                })));
+                                }))));
         log.info("Found {} reachable RPKI objects in {}ms, verifying", markThem.size(), t0);
-        lmdb.readTx0(tx -> rpkiObjects.verify(tx));
+        profile.timed("verify", () -> lmdb.readTx0(tx -> rpkiObjects.verify(tx)));
+
+        // figure out what has changed in a read transaction, so that
+        // the write transaction blocking the updates stays short
+        final Pair<Pair<Set<Key>, Set<Key>>, Long> changes = Time.timed(() -> profile.timed("find-reachability-changes", () ->
+                lmdb.readTx(tx -> rpkiObjects.findReachabilityChanges(tx, markThem))));
+        final Set<Key> becameUnreachable = changes.getLeft().getLeft();
+        final Set<Key> becameReachable = changes.getLeft().getRight();
+        log.info("Found {} RPKI objects that became unreachable and {} that became reachable again in {}ms",
+                becameUnreachable.size(), becameReachable.size(), changes.getRight());
+
         return lmdb.writeTx(tx -> {
-            Long t = Time.timed(() -> markThem.forEach(pk -> rpkiObjects.markReachable(tx, pk, now)));
-            log.info("Marked reachable {} RPKI objects in {}ms", markThem.size(), t);
+            Long t = Time.timed(() -> profile.timed("update-reachability", () -> {
+                becameUnreachable.forEach(pk -> rpkiObjects.markUnreachable(tx, pk, now));
+                becameReachable.forEach(pk -> rpkiObjects.markReachable(tx, pk));
+            }));
+            log.info("Updated reachability of {} RPKI objects in {}ms", becameUnreachable.size() + becameReachable.size(), t);
             log.info("Verification before delete");
-            rpkiObjects.verify(tx);
-            long delCount = deleteUnreachableObjects(tx, now);
+            profile.timed("verify", () -> rpkiObjects.verify(tx));
+            long delCount = profile.timed("delete-unreachable-objects", () -> deleteUnreachableObjects(tx, now));
+            profile.timed("delete-unreferenced-locations", () -> deleteUnreferencedLocations(tx));
             log.info("Verification after delete");
-            rpkiObjects.verify(tx);
+            profile.timed("verify", () -> rpkiObjects.verify(tx));
             return delCount;
         });
     }
@@ -116,6 +144,11 @@ public class RpkiObjectCleanupService {
         return count.getLeft();
     }
 
+    private void deleteUnreferencedLocations(Tx.Write tx) {
+        final Pair<Long, Long> count = Time.timed(() -> rpkiObjects.deleteUnreferencedLocations(tx));
+        log.info("Removed {} locations that are not referenced anymore, took {}ms", count.getLeft(), count.getRight());
+    }
+
     private void traceCertificateAuthority(Tx.Read tx, Instant now, X509ResourceCertificate resourceCertificate, Set<Key> markThem) {
         if (resourceCertificate == null || resourceCertificate.getManifestUri() == null) {
             return;
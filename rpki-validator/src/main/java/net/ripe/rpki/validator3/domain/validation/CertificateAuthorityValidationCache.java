@@ -0,0 +1,198 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.cms.RpkiSignedObject;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509RouterCertificate;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.RpkiRepository;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Results of validating the objects published by single certificate authorities, so that
+ * the next validation of the tree only has to validate the CAs that have changed.
+ *
+ * Every object change of a CA results in a new manifest, so a CA is unchanged as long as its
+ * certificate, resources, latest manifest and repository status are the same, none of its
+ * objects has reached the end (or start) of its validity and the result is not too old.
+ * Results with failures are never reused, since objects missing from the manifest may
+ * appear without the manifest changing.
+ */
+@Slf4j
+class CertificateAuthorityValidationCache {
+
+    private final Duration maxAge;
+
+    private final Map<Long, Map<URI, CaValidation>> byTrustAnchor = new ConcurrentHashMap<>();
+
+    CertificateAuthorityValidationCache(Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    Run startRun(long trustAnchorId) {
+        return new Run(trustAnchorId, byTrustAnchor.getOrDefault(trustAnchorId, Collections.emptyMap()));
+    }
+
+    void forget(long trustAnchorId) {
+        byTrustAnchor.remove(trustAnchorId);
+    }
+
+    @Value
+    static class CaValidation {
+        X509ResourceCertificate certificate;
+        IpResourceSet resources;
+        Key manifestKey;
+        RpkiRepository.Status repositoryStatus;
+        Instant validUntil;
+        List<Key> validatedObjects;
+        ValidationResult validationResult;
+        List<CertificateRepositoryObjectValidationContext> children;
+    }
+
+    class Run {
+        private final long trustAnchorId;
+        private final Map<URI, CaValidation> previous;
+        private final Map<URI, CaValidation> current = new ConcurrentHashMap<>();
+        // the clock the objects are validated against, so that validity boundaries line up
+        private final Instant startedAt = Instant.ofEpochMilli(DateTimeUtils.currentTimeMillis());
+        private final AtomicInteger reused = new AtomicInteger();
+        private final AtomicInteger validated = new AtomicInteger();
+
+        private Run(long trustAnchorId, Map<URI, CaValidation> previous) {
+            this.trustAnchorId = trustAnchorId;
+            this.previous = previous;
+        }
+
+        Optional<CaValidation> find(CertificateRepositoryObjectValidationContext context,
+                                    Key manifestKey,
+                                    RpkiRepository.Status repositoryStatus) {
+            final CaValidation ca = previous.get(context.getLocation());
+            if (ca != null &&
+                    ca.getValidUntil().isAfter(startedAt) &&
+                    ca.getManifestKey().equals(manifestKey) &&
+                    ca.getRepositoryStatus() == repositoryStatus &&
+                    ca.getCertificate().equals(context.getCertificate()) &&
+                    ca.getResources().equals(context.getResources())) {
+                reused.incrementAndGet();
+                current.put(context.getLocation(), ca);
+                return Optional.of(ca);
+            }
+            return Optional.empty();
+        }
+
+        void add(CertificateRepositoryObjectValidationContext context, CaValidation ca) {
+            validated.incrementAndGet();
+            current.put(context.getLocation(), ca);
+        }
+
+        Expiry expiry() {
+            return new Expiry(startedAt, startedAt.plus(maxAge));
+        }
+
+        /**
+         * Only the CAs seen in this run are kept, the ones that disappeared from the tree are dropped.
+         */
+        void complete() {
+            byTrustAnchor.put(trustAnchorId, current);
+            log.info("Re-used the validation results of {} and validated {} certificate authorities",
+                    reused.get(), validated.get());
+        }
+    }
+
+    /**
+     * The earliest moment at which the validity of one of the objects of a CA changes.
+     */
+    static class Expiry {
+        private final Instant now;
+        private Instant validUntil;
+
+        Expiry(Instant now, Instant validUntil) {
+            this.now = now;
+            this.validUntil = validUntil;
+        }
+
+        synchronized void include(CertificateRepositoryObject object) {
+            if (object instanceof ManifestCms) {
+                include(((ManifestCms) object).getNextUpdateTime());
+            }
+            if (object instanceof X509Crl) {
+                include(((X509Crl) object).getNextUpdateTime());
+            }
+            if (object instanceof RpkiSignedObject) {
+                include(((RpkiSignedObject) object).getCertificate().getValidityPeriod());
+            }
+            if (object instanceof X509ResourceCertificate) {
+                include(((X509ResourceCertificate) object).getValidityPeriod());
+            }
+            if (object instanceof X509RouterCertificate) {
+                include(((X509RouterCertificate) object).getValidityPeriod());
+            }
+        }
+
+        private void include(ValidityPeriod validityPeriod) {
+            include(validityPeriod.getNotValidBefore());
+            include(validityPeriod.getNotValidAfter());
+        }
+
+        private void include(DateTime dateTime) {
+            if (dateTime != null) {
+                final Instant instant = Instant.ofEpochMilli(dateTime.getMillis());
+                if (instant.isAfter(now) && instant.isBefore(validUntil)) {
+                    validUntil = instant;
+                }
+            }
+        }
+
+        synchronized Instant get() {
+            return validUntil;
+        }
+    }
+}
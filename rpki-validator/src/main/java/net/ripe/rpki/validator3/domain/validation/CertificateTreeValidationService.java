@@ -30,6 +30,8 @@
 package net.ripe.rpki.validator3.domain.validation;
 
 import com.google.common.base.Objects;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
 import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
@@ -44,6 +46,7 @@ import net.ripe.rpki.commons.validation.ValidationString;
 import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
 import net.ripe.rpki.validator3.background.ValidationScheduler;
 import net.ripe.rpki.validator3.domain.ErrorCodes;
+import net.ripe.rpki.validator3.domain.validation.CertificateAuthorityValidationCache.CaValidation;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
@@ -60,9 +63,11 @@ import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
 import net.ripe.rpki.validator3.util.Time;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
@@ -96,6 +101,11 @@ public class CertificateTreeValidationService {
     private final TrustAnchors trustAnchors;
     private final Lmdb lmdb;
     private final ValidatedRpkiObjects validatedRpkiObjects;
+    private final CertificateAuthorityValidationCache validationCache;
+    private final ObjectValidationMemo validationMemo;
+    private final TreeValidationExecutor executor;
+    private final ValidationProfiler profiler;
+    private final int associationBatchSize;
 
     @Autowired
     public CertificateTreeValidationService(RpkiObjects rpkiObjects,
@@ -105,7 +115,12 @@ public class CertificateTreeValidationService {
                                             ValidationRuns validationRuns,
                                             TrustAnchors trustAnchors,
                                             ValidatedRpkiObjects validatedRpkiObjects,
-                                            Lmdb lmdb) {
+                                            TreeValidationExecutor executor,
+                                            ValidationProfiler profiler,
+                                            Lmdb lmdb,
+                                            @Value("${rpki.validator.validation.incremental.max.age:PT1H}") String incrementalMaxAge,
+                                            @Value("${rpki.validator.validation.memo.size:500000}") long validationMemoSize,
+                                            @Value("${rpki.validator.validation.association.batch.size:10000}") int associationBatchSize) {
         this.rpkiObjects = rpkiObjects;
         this.rpkiRepositories = rpkiRepositories;
         this.settings = settings;
@@ -113,13 +128,19 @@ public class CertificateTreeValidationService {
         this.validationRuns = validationRuns;
         this.trustAnchors = trustAnchors;
         this.validatedRpkiObjects = validatedRpkiObjects;
+        this.executor = executor;
+        this.profiler = profiler;
         this.lmdb = lmdb;
+        this.validationCache = new CertificateAuthorityValidationCache(Duration.parse(incrementalMaxAge));
+        this.validationMemo = new ObjectValidationMemo(validationMemoSize, Duration.parse(incrementalMaxAge));
+        this.associationBatchSize = associationBatchSize;
     }
 
     public void validate(long trustAnchorId) {
         Optional<TrustAnchor> maybeTrustAnchor = lmdb.readTx(tx -> trustAnchors.get(tx, Key.of(trustAnchorId)));
         if (!maybeTrustAnchor.isPresent()) {
             log.error("Couldn't find trust anchor {}", trustAnchorId);
+            validationCache.forget(trustAnchorId);
             return;
         }
         validateTa(maybeTrustAnchor.get());
@@ -133,6 +154,11 @@ public class CertificateTreeValidationService {
 
         final Ref<TrustAnchor> trustAnchorRef = lmdb.readTx(tx -> trustAnchors.makeRef(tx, trustAnchor.key()));
         final CertificateTreeValidationRun validationRun = new CertificateTreeValidationRun(trustAnchorRef);
+        // stored right away, so that validated objects can be associated with it during the validation
+        lmdb.writeTx0(tx -> validationRuns.add(tx, validationRun));
+        final CertificateAuthorityValidationCache.Run cache = validationCache.startRun(trustAnchor.key().asLong());
+        final CacheStats memoStatsBefore = validationMemo.stats();
+        final ValidationProfile profile = profiler.start();
 
         String trustAnchorLocation = trustAnchor.getLocations().get(0);
         ValidationResult validationResult = ValidationResult.withLocation(trustAnchorLocation);
@@ -160,17 +186,18 @@ public class CertificateTreeValidationService {
                 return;
             }
 
-            final List<Key> rpkiObjectsKeys = validateCertificateAuthority(trustAnchor, registeredRepositories, context, validationResult);
-            if (rpkiObjectsKeys.isEmpty()) {
+            final ValidationRunAssociations associations = new ValidationRunAssociations(lmdb, validationRuns, validationRun, associationBatchSize, profile);
+            final TreeValidationResults results = new TreeValidationResults(associations);
+            executor.invoke(() -> validateCertificateAuthority(trustAnchor, registeredRepositories, context, results, cache, profile));
+            results.mergeInto(validationResult);
+            Long t = Time.timed(associations::flush);
+            log.info("Associated {} objects with the validation run {}, last batch in {}ms", associations.getAssociatedCount(), validationRun.key(), t);
+            if (associations.getAssociatedCount() == 0) {
                 if (isValidationRunCompleted(validationResult)) {
                     log.info("No associated objects, validation run: {}, validation result: {}", validationRun.key(), validationResult);
                 }
             }
             lmdb.writeTx0(tx -> {
-                validationRuns.add(tx, validationRun);
-                Long t = Time.timed(() -> rpkiObjectsKeys.forEach(key -> validationRuns.associateRpkiObjectKey(tx, validationRun, key)));
-                log.info("Associated {} objects with the validation run {} in {}ms", rpkiObjectsKeys.size(), validationRun.key(), t);
-
                 if (isValidationRunCompleted(validationResult)) {
                     trustAnchor.markInitialCertificateTreeValidationRunCompleted();
                     trustAnchors.update(tx, trustAnchor);
@@ -180,12 +207,18 @@ public class CertificateTreeValidationService {
                     }
                 }
             });
-            if (!rpkiObjectsKeys.isEmpty()) {
-                lmdb.readTx0(tx -> validatedRpkiObjects.updateByKey(tx, trustAnchorRef, rpkiObjectsKeys));
+            if (associations.getAssociatedCount() > 0) {
+                profile.timed("update-validated-objects", () ->
+                        lmdb.readTx0(tx -> validatedRpkiObjects.updateByKey(tx, trustAnchorRef, validationRuns.streamAssociatedPks(tx, validationRun))));
             }
+            cache.complete();
+            final CacheStats memoStats = validationMemo.stats().minus(memoStatsBefore);
+            log.info("Found {} objects in the validation memo, validated {} objects", memoStats.hitCount(), memoStats.missCount());
             lmdb.readTx0(rpkiObjects::verify);
         } finally {
+            // a single write makes the run, with all its associated objects, the latest one
             validationRun.completeWith(validationResult);
+            profiler.complete(validationRun, trustAnchor.getName(), profile);
             lmdb.writeTx0(tx -> validationRuns.update(tx, validationRun));
             long end = System.currentTimeMillis();
             log.info("Tree validation {} for {} in {}ms", validationRun.getStatus().toString().toLowerCase(), trustAnchor.getName(), (end - begin));
@@ -197,134 +230,193 @@ public class CertificateTreeValidationService {
                 .noneMatch(check -> check.getStatus() != ValidationStatus.PASSED && VALIDATOR_RPKI_REPOSITORY_PENDING.equals(check.getKey()));
     }
 
-    private List<Key> validateCertificateAuthority(TrustAnchor trustAnchor,
-                                                   Map<URI, RpkiRepository> registeredRepositories,
-                                                   CertificateRepositoryObjectValidationContext context,
-                                                   ValidationResult validationResult) {
+    private void validateCertificateAuthority(TrustAnchor trustAnchor,
+                                              Map<URI, RpkiRepository> registeredRepositories,
+                                              CertificateRepositoryObjectValidationContext context,
+                                              TreeValidationResults results,
+                                              CertificateAuthorityValidationCache.Run cache,
+                                              ValidationProfile profile) {
+        final long startedAt = System.nanoTime();
         final List<Key> validatedObjects = new ArrayList<>();
 
-        ValidationLocation certificateLocation = validationResult.getCurrentLocation();
+        ValidationLocation certificateLocation = new ValidationLocation(context.getLocation());
         ValidationResult temporary = ValidationResult.withLocation(certificateLocation);
         try {
-            RpkiRepository rpkiRepository = lmdb.writeTx(tx -> registerRepository(tx, trustAnchor, registeredRepositories, context));
+            RpkiRepository rpkiRepository = profile.timed("register-repository", () ->
+                    lmdb.writeTx(tx -> registerRepository(tx, trustAnchor, registeredRepositories, context)));
 
             temporary.warnIfTrue(rpkiRepository.isPending(), VALIDATOR_RPKI_REPOSITORY_PENDING, rpkiRepository.getLocationUri());
             if (rpkiRepository.isPending()) {
-                return validatedObjects;
+                return;
             }
 
-            X509ResourceCertificate certificate = context.getCertificate();
-            URI manifestUri = certificate.getManifestUri();
-            temporary.setLocation(new ValidationLocation(manifestUri));
+            final Optional<List<CertificateRepositoryObjectValidationContext>> children =
+                    executor.readTx(tx -> validateObjects(tx, context, rpkiRepository, temporary, validatedObjects, cache, profile));
+            if (children.isPresent()) {
+                executor.recordCaValidation(startedAt);
+                validateChildren(trustAnchor, registeredRepositories, children.get(), results, cache, profile);
+            }
+        } catch (Exception e) {
+            temporary.error(ErrorCodes.UNHANDLED_EXCEPTION, e.toString(), ExceptionUtils.getStackTrace(e));
+        } finally {
+            // children have their own results, so the ones of this CA are complete here
+            results.add(temporary, validatedObjects);
+        }
+    }
 
-            Optional<RpkiObject> manifestObject = lmdb.readTx(tx -> rpkiObjects.findLatestMftByAKI(tx, context.getSubjectKeyIdentifier()));
+    /**
+     * Validate the manifest, the CRL and the objects on the manifest of a CA, all in the same
+     * read transaction so that they are consistent with each other. Returns the child CAs to
+     * validate next, or nothing if the CA itself could not be validated.
+     */
+    private Optional<List<CertificateRepositoryObjectValidationContext>> validateObjects(Tx.Read tx,
+                                                                                         CertificateRepositoryObjectValidationContext context,
+                                                                                         RpkiRepository rpkiRepository,
+                                                                                         ValidationResult temporary,
+                                                                                         List<Key> validatedObjects,
+                                                                                         CertificateAuthorityValidationCache.Run cache,
+                                                                                         ValidationProfile profile) {
+        X509ResourceCertificate certificate = context.getCertificate();
+        URI manifestUri = certificate.getManifestUri();
+        temporary.setLocation(new ValidationLocation(manifestUri));
+
+        Optional<RpkiObject> manifestObject = profile.timed("find-manifest", () ->
+                rpkiObjects.findLatestMftByAKI(tx, context.getSubjectKeyIdentifier()));
+
+        // nothing has changed for this CA since the previous run, only its children may have
+        final Optional<CaValidation> previous = manifestObject.flatMap(m -> cache.find(context, m.key(), rpkiRepository.getStatus()));
+        if (previous.isPresent()) {
+            temporary.addAll(previous.get().getValidationResult());
+            validatedObjects.addAll(previous.get().getValidatedObjects());
+            return Optional.of(previous.get().getChildren());
+        }
+        final CertificateAuthorityValidationCache.Expiry expiry = cache.expiry();
 
-            if (!manifestObject.isPresent()) {
-                if (rpkiRepository.getStatus() == RpkiRepository.Status.FAILED) {
-                    temporary.error(ValidationString.VALIDATOR_NO_MANIFEST_REPOSITORY_FAILED, rpkiRepository.getLocationUri());
-                } else {
-                    temporary.error(ValidationString.VALIDATOR_NO_LOCAL_MANIFEST_NO_MANIFEST_IN_REPOSITORY, rpkiRepository.getLocationUri());
-                }
+        if (!manifestObject.isPresent()) {
+            if (rpkiRepository.getStatus() == RpkiRepository.Status.FAILED) {
+                temporary.error(ValidationString.VALIDATOR_NO_MANIFEST_REPOSITORY_FAILED, rpkiRepository.getLocationUri());
+            } else {
+                temporary.error(ValidationString.VALIDATOR_NO_LOCAL_MANIFEST_NO_MANIFEST_IN_REPOSITORY, rpkiRepository.getLocationUri());
             }
+        }
 
-            Optional<ManifestCms> maybeManifest = lmdb.readTx(tx -> manifestObject.flatMap(x ->
-                    rpkiObjects.findCertificateRepositoryObject(tx, x.key(), ManifestCms.class, temporary)));
+        Optional<ManifestCms> maybeManifest = manifestObject.flatMap(x ->
+                profile.timed("parse-objects", () -> rpkiObjects.findCertificateRepositoryObject(tx, x.key(), ManifestCms.class, temporary)));
 
-            temporary.rejectIfTrue(manifestObject.isPresent() &&
-                            rpkiRepository.getStatus() == RpkiRepository.Status.FAILED &&
-                            maybeManifest.isPresent() &&
-                            maybeManifest.get().isPastValidityTime(),
-                    ValidationString.VALIDATOR_OLD_LOCAL_MANIFEST_REPOSITORY_FAILED, rpkiRepository.getLocationUri());
+        temporary.rejectIfTrue(manifestObject.isPresent() &&
+                        rpkiRepository.getStatus() == RpkiRepository.Status.FAILED &&
+                        maybeManifest.isPresent() &&
+                        maybeManifest.get().isPastValidityTime(),
+                ValidationString.VALIDATOR_OLD_LOCAL_MANIFEST_REPOSITORY_FAILED, rpkiRepository.getLocationUri());
 
-            if (temporary.hasFailureForCurrentLocation()) {
-                return validatedObjects;
-            }
+        if (temporary.hasFailureForCurrentLocation()) {
+            return Optional.empty();
+        }
 
-            final ManifestCms manifest = maybeManifest.get();
-            List<Map.Entry<String, byte[]>> crlEntries = manifest.getFiles().entrySet().stream()
-                    .filter(entry -> RepositoryObjectType.parse(entry.getKey()) == RepositoryObjectType.Crl)
-                    .collect(toList());
-            temporary.rejectIfFalse(crlEntries.size() == 1, VALIDATOR_MANIFEST_CONTAINS_ONE_CRL_ENTRY, String.valueOf(crlEntries.size()));
-            if (temporary.hasFailureForCurrentLocation()) {
-                return validatedObjects;
-            }
+        final ManifestCms manifest = maybeManifest.get();
+        expiry.include(manifest);
+        List<Map.Entry<String, byte[]>> crlEntries = manifest.getFiles().entrySet().stream()
+                .filter(entry -> RepositoryObjectType.parse(entry.getKey()) == RepositoryObjectType.Crl)
+                .collect(toList());
+        temporary.rejectIfFalse(crlEntries.size() == 1, VALIDATOR_MANIFEST_CONTAINS_ONE_CRL_ENTRY, String.valueOf(crlEntries.size()));
+        if (temporary.hasFailureForCurrentLocation()) {
+            return Optional.empty();
+        }
 
-            Map.Entry<String, byte[]> crlEntry = crlEntries.get(0);
-            URI crlUri = manifestUri.resolve(crlEntry.getKey());
+        Map.Entry<String, byte[]> crlEntry = crlEntries.get(0);
+        URI crlUri = manifestUri.resolve(crlEntry.getKey());
 
-            Optional<RpkiObject> crlObject = lmdb.readTx(tx -> rpkiObjects.findBySha256(tx, crlEntry.getValue()));
-            temporary.rejectIfFalse(crlObject.isPresent(), VALIDATOR_CRL_FOUND, crlUri.toASCIIString());
-            if (temporary.hasFailureForCurrentLocation()) {
-                return validatedObjects;
-            }
-
-            temporary.setLocation(new ValidationLocation(crlUri));
-            Optional<X509Crl> crl = crlObject.flatMap(x -> lmdb.readTx(tx -> rpkiObjects.findCertificateRepositoryObject(tx, x.key(), X509Crl.class, temporary)));
-            if (temporary.hasFailureForCurrentLocation()) {
-                return validatedObjects;
-            }
+        Optional<RpkiObject> crlObject = rpkiObjects.findBySha256(tx, crlEntry.getValue());
+        temporary.rejectIfFalse(crlObject.isPresent(), VALIDATOR_CRL_FOUND, crlUri.toASCIIString());
+        if (temporary.hasFailureForCurrentLocation()) {
+            return Optional.empty();
+        }
 
-            crl.get().validate(crlUri.toASCIIString(), context, null, VALIDATION_OPTIONS, temporary);
-            if (temporary.hasFailureForCurrentLocation()) {
-                return validatedObjects;
-            }
+        temporary.setLocation(new ValidationLocation(crlUri));
+        Optional<X509Crl> crl = crlObject.flatMap(x -> profile.timed("parse-objects", () ->
+                rpkiObjects.findCertificateRepositoryObject(tx, x.key(), X509Crl.class, temporary)));
+        if (temporary.hasFailureForCurrentLocation()) {
+            return Optional.empty();
+        }
 
-            temporary.setLocation(new ValidationLocation(manifestUri));
-            manifest.validate(manifestUri.toASCIIString(), context, crl.get(), manifest.getCrlUri(), VALIDATION_OPTIONS, temporary);
-            if (temporary.hasFailureForCurrentLocation()) {
-                return validatedObjects;
-            }
-            validatedObjects.add(manifestObject.get().key());
-
-            List<CertificateRepositoryObjectValidationContext> objectStream = lmdb.readTx(tx ->
-                    retrieveManifestEntries(tx, manifest, manifestUri, temporary)
-                            .entrySet().stream().map(e -> {
-                        URI location = e.getKey();
-                        RpkiObject rpkiObject = e.getValue();
-                        temporary.setLocation(new ValidationLocation(location));
-
-                        Optional<CertificateRepositoryObject> maybeCertificateRepositoryObject =
-                                rpkiObjects.findCertificateRepositoryObject(tx, rpkiObject.key(), CertificateRepositoryObject.class, temporary);
-
-                        if (!temporary.hasFailureForCurrentLocation()) {
-                            return maybeCertificateRepositoryObject.flatMap(certificateRepositoryObject -> {
-                                certificateRepositoryObject.validate(location.toASCIIString(), context, crl.get(), crlUri, VALIDATION_OPTIONS, temporary);
-
-                                if (!temporary.hasFailureForCurrentLocation()) {
-                                    validatedObjects.add(rpkiObject.key());
-                                }
-
-                                if (certificateRepositoryObject instanceof X509ResourceCertificate
-                                        && ((X509ResourceCertificate) certificateRepositoryObject).isCa()
-                                        && !temporary.hasFailureForCurrentLocation()) {
-
-                                    return Optional.of(context.createChildContext(location, (X509ResourceCertificate) certificateRepositoryObject));
-                                }
-                                return Optional.empty();
-                            });
-                        }
-                        return Optional.<CertificateRepositoryObjectValidationContext>empty();
-                    })
-                            .filter(Optional::isPresent)
-                            .map(Optional::get)
-                            .collect(Collectors.toList()));
-
-            objectStream
-                    .parallelStream()
-                    .map(childContext -> validateCertificateAuthority(trustAnchor, registeredRepositories, childContext, temporary))
-                    .forEachOrdered(validatedObjects::addAll);
+        expiry.include(crl.get());
+        profile.timed("validate-objects", () -> crl.get().validate(crlUri.toASCIIString(), context, null, VALIDATION_OPTIONS, temporary));
+        if (temporary.hasFailureForCurrentLocation()) {
+            return Optional.empty();
+        }
 
-        } catch (Exception e) {
-            synchronized (this) {
-                validationResult.error(ErrorCodes.UNHANDLED_EXCEPTION, e.toString(), ExceptionUtils.getStackTrace(e));
-            }
-        } finally {
-            synchronized (this) {
-                validationResult.addAll(temporary);
-            }
+        final byte[] issuer = validationMemo.issuer(context, crlUri);
+        temporary.setLocation(new ValidationLocation(manifestUri));
+        profile.timed("validate-objects", () ->
+                manifest.validate(manifestUri.toASCIIString(), context, crl.get(), manifest.getCrlUri(), VALIDATION_OPTIONS, temporary));
+        if (temporary.hasFailureForCurrentLocation()) {
+            return Optional.empty();
         }
+        validatedObjects.add(manifestObject.get().key());
+
+        List<CertificateRepositoryObjectValidationContext> objectStream =
+                profile.timed("find-manifest-entries", () -> retrieveManifestEntries(tx, manifest, manifestUri, temporary))
+                        .entrySet().stream().map(e -> {
+                    URI location = e.getKey();
+                    RpkiObject rpkiObject = e.getValue();
+                    temporary.setLocation(new ValidationLocation(location));
+
+                    Optional<CertificateRepositoryObject> maybeCertificateRepositoryObject =
+                            profile.timed("parse-objects", () ->
+                                    rpkiObjects.findCertificateRepositoryObject(tx, rpkiObject.key(), CertificateRepositoryObject.class, temporary));
+
+                    if (!temporary.hasFailureForCurrentLocation()) {
+                        return maybeCertificateRepositoryObject.flatMap(certificateRepositoryObject -> {
+                            expiry.include(certificateRepositoryObject);
+                            profile.timed("validate-objects", () ->
+                                    validationMemo.validate(certificateRepositoryObject, rpkiObject.key(), location.toASCIIString(),
+                                            issuer, context, crl.get(), crlUri, VALIDATION_OPTIONS, temporary));
+
+                            if (!temporary.hasFailureForCurrentLocation()) {
+                                validatedObjects.add(rpkiObject.key());
+                            }
+
+                            if (certificateRepositoryObject instanceof X509ResourceCertificate
+                                    && ((X509ResourceCertificate) certificateRepositoryObject).isCa()
+                                    && !temporary.hasFailureForCurrentLocation()) {
+
+                                return Optional.of(context.createChildContext(location, (X509ResourceCertificate) certificateRepositoryObject));
+                            }
+                            return Optional.empty();
+                        });
+                    }
+                    return Optional.<CertificateRepositoryObjectValidationContext>empty();
+                })
+                        .filter(Optional::isPresent)
+                        .map(Optional::get)
+                        .collect(Collectors.toList());
+
+        if (!temporary.hasFailures()) {
+            // a snapshot, the caller keeps adding to the result and the list of objects
+            final ValidationResult snapshot = ValidationResult.withLocation(temporary.getCurrentLocation());
+            snapshot.addAll(temporary);
+            cache.add(context, new CaValidation(
+                    certificate,
+                    context.getResources(),
+                    manifestObject.get().key(),
+                    rpkiRepository.getStatus(),
+                    expiry.get(),
+                    ImmutableList.copyOf(validatedObjects),
+                    snapshot,
+                    ImmutableList.copyOf(objectStream)));
+        }
+        return Optional.of(objectStream);
+    }
 
-        return validatedObjects;
+    private void validateChildren(TrustAnchor trustAnchor,
+                                  Map<URI, RpkiRepository> registeredRepositories,
+                                  List<CertificateRepositoryObjectValidationContext> children,
+                                  TreeValidationResults results,
+                                  CertificateAuthorityValidationCache.Run cache,
+                                  ValidationProfile profile) {
+        // called from the workers of the executor, so the parallel stream runs there as well
+        children.parallelStream()
+                .forEach(childContext -> validateCertificateAuthority(trustAnchor, registeredRepositories, childContext, results, cache, profile));
     }
 
     private RpkiRepository registerRepository(Tx.Write tx,
@@ -364,12 +456,16 @@ public class CertificateTreeValidationService {
     }
 
     private Map<URI, RpkiObject> retrieveManifestEntries(Tx.Read tx, ManifestCms manifest, URI manifestUri, ValidationResult validationResult) {
+        // look up all the entries at once, in the order of the keys
+        final Map<Key, RpkiObject> objects = rpkiObjects.findAllBySha256(tx,
+                manifest.getFiles().values().stream().map(Key::of).collect(toList()));
+
         Map<URI, RpkiObject> result = new LinkedHashMap<>();
         for (Map.Entry<String, byte[]> entry : manifest.getFiles().entrySet()) {
             URI location = manifestUri.resolve(entry.getKey());
             validationResult.setLocation(new ValidationLocation(location));
 
-            Optional<RpkiObject> object = rpkiObjects.findBySha256(tx, entry.getValue());
+            Optional<RpkiObject> object = Optional.ofNullable(objects.get(Key.of(entry.getValue())));
             validationResult.rejectIfFalse(object.isPresent(), VALIDATOR_MANIFEST_ENTRY_FOUND, manifestUri.toASCIIString());
 
             object.ifPresent(obj -> {
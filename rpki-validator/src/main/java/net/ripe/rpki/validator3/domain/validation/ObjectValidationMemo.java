@@ -0,0 +1,168 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.cms.RpkiSignedObject;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509RouterCertificate;
+import net.ripe.rpki.commons.validation.ValidationOptions;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.ValidationStatus;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.util.Sha256;
+import org.joda.time.DateTimeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Remembers which objects passed validation without any warnings, so that the signatures
+ * of the same object issued by the same certificate (with the same resources) don't have to
+ * be verified again in the next validation run.
+ *
+ * A remembered result is only used until the validity of the object changes and only if the
+ * object is not revoked by the current CRL, the rest of the checks only depend on the content
+ * of the object and the issuer. Only passed checks are left out from the validation result,
+ * they are not stored with the validation runs anyway.
+ */
+class ObjectValidationMemo {
+
+    private final Cache<Key, Long> passed;
+    private final Duration maxAge;
+
+    ObjectValidationMemo(long maxSize, Duration maxAge) {
+        this.passed = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Everything about the issuer that the validation of its objects depends on.
+     */
+    byte[] issuer(CertificateRepositoryObjectValidationContext context, URI crlUri) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] certificate = context.getCertificate().getEncoded();
+        out.write(certificate, 0, certificate.length);
+        final byte[] rest = (context.getResources() + "|" + crlUri).getBytes(UTF_8);
+        out.write(rest, 0, rest.length);
+        return Sha256.hash(out.toByteArray());
+    }
+
+    void validate(CertificateRepositoryObject object,
+                  Key objectKey,
+                  String location,
+                  byte[] issuer,
+                  CertificateRepositoryObjectValidationContext context,
+                  X509Crl crl,
+                  URI crlUri,
+                  ValidationOptions options,
+                  ValidationResult validationResult) {
+        validate(object, objectKey, location, issuer, crl, validationResult,
+                result -> object.validate(location, context, crl, crlUri, options, result));
+    }
+
+    /**
+     * Run <code>validation</code>, unless the object has passed it before and is still valid and not revoked.
+     */
+    void validate(CertificateRepositoryObject object,
+                  Key objectKey,
+                  String location,
+                  byte[] issuer,
+                  X509Crl crl,
+                  ValidationResult validationResult,
+                  Consumer<ValidationResult> validation) {
+        // the same clock as the validation itself, so that the memo expires exactly when the object does
+        final Instant now = Instant.ofEpochMilli(DateTimeUtils.currentTimeMillis());
+        final Key key = memoKey(objectKey, issuer, location);
+        final Long validUntil = passed.getIfPresent(key);
+        if (validUntil != null && validUntil > now.toEpochMilli() && isNotRevoked(object, crl)) {
+            return;
+        }
+
+        final ValidationResult result = ValidationResult.withLocation(location);
+        validation.accept(result);
+        validationResult.addAll(result);
+
+        if (onlyPassed(result)) {
+            final CertificateAuthorityValidationCache.Expiry expiry =
+                    new CertificateAuthorityValidationCache.Expiry(now, now.plus(maxAge));
+            expiry.include(object);
+            passed.put(key, expiry.get().toEpochMilli());
+        }
+    }
+
+    CacheStats stats() {
+        return passed.stats();
+    }
+
+    private static Key memoKey(Key objectKey, byte[] issuer, String location) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] object = objectKey.getBytes();
+        out.write(object, 0, object.length);
+        out.write(issuer, 0, issuer.length);
+        final byte[] l = location.getBytes(UTF_8);
+        out.write(l, 0, l.length);
+        return Key.of(Sha256.hash(out.toByteArray()));
+    }
+
+    private static boolean onlyPassed(ValidationResult result) {
+        return result.getValidatedLocations().stream()
+                .flatMap(location -> result.getAllValidationChecksForLocation(location).stream())
+                .allMatch(check -> check.getStatus() == ValidationStatus.PASSED);
+    }
+
+    private static boolean isNotRevoked(CertificateRepositoryObject object, X509Crl crl) {
+        final X509Certificate certificate;
+        if (object instanceof X509ResourceCertificate) {
+            certificate = ((X509ResourceCertificate) object).getCertificate();
+        } else if (object instanceof X509RouterCertificate) {
+            certificate = ((X509RouterCertificate) object).getCertificate();
+        } else if (object instanceof RpkiSignedObject) {
+            certificate = ((RpkiSignedObject) object).getCertificate().getCertificate();
+        } else {
+            return false;
+        }
+        return crl != null && !crl.isRevoked(certificate);
+    }
+}
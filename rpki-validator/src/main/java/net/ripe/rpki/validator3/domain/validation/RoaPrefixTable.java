@@ -0,0 +1,347 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import lombok.Getter;
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.ipresource.Ipv4Address;
+import net.ripe.ipresource.Ipv6Address;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The validated ROA prefixes of a trust anchor, stored in columns of primitives instead of as
+ * an object per prefix. {@link ValidatedRpkiObjects.RoaPrefix} objects are only created when the
+ * prefixes are read, and are not kept. All the prefixes of a ROA share a single set of locations.
+ *
+ * Rows are sorted and unique, so that tables can be compared and diffed without creating objects.
+ */
+public class RoaPrefixTable {
+
+    private static final int NO_MAXIMUM_LENGTH = 0xFF;
+
+    private static final Comparator<Iterable<String>> LOCATIONS_ORDER = Ordering.<String>natural().lexicographical();
+
+    public static final RoaPrefixTable EMPTY = builder(null).build();
+
+    @Getter
+    private final ValidatedRpkiObjects.TrustAnchorData trustAnchor;
+    private final int size;
+    private final boolean[] ipv6;
+    private final long[] addressHigh;
+    private final long[] addressLow;
+    // lengths are unsigned
+    private final byte[] prefixLength;
+    private final byte[] maximumLength;
+    private final byte[] effectiveLength;
+    // unsigned as well
+    private final int[] asn;
+    private final int[] locationSet;
+    private final ImmutableList<ImmutableSortedSet<String>> locationSets;
+
+    private RoaPrefixTable(ValidatedRpkiObjects.TrustAnchorData trustAnchor,
+                           int size,
+                           boolean[] ipv6,
+                           long[] addressHigh,
+                           long[] addressLow,
+                           byte[] prefixLength,
+                           byte[] maximumLength,
+                           byte[] effectiveLength,
+                           int[] asn,
+                           int[] locationSet,
+                           ImmutableList<ImmutableSortedSet<String>> locationSets) {
+        this.trustAnchor = trustAnchor;
+        this.size = size;
+        this.ipv6 = ipv6;
+        this.addressHigh = addressHigh;
+        this.addressLow = addressLow;
+        this.prefixLength = prefixLength;
+        this.maximumLength = maximumLength;
+        this.effectiveLength = effectiveLength;
+        this.asn = asn;
+        this.locationSet = locationSet;
+        this.locationSets = locationSets;
+    }
+
+    public static Builder builder(ValidatedRpkiObjects.TrustAnchorData trustAnchor) {
+        return new Builder(trustAnchor);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public ValidatedRpkiObjects.RoaPrefix get(int row) {
+        final int maxLength = maximumLength[row] & 0xFF;
+        return ValidatedRpkiObjects.RoaPrefix.of(
+                trustAnchor,
+                new Asn(Integer.toUnsignedLong(asn[row])),
+                prefix(row),
+                maxLength == NO_MAXIMUM_LENGTH ? null : maxLength,
+                effectiveLength[row] & 0xFF,
+                locationSets.get(locationSet[row])
+        );
+    }
+
+    public Stream<ValidatedRpkiObjects.RoaPrefix> stream() {
+        return IntStream.range(0, size).mapToObj(this::get);
+    }
+
+    private IpRange prefix(int row) {
+        final int length = prefixLength[row] & 0xFF;
+        if (ipv6[row]) {
+            final byte[] address = ByteBuffer.allocate(1 + 2 * Long.BYTES)
+                    .put((byte) 0)
+                    .putLong(addressHigh[row])
+                    .putLong(addressLow[row])
+                    .array();
+            return IpRange.prefix(new Ipv6Address(new BigInteger(address)), length);
+        }
+        return IpRange.prefix(new Ipv4Address(addressLow[row]), length);
+    }
+
+    /**
+     * Hand the rows of this table that are not in <code>previous</code> to <code>added</code>,
+     * and the rows of <code>previous</code> that are not in this table to <code>removed</code>.
+     */
+    public void diff(RoaPrefixTable previous, Consumer<ValidatedRpkiObjects.RoaPrefix> added, Consumer<ValidatedRpkiObjects.RoaPrefix> removed) {
+        if (!Objects.equals(trustAnchor, previous.trustAnchor)) {
+            // every row refers to the trust anchor, so all of them have changed
+            previous.stream().forEach(removed);
+            stream().forEach(added);
+            return;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < size && j < previous.size) {
+            final int c = compare(i, previous, j);
+            if (c < 0) {
+                added.accept(get(i++));
+            } else if (c > 0) {
+                removed.accept(previous.get(j++));
+            } else {
+                i++;
+                j++;
+            }
+        }
+        while (i < size) {
+            added.accept(get(i++));
+        }
+        while (j < previous.size) {
+            removed.accept(previous.get(j++));
+        }
+    }
+
+    private int compare(int row, RoaPrefixTable other, int otherRow) {
+        int c = Boolean.compare(ipv6[row], other.ipv6[otherRow]);
+        if (c == 0) {
+            c = Long.compareUnsigned(addressHigh[row], other.addressHigh[otherRow]);
+        }
+        if (c == 0) {
+            c = Long.compareUnsigned(addressLow[row], other.addressLow[otherRow]);
+        }
+        if (c == 0) {
+            c = Integer.compare(prefixLength[row] & 0xFF, other.prefixLength[otherRow] & 0xFF);
+        }
+        if (c == 0) {
+            c = Integer.compareUnsigned(asn[row], other.asn[otherRow]);
+        }
+        if (c == 0) {
+            c = Integer.compare(maximumLength[row] & 0xFF, other.maximumLength[otherRow] & 0xFF);
+        }
+        if (c == 0) {
+            c = Integer.compare(effectiveLength[row] & 0xFF, other.effectiveLength[otherRow] & 0xFF);
+        }
+        if (c == 0 && (other != this || locationSet[row] != locationSet[otherRow])) {
+            c = LOCATIONS_ORDER.compare(locationSets.get(locationSet[row]), other.locationSets.get(other.locationSet[otherRow]));
+        }
+        return c;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final RoaPrefixTable that = (RoaPrefixTable) o;
+        // rows and location sets are in a canonical order, so equal tables have equal columns
+        return size == that.size &&
+                Objects.equals(trustAnchor, that.trustAnchor) &&
+                Arrays.equals(ipv6, that.ipv6) &&
+                Arrays.equals(addressHigh, that.addressHigh) &&
+                Arrays.equals(addressLow, that.addressLow) &&
+                Arrays.equals(prefixLength, that.prefixLength) &&
+                Arrays.equals(maximumLength, that.maximumLength) &&
+                Arrays.equals(effectiveLength, that.effectiveLength) &&
+                Arrays.equals(asn, that.asn) &&
+                Arrays.equals(locationSet, that.locationSet) &&
+                locationSets.equals(that.locationSets);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(trustAnchor, size, Arrays.hashCode(addressLow), Arrays.hashCode(asn));
+    }
+
+    @Override
+    public String toString() {
+        return "RoaPrefixTable(trustAnchor=" + trustAnchor + ", size=" + size + ")";
+    }
+
+    public static class Builder {
+        private final ValidatedRpkiObjects.TrustAnchorData trustAnchor;
+        private final Map<ImmutableSortedSet<String>, Integer> locationSetIds = new HashMap<>();
+        private final ImmutableList.Builder<ImmutableSortedSet<String>> locationSets = ImmutableList.builder();
+
+        private int size;
+        private boolean[] ipv6 = new boolean[16];
+        private long[] addressHigh = new long[16];
+        private long[] addressLow = new long[16];
+        private byte[] prefixLength = new byte[16];
+        private byte[] maximumLength = new byte[16];
+        private byte[] effectiveLength = new byte[16];
+        private int[] asn = new int[16];
+        private int[] locationSet = new int[16];
+
+        private Builder(ValidatedRpkiObjects.TrustAnchorData trustAnchor) {
+            this.trustAnchor = trustAnchor;
+        }
+
+        public Builder add(long asn, IpRange prefix, Integer maximumLength, int effectiveLength, ImmutableSortedSet<String> locations) {
+            if (!prefix.isLegalPrefix()) {
+                throw new IllegalArgumentException("Not a prefix: " + prefix);
+            }
+            if (size == this.asn.length) {
+                grow();
+            }
+            final BigInteger start = prefix.getStart().getValue();
+            ipv6[size] = prefix.getType() == IpResourceType.IPv6;
+            addressHigh[size] = start.shiftRight(Long.SIZE).longValue();
+            addressLow[size] = start.longValue();
+            prefixLength[size] = (byte) prefix.getPrefixLength();
+            this.maximumLength[size] = (byte) (maximumLength == null ? NO_MAXIMUM_LENGTH : maximumLength);
+            this.effectiveLength[size] = (byte) effectiveLength;
+            this.asn[size] = (int) asn;
+            locationSet[size] = locationSetIds.computeIfAbsent(locations, l -> {
+                locationSets.add(l);
+                return locationSetIds.size();
+            });
+            size++;
+            return this;
+        }
+
+        private void grow() {
+            final int capacity = 2 * size;
+            ipv6 = Arrays.copyOf(ipv6, capacity);
+            addressHigh = Arrays.copyOf(addressHigh, capacity);
+            addressLow = Arrays.copyOf(addressLow, capacity);
+            prefixLength = Arrays.copyOf(prefixLength, capacity);
+            maximumLength = Arrays.copyOf(maximumLength, capacity);
+            effectiveLength = Arrays.copyOf(effectiveLength, capacity);
+            asn = Arrays.copyOf(asn, capacity);
+            locationSet = Arrays.copyOf(locationSet, capacity);
+        }
+
+        /**
+         * Sort the rows, drop the duplicates and number the location sets in the order of the rows.
+         */
+        public RoaPrefixTable build() {
+            final RoaPrefixTable unsorted = new RoaPrefixTable(trustAnchor, size, ipv6, addressHigh, addressLow,
+                    prefixLength, maximumLength, effectiveLength, asn, locationSet, locationSets.build());
+            final int[] order = IntStream.range(0, size)
+                    .boxed()
+                    .sorted((a, b) -> unsorted.compare(a, unsorted, b))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+
+            final int[] newLocationSetIds = new int[unsorted.locationSets.size()];
+            Arrays.fill(newLocationSetIds, -1);
+            final ImmutableList.Builder<ImmutableSortedSet<String>> sortedLocationSets = ImmutableList.builder();
+            int locationSetCount = 0;
+
+            final boolean[] sIpv6 = new boolean[size];
+            final long[] sAddressHigh = new long[size];
+            final long[] sAddressLow = new long[size];
+            final byte[] sPrefixLength = new byte[size];
+            final byte[] sMaximumLength = new byte[size];
+            final byte[] sEffectiveLength = new byte[size];
+            final int[] sAsn = new int[size];
+            final int[] sLocationSet = new int[size];
+            int n = 0;
+            for (int k = 0; k < order.length; k++) {
+                final int row = order[k];
+                if (k > 0 && unsorted.compare(order[k - 1], unsorted, row) == 0) {
+                    continue;
+                }
+                final int locations = locationSet[row];
+                if (newLocationSetIds[locations] < 0) {
+                    newLocationSetIds[locations] = locationSetCount++;
+                    sortedLocationSets.add(unsorted.locationSets.get(locations));
+                }
+                sIpv6[n] = ipv6[row];
+                sAddressHigh[n] = addressHigh[row];
+                sAddressLow[n] = addressLow[row];
+                sPrefixLength[n] = prefixLength[row];
+                sMaximumLength[n] = maximumLength[row];
+                sEffectiveLength[n] = effectiveLength[row];
+                sAsn[n] = asn[row];
+                sLocationSet[n] = newLocationSetIds[locations];
+                n++;
+            }
+            return new RoaPrefixTable(trustAnchor, n,
+                    Arrays.copyOf(sIpv6, n),
+                    Arrays.copyOf(sAddressHigh, n),
+                    Arrays.copyOf(sAddressLow, n),
+                    Arrays.copyOf(sPrefixLength, n),
+                    Arrays.copyOf(sMaximumLength, n),
+                    Arrays.copyOf(sEffectiveLength, n),
+                    Arrays.copyOf(sAsn, n),
+                    Arrays.copyOf(sLocationSet, n),
+                    sortedLocationSets.build());
+        }
+    }
+}
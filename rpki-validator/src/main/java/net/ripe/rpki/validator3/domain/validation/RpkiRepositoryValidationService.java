@@ -72,14 +72,17 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -93,6 +96,7 @@ public class RpkiRepositoryValidationService {
     private final RpkiObjects rpkiObjects;
     private final TrustAnchors trustAnchors;
     private final ValidationScheduler validationScheduler;
+    private final ValidationProfiler profiler;
     private final Lmdb lmdb;
 
     @Autowired
@@ -105,7 +109,8 @@ public class RpkiRepositoryValidationService {
             Lmdb lmdb,
             @Value("${rpki.validator.rsync.local.storage.directory}") File rsyncLocalStorageDirectory,
             @Value("${rpki.validator.rsync.repository.download.interval}") String rsyncRepositoryDownloadInterval,
-            ValidationScheduler validationScheduler) {
+            ValidationScheduler validationScheduler,
+            ValidationProfiler profiler) {
         this.validationRuns = validationRuns;
         this.rpkiRepositories = rpkiRepositories;
         this.rpkiObjects = rpkiObjects;
@@ -115,6 +120,7 @@ public class RpkiRepositoryValidationService {
         this.rsyncRepositoryDownloadInterval = Duration.parse(rsyncRepositoryDownloadInterval);
         this.lmdb = lmdb;
         this.validationScheduler = validationScheduler;
+        this.profiler = profiler;
     }
 
     public void validateRpkiRepository(long rpkiRepositoryId) {
@@ -182,12 +188,14 @@ public class RpkiRepositoryValidationService {
         Set<TrustAnchor> affectedTrustAnchors = new HashSet<>();
 
         final RsyncRepositoryValidationRun validationRun = makeRsyncValidationRun();
+        final ValidationProfile profile = profiler.start();
 
         final Map<String, RpkiObject> objectsBySha256 = new HashMap<>();
         final Map<URI, RpkiRepository> fetchedLocations = new HashMap<>();
 
         try {
-            ValidationResult results = lmdb.readTx(rpkiRepositories::findRsyncRepositories)
+            ValidationResult results = lmdb.readTx(tx -> rpkiRepositories.findRsyncRepositories(tx).collect(Collectors.toList()))
+                    .stream()
                     .filter(repository -> {
                         boolean needsUpdate = repository.isPending() || repository.getLastDownloadedAt() == null || repository.getLastDownloadedAt().isBefore(cutoffTime);
                         if (!needsUpdate) {
@@ -196,7 +204,7 @@ public class RpkiRepositoryValidationService {
                         return needsUpdate;
                     }).map(repository -> {
                                 lmdb.writeTx0(tx -> validationRuns.associate(tx, validationRun, repository));
-                                return processRsyncRepository(affectedTrustAnchors, validationRun, fetchedLocations, objectsBySha256, repository);
+                                return processRsyncRepository(affectedTrustAnchors, validationRun, fetchedLocations, objectsBySha256, repository, profile);
                             }
                     ).collect(
                             () -> ValidationResult.withLocation("placeholder"),
@@ -212,6 +220,7 @@ public class RpkiRepositoryValidationService {
         } catch (Exception e) {
             validationRun.setFailed();
         } finally {
+            profiler.complete(validationRun, null, profile);
             lmdb.writeTx0(tx -> validationRuns.update(tx, validationRun));
         }
     }
@@ -222,6 +231,7 @@ public class RpkiRepositoryValidationService {
             log.info("Processing rsync-prefetch repository {}", repository);
 
             final RsyncRepositoryValidationRun validationRun = makeRsyncValidationRun();
+            final ValidationProfile profile = profiler.start();
 
             final ValidationResult validationResult = ValidationResult.withLocation(URI.create(repository.getRsyncRepositoryUri()));
             lmdb.writeTx0(tx -> validationRuns.associate(tx, validationRun, repository));
@@ -229,16 +239,17 @@ public class RpkiRepositoryValidationService {
             final Map<String, RpkiObject> objectsBySha256 = new HashMap<>();
             try {
                 final File targetDirectory = Rsync.localFileFromRsyncUri(rsyncLocalStorageDirectory, URI.create(repository.getRsyncRepositoryUri()));
-                fetchRsyncRepository(repository, targetDirectory, validationResult);
+                fetchRsyncRepository(repository, targetDirectory, validationResult, profile);
 
                 log.info("Storing objects downloaded for {}", repository.getLocationUri());
-                Long t = Time.timed(() -> storeObjects(targetDirectory, validationRun, validationResult, objectsBySha256, repository));
+                Long t = Time.timed(() -> storeObjects(targetDirectory, validationRun, validationResult, objectsBySha256, repository, profile));
                 log.info("Stored {} objects from the repository {} in {}ms", objectsBySha256.size(), repository, t);
                 repository.setDownloaded();
             } catch (IOException e) {
                 repository.setFailed();
                 validationResult.error(ErrorCodes.RSYNC_REPOSITORY_IO, e.toString(), ExceptionUtils.getStackTrace(e));
             } finally {
+                profiler.complete(validationRun, null, profile);
                 lmdb.writeTx0(tx -> {
                     rpkiRepositories.update(tx, repository);
                     validationRuns.add(tx, validationRun);
@@ -255,7 +266,8 @@ public class RpkiRepositoryValidationService {
                                                     RsyncRepositoryValidationRun validationRun,
                                                     Map<URI, RpkiRepository> fetchedLocations,
                                                     Map<String, RpkiObject> objectsBySha256,
-                                                    RpkiRepository repository) {
+                                                    RpkiRepository repository,
+                                                    ValidationProfile profile) {
 
         log.debug("Processing rsync repository {}", repository);
         final ValidationResult validationResult = ValidationResult.withLocation(URI.create(repository.getRsyncRepositoryUri()));
@@ -268,7 +280,7 @@ public class RpkiRepositoryValidationService {
 
             RpkiRepository parentRepository = findDownloadedParentRepository(fetchedLocations, repository);
             if (parentRepository == null) {
-                fetchRsyncRepository(repository, targetDirectory, validationResult);
+                fetchRsyncRepository(repository, targetDirectory, validationResult, profile);
                 if (validationResult.hasFailureForCurrentLocation()) {
                     return validationResult;
                 }
@@ -278,7 +290,7 @@ public class RpkiRepositoryValidationService {
                     repository.getType() == RpkiRepository.Type.RSYNC &&
                             (parentRepository == null || parentRepository.getType() == RpkiRepository.Type.RSYNC_PREFETCH)) {
                 log.info("Storing objects downloaded for {}", repository.getLocationUri());
-                Long t = Time.timed(() -> storeObjects(targetDirectory, validationRun, validationResult, objectsBySha256, repository));
+                Long t = Time.timed(() -> storeObjects(targetDirectory, validationRun, validationResult, objectsBySha256, repository, profile));
                 log.info("Stored {} objects from the repository {} in {}ms", objectsBySha256.size(), repository, t);
                 repository.setDownloaded();
             } else {
@@ -289,7 +301,7 @@ public class RpkiRepositoryValidationService {
             repository.setFailed();
             validationResult.error(ErrorCodes.RSYNC_REPOSITORY_IO, e.toString(), ExceptionUtils.getStackTrace(e));
         } finally {
-            lmdb.writeTx0(tx -> rpkiRepositories.update(tx, repository));
+            profile.timed("update-repositories", () -> lmdb.writeTx0(tx -> rpkiRepositories.update(tx, repository)));
         }
 
         lmdb.readTx0(tx ->
@@ -321,15 +333,16 @@ public class RpkiRepositoryValidationService {
                                 RsyncRepositoryValidationRun validationRun,
                                 ValidationResult validationResult,
                                 Map<String, RpkiObject> objectsBySha256,
-                                RpkiRepository repository){
-        lmdb.writeTx0(tx -> {
+                                RpkiRepository repository,
+                                ValidationProfile profile){
+        profile.timed("store-objects", () -> lmdb.writeTx0(tx -> {
             try {
                 traverseFSandStore(tx, targetDirectory, validationRun, validationResult, objectsBySha256, repository);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        });
-        lmdb.readTx0(rpkiObjects::verify);
+        }));
+        profile.timed("verify", () -> lmdb.readTx0(rpkiObjects::verify));
     }
 
     private void traverseFSandStore(Tx.Write tx,
@@ -339,6 +352,7 @@ public class RpkiRepositoryValidationService {
                                     Map<String, RpkiObject> objectsBySha256,
                                     RpkiRepository repository) throws IOException {
 
+        final List<Pair<String, RpkiObject>> newObjects = new ArrayList<>();
         final AtomicInteger workCounter = new AtomicInteger(0);
         final int threshold = 10;
 
@@ -386,7 +400,7 @@ public class RpkiRepositoryValidationService {
                 RpkiObject existing = objectsBySha256.get(key);
                 if (existing == null) {
                     if (workCounter.get() > threshold) {
-                        storeObject(tx, validationRun, objectsBySha256);
+                        storeObject(tx, validationRun, objectsBySha256, newObjects);
                         workCounter.decrementAndGet();
                     }
                     asyncCreateObjects.submit(() -> RpkiObjectUtils.createRpkiObject(location, content));
@@ -400,11 +414,17 @@ public class RpkiRepositoryValidationService {
         });
 
         while (workCounter.getAndDecrement() > 0) {
-            storeObject(tx, validationRun, objectsBySha256);
+            storeObject(tx, validationRun, objectsBySha256, newObjects);
         }
+
+        rpkiObjects.putAll(tx, newObjects);
+        newObjects.forEach(p -> validationRuns.associate(tx, validationRun, p.getRight()));
     }
 
-    private void storeObject(Tx.Write tx, RpkiRepositoryValidationRun validationRun, Map<String, RpkiObject> objectsBySha256) {
+    private void storeObject(Tx.Write tx,
+                             RpkiRepositoryValidationRun validationRun,
+                             Map<String, RpkiObject> objectsBySha256,
+                             List<Pair<String, RpkiObject>> newObjects) {
         try {
             final Either<ValidationResult, Pair<String, RpkiObject>> maybeRpkiObject = asyncCreateObjects.take().get();
             if (maybeRpkiObject.isLeft()) {
@@ -423,8 +443,8 @@ public class RpkiRepositoryValidationService {
                     rpkiObjects.addLocation(tx, existing.key(), location);
                     validationRuns.associate(tx, validationRun, existing);
                 } else {
-                    rpkiObjects.put(tx, object, location);
-                    validationRuns.associate(tx, validationRun, object);
+                    // stored later together with the other new objects
+                    newObjects.add(p);
                     objectsBySha256.put(key, object);
                 }
             }
@@ -448,14 +468,14 @@ public class RpkiRepositoryValidationService {
         return uri.toLowerCase(Locale.ROOT).startsWith("rsync://");
     }
 
-    private void fetchRsyncRepository(RpkiRepository rpkiRepository, File targetDirectory, ValidationResult validationResult) throws IOException {
+    private void fetchRsyncRepository(RpkiRepository rpkiRepository, File targetDirectory, ValidationResult validationResult, ValidationProfile profile) throws IOException {
         if (targetDirectory.mkdirs()) {
             log.info("created local rsync storage directory {} for repository {}", targetDirectory, rpkiRepository);
         }
 
         net.ripe.rpki.commons.rsync.Rsync rsync = new net.ripe.rpki.commons.rsync.Rsync(rpkiRepository.getLocationUri(), targetDirectory.getPath());
         rsync.addOptions("--update", "--times", "--copy-links", "--recursive", "--delete");
-        int exitStatus = rsync.execute();
+        int exitStatus = profile.timed("rsync", rsync::execute);
         validationResult.rejectIfTrue(exitStatus != 0, ErrorCodes.RSYNC_FETCH, String.valueOf(exitStatus), ArrayUtils.toString(rsync.getErrorLines()));
         if (validationResult.hasFailureForCurrentLocation()) {
             rpkiRepository.setFailed();
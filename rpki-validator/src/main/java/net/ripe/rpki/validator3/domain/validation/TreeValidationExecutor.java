@@ -0,0 +1,174 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.validator3.storage.lmdb.Lmdb;
+import net.ripe.rpki.validator3.storage.lmdb.Tx;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Work-stealing pool for certificate tree validation, so that validating big trees doesn't
+ * compete for the common pool with the parallel streams of the API and vice versa.
+ *
+ * Parallel streams started from inside the pool (i.e. for the child CAs) run in the pool
+ * as well. Every trust anchor is a separate submission, idle workers steal from all of
+ * them, so a big tree doesn't keep the other trust anchors from making progress.
+ *
+ * Every worker re-uses its own read transaction for all the CAs it validates, for as long
+ * as the worker lives.
+ */
+@Component
+@Slf4j
+public class TreeValidationExecutor implements MeterBinder {
+
+    private final Lmdb lmdb;
+
+    private final ForkJoinPool pool;
+
+    private volatile Timer caValidationTimer;
+
+    @Autowired
+    public TreeValidationExecutor(Lmdb lmdb,
+                                  @Value("${rpki.validator.validation.parallelism:0}") int parallelism) {
+        this.lmdb = lmdb;
+        final int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(threads, pool -> {
+            final Worker thread = new Worker(pool, lmdb);
+            thread.setName("tree-validation-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        log.info("Validating certificate trees with {} threads", threads);
+    }
+
+    /**
+     * Run the validation of a complete tree in the pool and wait for it.
+     */
+    public void invoke(Runnable validation) {
+        pool.invoke(ForkJoinTask.adapt(validation));
+    }
+
+    /**
+     * Run <code>f</code> in the renewed read transaction of the current worker, or in a new
+     * read transaction when not called from a worker.
+     */
+    public <T> T readTx(Function<Tx.Read, T> f) {
+        final Thread thread = Thread.currentThread();
+        if (thread instanceof Worker && ((Worker) thread).getPool() == pool) {
+            return ((Worker) thread).readTxs.readTx(f);
+        }
+        return lmdb.readTx(f);
+    }
+
+    /**
+     * Record the time it took to validate a single CA, without its children.
+     */
+    public void recordCaValidation(long startedAtNanos) {
+        final Timer timer = caValidationTimer;
+        if (timer != null) {
+            timer.record(System.nanoTime() - startedAtNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        pool.shutdownNow();
+        // the workers close their read transactions while terminating, that has to happen before LMDB is closed
+        if (!pool.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Tree validation workers did not terminate within 30 seconds");
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("validation.pool.queued.tasks", pool, ForkJoinPool::getQueuedTaskCount)
+                .description("Child CA validations waiting in the queues of the tree validation workers")
+                .register(registry);
+        Gauge.builder("validation.pool.queued.submissions", pool, ForkJoinPool::getQueuedSubmissionCount)
+                .description("Trust anchor validations waiting for a tree validation worker")
+                .register(registry);
+        Gauge.builder("validation.pool.active", pool, ForkJoinPool::getActiveThreadCount)
+                .description("Tree validation workers that are busy")
+                .register(registry);
+        FunctionCounter.builder("validation.pool.steals", pool, ForkJoinPool::getStealCount)
+                .description("Tasks taken over by idle tree validation workers")
+                .register(registry);
+        caValidationTimer = Timer.builder("validation.ca.time")
+                .description("Time to validate the objects of a single certificate authority")
+                .register(registry);
+    }
+
+    /**
+     * Opens its read transaction when it starts and closes it when it terminates,
+     * since LMDB only allows that from the thread owning the transaction.
+     */
+    private static class Worker extends ForkJoinWorkerThread {
+        private final Lmdb lmdb;
+        private Lmdb.RenewedReadTxs readTxs;
+
+        Worker(ForkJoinPool pool, Lmdb lmdb) {
+            super(pool);
+            this.lmdb = lmdb;
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            readTxs = lmdb.renewedReadTxs();
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            try {
+                if (readTxs != null) {
+                    readTxs.close();
+                }
+            } catch (RuntimeException e) {
+                log.warn("Could not close the read transaction of {}", getName(), e);
+            } finally {
+                super.onTermination(exception);
+            }
+        }
+    }
+}
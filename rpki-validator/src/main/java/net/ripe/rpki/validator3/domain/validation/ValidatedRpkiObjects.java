@@ -45,9 +45,9 @@ import net.ripe.rpki.validator3.api.Sorting;
 import net.ripe.rpki.validator3.domain.RoaPrefixDefinition;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.Ref;
-import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
+import net.ripe.rpki.validator3.storage.encoding.custom.RpkiObjectView;
 import net.ripe.rpki.validator3.storage.lmdb.Lmdb;
 import net.ripe.rpki.validator3.storage.lmdb.Tx;
 import net.ripe.rpki.validator3.storage.stores.RpkiObjects;
@@ -55,7 +55,6 @@ import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
 import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
 import net.ripe.rpki.validator3.util.Locks;
 import net.ripe.rpki.validator3.util.Time;
-import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -63,11 +62,13 @@ import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.Set;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -78,6 +79,8 @@ public class ValidatedRpkiObjects {
 
     private final List<Consumer<Collection<RoaPrefixesAndRouterCertificates>>> listeners = new ArrayList<>();
 
+    private final List<Consumer<RoaPrefixesDelta>> deltaListeners = new CopyOnWriteArrayList<>();
+
     private Map<Long, RoaPrefixesAndRouterCertificates> validatedObjectsByTrustAnchor = new HashMap<>();
 
     @Autowired
@@ -94,57 +97,67 @@ public class ValidatedRpkiObjects {
 
     private ReentrantReadWriteLock dataLock = new ReentrantReadWriteLock();
 
+    // one update at a time is applied and handed to the delta listeners,
+    // so that they see the deltas in the order they are applied here
+    private final ReentrantLock updateLock = new ReentrantLock();
+
     @PostConstruct
     private void initialize() {
         Long t = Time.timed(() -> lmdb.readTx0(tx ->
                 validationRuns.findLatestSuccessful(tx, CertificateTreeValidationRun.class)
-                        .forEach(vr -> {
-                            final Set<Key> associatedPks = validationRuns.findAssociatedPks(tx, vr);
-                            updateByKey(tx, vr.getTrustAnchor(), associatedPks);
-                        })));
+                        .forEach(vr -> updateByKey(tx, vr.getTrustAnchor(), validationRuns.streamAssociatedPks(tx, vr)))));
         log.info("Initialised in {}ms", t);
     }
 
-    void updateByKey(Tx.Read tx, Ref<TrustAnchor> trustAnchor, Collection<Key> rpkiObjectsKeys) {
+    /**
+     * Replace the objects of a trust anchor with the ROA prefixes and router certificates among
+     * <code>rpkiObjectsKeys</code>. The keys are only passed over once, so they can come straight
+     * from a cursor.
+     */
+    void updateByKey(Tx.Read tx, Ref<TrustAnchor> trustAnchor, Stream<Key> rpkiObjectsKeys) {
         Long t = Time.timed(() ->
                 trustAnchors.get(tx, trustAnchor.key())
-                        .map(ta -> {
-                            TrustAnchorData trustAnchorData = TrustAnchorData.of(trustAnchor.key().asLong(), ta.getName());
-                            Stream<RpkiObject> roaStream = streamByType(tx, rpkiObjectsKeys, RpkiObject.Type.ROA);
-                            Stream<RpkiObject> routerCertStream = streamByType(tx, rpkiObjectsKeys, RpkiObject.Type.ROUTER_CER);
-                            return RoaPrefixesAndRouterCertificates.of(
-                                    toRoaPrefixes(tx, trustAnchorData, roaStream),
-                                    toRouterCertificates(tx, trustAnchorData, routerCertStream)
-                            );
-                        })
+                        .map(ta -> toRoaPrefixesAndRouterCertificates(tx,
+                                TrustAnchorData.of(trustAnchor.key().asLong(), ta.getName()), rpkiObjectsKeys))
                         .ifPresent(roaPrefixesAndRouterCertificates -> {
                             log.info("updating validation objects cache for trust anchor {} with {} ROA prefixes and {} router certificates",
                                     trustAnchor,
                                     roaPrefixesAndRouterCertificates.getRoaPrefixes().size(),
                                     roaPrefixesAndRouterCertificates.getRouterCertificates().size()
                             );
-                            Locks.locked(dataLock.writeLock(), () ->
-                                    validatedObjectsByTrustAnchor.put(trustAnchor.key().asLong(), roaPrefixesAndRouterCertificates));
-                            notifyListeners();
+                            update(trustAnchor.key().asLong(), roaPrefixesAndRouterCertificates);
                         }));
         log.info("Updated validated roas in {}ms", t);
     }
 
-    private Stream<RpkiObject> streamByType(Tx.Read tx, Collection<Key> rpkiObjectsKeys, RpkiObject.Type type) {
-        final Set<Key> byType = rpkiObjects.getPkByType(tx, type);
-        return rpkiObjectsKeys.stream()
-                .filter(byType::contains)
-                .map(k -> rpkiObjects.get(tx, k))
-                .filter(Optional::isPresent)
-                .map(Optional::get);
+    /**
+     * Replace the objects of a trust anchor, or remove them when <code>updated</code> is null,
+     * and notify the listeners if anything has changed.
+     */
+    private void update(long trustAnchorId, RoaPrefixesAndRouterCertificates updated) {
+        Locks.locked(updateLock, () -> {
+            final RoaPrefixesAndRouterCertificates previous = Locks.locked(dataLock.writeLock(), () ->
+                    updated == null ?
+                            validatedObjectsByTrustAnchor.remove(trustAnchorId) :
+                            validatedObjectsByTrustAnchor.put(trustAnchorId, updated));
+            if (Objects.equals(previous, updated)) {
+                log.debug("Validated objects of trust anchor {} have not changed", trustAnchorId);
+                return;
+            }
+
+            final RoaPrefixesDelta delta = RoaPrefixesDelta.between(
+                    previous == null ? RoaPrefixTable.EMPTY : previous.getRoaPrefixes(),
+                    updated == null ? RoaPrefixTable.EMPTY : updated.getRoaPrefixes());
+            log.info("Trust anchor {} has {} added and {} removed ROA prefixes", trustAnchorId, delta.getAdded().size(), delta.getRemoved().size());
+            if (!delta.isEmpty()) {
+                deltaListeners.forEach(listener -> listener.accept(delta));
+            }
+            notifyListeners();
+        });
     }
 
     public void remove(TrustAnchor trustAnchor) {
-        long trustAnchorId = trustAnchor.key().asLong();
-        Locks.locked(dataLock.writeLock(), () -> {
-            validatedObjectsByTrustAnchor.remove(trustAnchorId);
-            notifyListeners();
-        });
+        update(trustAnchor.key().asLong(), null);
     }
 
     public ValidatedObjects<RoaPrefix> findCurrentlyValidatedRoaPrefixes() {
@@ -183,6 +196,21 @@ public class ValidatedRpkiObjects {
         });
     }
 
+    /**
+     * Listen to the changes of the validated ROA prefixes instead of getting all of them on every
+     * update. A listener first gets all the current ROA prefixes as added, then a delta every time
+     * the ROA prefixes of a trust anchor change. Deltas are delivered one at a time, in order.
+     */
+    public void addDeltaListener(Consumer<RoaPrefixesDelta> listener) {
+        Locks.locked(updateLock, () -> {
+            final ImmutableSet<RoaPrefix> current = ImmutableSet.copyOf(validatedObjects().stream()
+                    .flatMap(x -> x.getRoaPrefixes().stream())
+                    .iterator());
+            listener.accept(RoaPrefixesDelta.of(current, ImmutableSet.of()));
+            deltaListeners.add(listener);
+        });
+    }
+
     @Value(staticConstructor = "of")
     public static class ValidatedObjects<T> {
         long totalCount;
@@ -191,10 +219,27 @@ public class ValidatedRpkiObjects {
 
     @Value(staticConstructor = "of")
     public static class RoaPrefixesAndRouterCertificates {
-        ImmutableSet<RoaPrefix> roaPrefixes;
+        RoaPrefixTable roaPrefixes;
         ImmutableSet<RouterCertificate> routerCertificates;
     }
 
+    @Value(staticConstructor = "of")
+    public static class RoaPrefixesDelta {
+        ImmutableSet<RoaPrefix> added;
+        ImmutableSet<RoaPrefix> removed;
+
+        static RoaPrefixesDelta between(RoaPrefixTable previous, RoaPrefixTable current) {
+            final ImmutableSet.Builder<RoaPrefix> added = ImmutableSet.builder();
+            final ImmutableSet.Builder<RoaPrefix> removed = ImmutableSet.builder();
+            current.diff(previous, added::add, removed::add);
+            return of(added.build(), removed.build());
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty();
+        }
+    }
+
     @Value(staticConstructor = "of")
     public static class TrustAnchorData {
         long id;
@@ -219,50 +264,55 @@ public class ValidatedRpkiObjects {
         String subjectPublicKeyInfo;
     }
 
-    private ImmutableSet<RouterCertificate> toRouterCertificates(Tx.Read tx, TrustAnchorData trustAnchor, Stream<RpkiObject> roaCertStream) {
-        final Base64.Encoder encoder = Base64.getEncoder();
-        ImmutableSet.Builder<RouterCertificate> builder = ImmutableSet.builder();
-        roaCertStream
-            .map(object -> rpkiObjects.findCertificateRepositoryObject(tx, object.key(), X509RouterCertificate.class, ValidationResult.withLocation("temporary")))
-            .filter(Optional::isPresent).map(Optional::get)
-            .forEach(certificate -> {
-                    final ImmutableList<String> asns = ImmutableList.copyOf(X509CertificateUtil.getAsns(certificate.getCertificate()));
-                    final String ski = encoder.encodeToString(X509CertificateUtil.getSubjectKeyIdentifier(certificate.getCertificate()));
-                    final String pkInfo = X509CertificateUtil.getEncodedSubjectPublicKeyInfo(certificate.getCertificate());
-                    builder.add(RouterCertificate.of(
-                        trustAnchor,
-                        asns,
-                        ski,
-                        pkInfo
-                    ));
+    private RoaPrefixesAndRouterCertificates toRoaPrefixesAndRouterCertificates(Tx.Read tx, TrustAnchorData trustAnchor, Stream<Key> rpkiObjectsKeys) {
+        final RoaPrefixTable.Builder roaPrefixes = RoaPrefixTable.builder(trustAnchor);
+        final ImmutableSet.Builder<RouterCertificate> routerCertificates = ImmutableSet.builder();
+        rpkiObjectsKeys.forEach(key ->
+            rpkiObjects.getView(tx, key, RpkiObjectView::getType).ifPresent(type -> {
+                switch (type) {
+                    case ROA:
+                        addRoaPrefixes(tx, roaPrefixes, key);
+                        break;
+                    case ROUTER_CER:
+                        addRouterCertificate(tx, trustAnchor, routerCertificates, key);
+                        break;
+                    default:
                 }
-            );
-
-        return builder.build();
+            }));
+        return RoaPrefixesAndRouterCertificates.of(roaPrefixes.build(), routerCertificates.build());
     }
 
-    private ImmutableSet<RoaPrefix> toRoaPrefixes(Tx.Read tx, TrustAnchorData trustAnchor, Stream<RpkiObject> roaStream) {
-        ImmutableSet.Builder<RoaPrefix> builder = ImmutableSet.builder();
-        roaStream
-            .flatMap(
-                object -> {
-                    ImmutableSortedSet<String> locations = ImmutableSortedSet.copyOf(rpkiObjects.getLocations(tx, object.key()));
-                    return object.getRoaPrefixes().stream().map(prefix -> Pair.of(locations, prefix));
-                }
-            )
-            .forEach(data -> {
-                net.ripe.rpki.validator3.storage.data.RoaPrefix prefix = data.getRight();
-                builder.add(RoaPrefix.of(
+    private void addRouterCertificate(Tx.Read tx, TrustAnchorData trustAnchor, ImmutableSet.Builder<RouterCertificate> builder, Key key) {
+        final Base64.Encoder encoder = Base64.getEncoder();
+        rpkiObjects.findCertificateRepositoryObject(tx, key, X509RouterCertificate.class, ValidationResult.withLocation("temporary"))
+            .ifPresent(certificate -> {
+                final ImmutableList<String> asns = ImmutableList.copyOf(X509CertificateUtil.getAsns(certificate.getCertificate()));
+                final String ski = encoder.encodeToString(X509CertificateUtil.getSubjectKeyIdentifier(certificate.getCertificate()));
+                final String pkInfo = X509CertificateUtil.getEncodedSubjectPublicKeyInfo(certificate.getCertificate());
+                builder.add(RouterCertificate.of(
                     trustAnchor,
-                    new Asn(prefix.getAsn()),
-                    prefix.getPrefix(),
-                    prefix.getMaximumLength(),
-                    prefix.getEffectiveLength(),
-                    data.getLeft()
+                    asns,
+                    ski,
+                    pkInfo
                 ));
             });
+    }
 
-        return builder.build();
+    private void addRoaPrefixes(Tx.Read tx, RoaPrefixTable.Builder builder, Key key) {
+        // only decode the prefixes, the ROA content itself is not needed here
+        final List<net.ripe.rpki.validator3.storage.data.RoaPrefix> prefixes =
+            rpkiObjects.getView(tx, key, RpkiObjectView::getRoaPrefixes).orElse(Collections.emptyList());
+        if (prefixes.isEmpty()) {
+            return;
+        }
+        final ImmutableSortedSet<String> locations = ImmutableSortedSet.copyOf(rpkiObjects.getLocations(tx, key));
+        prefixes.forEach(prefix -> builder.add(
+            prefix.getAsn(),
+            prefix.getPrefix(),
+            prefix.getMaximumLength(),
+            prefix.getEffectiveLength(),
+            locations
+        ));
     }
 
     private ImmutableList<RoaPrefixesAndRouterCertificates> validatedObjects() {
@@ -281,6 +331,9 @@ public class ValidatedRpkiObjects {
     }
 
     private long countRoaPrefixes(SearchTerm searchTerm) {
+        if (searchTerm == null) {
+            return validatedObjects().stream().mapToLong(x -> x.getRoaPrefixes().size()).sum();
+        }
         return validatedObjects().stream()
                 .flatMap(x -> x.getRoaPrefixes().stream())
                 .filter(prefix -> searchTerm == null || searchTerm.test(prefix))
@@ -0,0 +1,105 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import net.ripe.rpki.validator3.storage.data.validation.ValidationPhase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Time spent in the different phases of a single validation run. Safe to use
+ * from multiple threads, the time of phases running in parallel adds up.
+ */
+public class ValidationProfile {
+
+    private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+
+    public <T> T timed(String phase, Supplier<T> s) {
+        final long begin = System.nanoTime();
+        try {
+            return s.get();
+        } finally {
+            record(phase, System.nanoTime() - begin);
+        }
+    }
+
+    public void timed(String phase, Runnable r) {
+        final long begin = System.nanoTime();
+        try {
+            r.run();
+        } finally {
+            record(phase, System.nanoTime() - begin);
+        }
+    }
+
+    public void record(String phase, long nanos) {
+        final Phase p = phases.computeIfAbsent(phase, n -> new Phase());
+        p.count.increment();
+        p.nanos.add(nanos);
+    }
+
+    void forEach(BiConsumer<String, Phase> c) {
+        phases.forEach(c);
+    }
+
+    public List<ValidationPhase> summary() {
+        return phases.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .map(e -> ValidationPhase.of(e.getKey(), e.getValue().getCount(), TimeUnit.NANOSECONDS.toMillis(e.getValue().getNanos())))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        return summary().stream()
+                .map(p -> p.getName() + "=" + p.getDurationMs() + "ms/" + p.getCount())
+                .collect(Collectors.joining(", "));
+    }
+
+    static class Phase {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        long getCount() {
+            return count.sum();
+        }
+
+        long getNanos() {
+            return nanos.sum();
+        }
+    }
+}
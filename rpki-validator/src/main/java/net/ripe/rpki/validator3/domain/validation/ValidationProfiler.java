@@ -0,0 +1,97 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.validator3.storage.data.validation.ValidationRun;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the {@link ValidationProfile} of every run, both on the validation run itself and as
+ * <code>validation.phase.time</code> timers (one sample per run) and <code>validation.phase.count</code>
+ * counters, tagged with the type of the run, the phase and, if there is one, the trust anchor.
+ */
+@Component
+@Slf4j
+public class ValidationProfiler implements MeterBinder {
+
+    private volatile MeterRegistry registry;
+
+    public ValidationProfile start() {
+        return new ValidationProfile();
+    }
+
+    /**
+     * Store the summary of the profile on the validation run, it is persisted with the next update of the run.
+     */
+    public void complete(ValidationRun validationRun, String trustAnchor, ValidationProfile profile) {
+        validationRun.setPhases(profile.summary());
+        complete(validationRun.getType(), trustAnchor, profile);
+    }
+
+    /**
+     * Publish a profile that doesn't belong to a validation run.
+     */
+    public void complete(String type, String trustAnchor, ValidationProfile profile) {
+        log.info("Phases of {}{}: {}", type, trustAnchor == null ? "" : " for " + trustAnchor, profile);
+        final MeterRegistry r = registry;
+        if (r == null) {
+            return;
+        }
+        final Tags runTags = trustAnchor == null ?
+                Tags.of("type", type) :
+                Tags.of("type", type, "trust.anchor", trustAnchor);
+        profile.forEach((name, phase) -> {
+            final Tags tags = runTags.and("phase", name);
+            Timer.builder("validation.phase.time")
+                    .description("Time spent in a phase of a validation run")
+                    .tags(tags)
+                    .register(r)
+                    .record(phase.getNanos(), TimeUnit.NANOSECONDS);
+            Counter.builder("validation.phase.count")
+                    .description("Number of times a phase of a validation run was executed")
+                    .tags(tags)
+                    .register(r)
+                    .increment(phase.getCount());
+        });
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+}
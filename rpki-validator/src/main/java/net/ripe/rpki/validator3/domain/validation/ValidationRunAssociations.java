@@ -0,0 +1,114 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
+import net.ripe.rpki.validator3.storage.lmdb.Lmdb;
+import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Associates validated objects with a validation run while the tree is still being validated,
+ * writing them in batches of bounded size instead of all at once at the end of the run.
+ *
+ * The validation run must already be stored. As long as it is not completed, it is not returned
+ * as the latest successful run, so the associations only become visible once the run itself is
+ * updated as succeeded.
+ */
+class ValidationRunAssociations {
+
+    private final Lmdb lmdb;
+    private final ValidationRuns validationRuns;
+    private final CertificateTreeValidationRun validationRun;
+    private final int batchSize;
+    private final ValidationProfile profile;
+
+    private final ConcurrentLinkedQueue<Key> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final LongAdder associatedCount = new LongAdder();
+
+    ValidationRunAssociations(Lmdb lmdb,
+                              ValidationRuns validationRuns,
+                              CertificateTreeValidationRun validationRun,
+                              int batchSize,
+                              ValidationProfile profile) {
+        this.lmdb = lmdb;
+        this.validationRuns = validationRuns;
+        this.validationRun = validationRun;
+        this.batchSize = batchSize;
+        this.profile = profile;
+    }
+
+    void add(Collection<Key> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        pending.addAll(keys);
+        if (pendingCount.addAndGet(keys.size()) >= batchSize) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Write all the associations that are still pending, must be called after the tree is validated.
+     */
+    void flush() {
+        while (pendingCount.get() > 0) {
+            writeBatch();
+        }
+    }
+
+    long getAssociatedCount() {
+        return associatedCount.sum();
+    }
+
+    private void writeBatch() {
+        // take the batch out of the queue before the transaction, it may be retried when the map is grown
+        final List<Key> batch = new ArrayList<>(batchSize);
+        Key key;
+        while (batch.size() < batchSize && (key = pending.poll()) != null) {
+            batch.add(key);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        pendingCount.addAndGet(-batch.size());
+        profile.timed("associate-objects", () ->
+                lmdb.writeTx0(tx -> batch.forEach(k -> validationRuns.associateRpkiObjectKey(tx, validationRun, k))));
+        associatedCount.add(batch.size());
+    }
+}
@@ -36,6 +36,9 @@ import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.validator3.domain.ErrorCodes;
 import net.ripe.rpki.validator3.domain.RpkiObjectUtils;
+import net.ripe.rpki.validator3.domain.validation.ValidationProfile;
+import net.ripe.rpki.validator3.domain.validation.ValidationProfiler;
+import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.validation.RpkiRepositoryValidationRun;
@@ -55,10 +58,10 @@ import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -83,36 +86,44 @@ public class RrdpServiceImpl implements RrdpService {
 
     private final Lmdb lmdb;
 
+    private final ValidationProfiler profiler;
+
     @Autowired
     public RrdpServiceImpl(final RrdpClient rrdpClient,
                            final RpkiObjects rpkiObjects,
                            final RpkiRepositories rpkiRepositories,
                            final ValidationRuns validationRuns,
-                           final Lmdb lmdb) {
+                           final Lmdb lmdb,
+                           final ValidationProfiler profiler) {
         this.rrdpClient = rrdpClient;
         this.rpkiObjects = rpkiObjects;
         this.rpkiRepositories = rpkiRepositories;
         this.validationRuns = validationRuns;
         this.lmdb = lmdb;
+        this.profiler = profiler;
     }
 
     @Override
     public void storeRepository(final RpkiRepository rpkiRepository, final RpkiRepositoryValidationRun validationRun) {
+        final ValidationProfile profile = profiler.start();
         try {
-            lmdb.readTx0(rpkiObjects::verify);
-            doStoreRepository(rpkiRepository, validationRun);
-            lmdb.readTx0(rpkiObjects::verify);
+            profile.timed("verify", () -> lmdb.readTx0(rpkiObjects::verify));
+            doStoreRepository(rpkiRepository, validationRun, profile);
+            profile.timed("verify", () -> lmdb.readTx0(rpkiObjects::verify));
         } catch (RrdpException e) {
             log.warn("Error retrieving RRDP repository at {}: " + e.getMessage(), rpkiRepository.getRrdpNotifyUri());
             ValidationCheck validationCheck = new ValidationCheck(rpkiRepository.getRrdpNotifyUri(),
                     ValidationCheck.Status.ERROR, ErrorCodes.RRDP_FETCH, e.getMessage());
             validationRun.addCheck(validationCheck);
             validationRun.setFailed();
+        } finally {
+            profiler.complete(validationRun, null, profile);
         }
     }
 
-    private void doStoreRepository(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun) {
-        final Notification notification = rrdpClient.readStream(rpkiRepository.getRrdpNotifyUri(), rrdpParser::notification);
+    private void doStoreRepository(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, ValidationProfile profile) {
+        final Notification notification = profile.timed("download-notification", () ->
+                rrdpClient.readStream(rpkiRepository.getRrdpNotifyUri(), rrdpParser::notification));
 
         log.info("Repository {}: local serial is '{}', latest serial is {}",
                 rpkiRepository.getRrdpNotifyUri(), rpkiRepository.getRrdpSerial(), notification.serial);
@@ -123,17 +134,17 @@ public class RrdpServiceImpl implements RrdpService {
                     final List<Delta> deltas = notification.deltas.parallelStream().
                             filter(d -> d.getSerial().compareTo(rpkiRepository.getRrdpSerial()) > 0).
                             sorted(Comparator.comparing(DeltaInfo::getSerial)).
-                            map(di -> readDelta(notification, di)).
+                            map(di -> readDelta(notification, di, profile)).
                             collect(Collectors.toList());
 
                     verifyDeltaSerials(deltas, notification, rpkiRepository);
 
                     deltas.forEach(d -> {
-                        lmdb.readTx0(tx -> verifyDeltaIsApplicable(tx, d));
-                        lmdb.writeTx0(tx -> {
+                        profile.timed("verify-deltas", () -> lmdb.readTx0(tx -> verifyDeltaIsApplicable(tx, d)));
+                        profile.timed("store-deltas", () -> lmdb.writeTx0(tx -> {
                             storeDelta(tx, d, validationRun, rpkiRepository);
                             tx.afterCommit(() -> rpkiRepository.setRrdpSerial(rpkiRepository.getRrdpSerial().add(BigInteger.ONE)));
-                        });
+                        }));
                     });
 
                 } catch (RrdpException e) {
@@ -142,27 +153,28 @@ public class RrdpServiceImpl implements RrdpService {
                     ValidationCheck validationCheck = new ValidationCheck(rpkiRepository.getRrdpNotifyUri(),
                             ValidationCheck.Status.WARNING, errorCode, e.getMessage());
                     validationRun.addCheck(validationCheck);
-                    readSnapshot(rpkiRepository, validationRun, notification);
+                    readSnapshot(rpkiRepository, validationRun, notification, profile);
                 }
             } else {
                 log.info("Repository serial {} is ahead of serial in notification file {}, fetching the snapshot",
                         rpkiRepository.getRrdpSessionId(), notification.sessionId);
-                readSnapshot(rpkiRepository, validationRun, notification);
+                readSnapshot(rpkiRepository, validationRun, notification, profile);
             }
         } else {
             log.info("Repository has session id '{}' but the downloaded version has session id '{}', fetching the snapshot",
                     rpkiRepository.getRrdpSessionId(), notification.sessionId);
-            readSnapshot(rpkiRepository, validationRun, notification);
+            readSnapshot(rpkiRepository, validationRun, notification, profile);
         }
     }
 
-    private void readSnapshot(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification) {
+    private void readSnapshot(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification, ValidationProfile profile) {
         final AtomicReference<HashingInputStream> hashingStream = new AtomicReference<>();
-        final Pair<Snapshot, Long> timedSnapshot = Time.timed(() ->
+        // the snapshot is parsed while it is downloaded, so these can't be told apart
+        final Pair<Snapshot, Long> timedSnapshot = Time.timed(() -> profile.timed("download-snapshot", () ->
                 rrdpClient.readStream(notification.snapshotUri, is -> {
                     hashingStream.set(new HashingInputStream(Hashing.sha256(), is));
                     return rrdpParser.snapshot(hashingStream.get());
-                }));
+                })));
 
         final byte[] snapshotHash = hashingStream.get().hash().asBytes();
         if (!Arrays.equals(Hex.parse(notification.snapshotHash), snapshotHash)) {
@@ -171,26 +183,26 @@ public class RrdpServiceImpl implements RrdpService {
         }
 
         log.info("Downloading/hashing/parsing snapshot time {}ms", timedSnapshot.getRight());
-        Long timedStoreSnapshot = Time.timed(() ->
+        Long timedStoreSnapshot = Time.timed(() -> profile.timed("store-snapshot", () ->
                 lmdb.writeTx0(tx -> {
                     storeSnapshot(tx, timedSnapshot.getLeft(), validationRun);
                     rpkiRepository.setRrdpSessionId(notification.sessionId);
                     rpkiRepository.setRrdpSerial(notification.serial);
                     rpkiRepositories.update(tx, rpkiRepository);
-                }));
+                })));
 
         log.info("Storing snapshot time {}ms", timedStoreSnapshot);
     }
 
-    private Delta readDelta(Notification notification, DeltaInfo di) {
-        final byte[] deltaBody = rrdpClient.getBody(di.getUri());
+    private Delta readDelta(Notification notification, DeltaInfo di, ValidationProfile profile) {
+        final byte[] deltaBody = profile.timed("download-deltas", () -> rrdpClient.getBody(di.getUri()));
         final byte[] deltaHash = Sha256.hash(deltaBody);
         if (!Arrays.equals(Hex.parse(di.getHash()), deltaHash)) {
             throw new RrdpException(ErrorCodes.RRDP_WRONG_DELTA_HASH, "Hash of the delta file " + di + " is " + Hex.format(deltaHash) +
                     ", but notification file says " + di.getHash());
         }
 
-        final Delta d = rrdpParser.delta(new ByteArrayInputStream(deltaBody));
+        final Delta d = profile.timed("parse-deltas", () -> rrdpParser.delta(new ByteArrayInputStream(deltaBody)));
         if (!d.getSessionId().equals(notification.sessionId)) {
             throw new RrdpException(ErrorCodes.RRDP_WRONG_DELTA_SESSION, "Session id of the delta (" + di +
                     ") is not the same as in the notification file: " + notification.sessionId);
@@ -235,19 +247,18 @@ public class RrdpServiceImpl implements RrdpService {
             new ExecutorCompletionService<>(Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)));
 
     void storeSnapshot(final Tx.Write tx, final Snapshot snapshot, final RpkiRepositoryValidationRun validationRun) {
-        final AtomicInteger counter = new AtomicInteger();
+        final List<Pair<String, RpkiObject>> newObjects = new ArrayList<>();
         final AtomicInteger workCounter = new AtomicInteger(0);
         final int threshold = 10;
         snapshot.asMap().forEach((uri, value) -> {
             byte[] content = value.content;
-            final byte[] sha256 = Sha256.hash(content);
-            Optional<RpkiObject> existing = rpkiObjects.findBySha256(tx, sha256);
-            if (existing.isPresent()) {
-                rpkiObjects.addLocation(tx, existing.get().key(), uri);
-                validationRuns.associate(tx, validationRun, existing.get());
+            final Key key = Key.of(Sha256.hash(content));
+            if (rpkiObjects.exists(tx, key)) {
+                rpkiObjects.addLocation(tx, key, uri);
+                validationRuns.associateRpkiObjectKey(tx, validationRun, key);
             } else {
                 if (workCounter.get() > threshold) {
-                    storeSnapshotObject(tx, validationRun, counter);
+                    takeSnapshotObject(validationRun, newObjects);
                     workCounter.decrementAndGet();
                 }
                 asyncCreateObjects.submit(() -> RpkiObjectUtils.createRpkiObject(uri, content));
@@ -256,24 +267,24 @@ public class RrdpServiceImpl implements RrdpService {
         });
 
         while (workCounter.getAndDecrement() > 0) {
-            storeSnapshotObject(tx, validationRun, counter);
+            takeSnapshotObject(validationRun, newObjects);
         }
 
-        log.info("Added (or updated locations for) {} new objects", counter.get());
+        // new objects are written in one go, which is a lot faster
+        // than putting them one by one
+        rpkiObjects.putAll(tx, newObjects);
+        newObjects.forEach(p -> validationRuns.associate(tx, validationRun, p.getRight()));
+
+        log.info("Added (or updated locations for) {} new objects", newObjects.size());
     }
 
-    private void storeSnapshotObject(Tx.Write tx, RpkiRepositoryValidationRun validationRun, AtomicInteger counter) {
+    private void takeSnapshotObject(RpkiRepositoryValidationRun validationRun, List<Pair<String, RpkiObject>> newObjects) {
         try {
             final Either<ValidationResult, Pair<String, RpkiObject>> maybeRpkiObject = asyncCreateObjects.take().get();
             if (maybeRpkiObject.isLeft()) {
                 validationRun.addChecks(maybeRpkiObject.left().value());
             } else {
-                final Pair<String, RpkiObject> p = maybeRpkiObject.right().value();
-                final RpkiObject object = p.getRight();
-                final String location = p.getLeft();
-                rpkiObjects.put(tx, object, location);
-                validationRuns.associate(tx, validationRun, object);
-                counter.incrementAndGet();
+                newObjects.add(maybeRpkiObject.right().value());
             }
         } catch (Exception e) {
             log.error("Something strange happened here", e);
@@ -303,9 +314,9 @@ public class RrdpServiceImpl implements RrdpService {
 
     private boolean applyDeltaWithdraw(RpkiRepositoryValidationRun validationRun, String uri, DeltaWithdraw deltaWithdraw, Tx.Write tx) {
         final byte[] sha256 = deltaWithdraw.getHash();
-        final Optional<RpkiObject> maybeObject = rpkiObjects.findBySha256(tx, sha256);
-        if (maybeObject.isPresent()) {
-            rpkiObjects.deleteLocation(tx, maybeObject.get().key(), uri);
+        final Key key = Key.of(sha256);
+        if (rpkiObjects.exists(tx, key)) {
+            rpkiObjects.deleteLocation(tx, key, uri);
             return true;
         } else {
             ValidationCheck validationCheck = new ValidationCheck(uri, ValidationCheck.Status.ERROR,
@@ -328,8 +339,7 @@ public class RrdpServiceImpl implements RrdpService {
     }
 
     private void checkObjectExists(DeltaElement deltaElement, String errorCode, byte[] sha256, Tx.Read tx) {
-        final Optional<RpkiObject> objectByHash = rpkiObjects.findBySha256(tx, sha256);
-        if (!objectByHash.isPresent()) {
+        if (!rpkiObjects.exists(tx, Key.of(sha256))) {
             throw new RrdpException(errorCode, "Couldn't find an object with location '" +
                     deltaElement.uri + "' with hash " + Hex.format(sha256));
         }
@@ -342,8 +352,7 @@ public class RrdpServiceImpl implements RrdpService {
 
         if (deltaPublish.getHash().isPresent()) {
             final byte[] sha256 = deltaPublish.getHash().get();
-            final Optional<RpkiObject> existing = rpkiObjects.findBySha256(tx, sha256);
-            if (existing.isPresent()) {
+            if (rpkiObjects.exists(tx, Key.of(sha256))) {
                 final byte[] content = deltaPublish.getContent();
                 Either<ValidationResult, Pair<String, RpkiObject>> maybeRpkiObject =
                         RpkiObjectUtils.createRpkiObject(uri, content);
@@ -375,8 +384,7 @@ public class RrdpServiceImpl implements RrdpService {
             } else {
                 final Pair<String, RpkiObject> p = maybeRpkiObject.right().value();
                 final RpkiObject object = p.getRight();
-                final Optional<RpkiObject> bySha256 = rpkiObjects.findBySha256(tx, Sha256.hash(content));
-                if (bySha256.isPresent()) {
+                if (rpkiObjects.exists(tx, object.key())) {
                     log.debug("The object will not be added, there's one already existing {}", object);
                 } else {
                     final String location = p.getLeft();
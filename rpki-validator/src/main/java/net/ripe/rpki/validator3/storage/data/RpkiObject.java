@@ -147,15 +147,23 @@ public class RpkiObject extends Base<RpkiObject> {
     }
 
     public <T extends CertificateRepositoryObject> Optional<T> get(Class<T> clazz, ValidationResult validationResult) {
+        return parse(clazz, encoded, validationResult);
+    }
+
+    public <T extends CertificateRepositoryObject> Optional<T> get(final Class<T> clazz, final String location) {
+        return parse(clazz, encoded, location);
+    }
+
+    public static <T extends CertificateRepositoryObject> Optional<T> parse(Class<T> clazz, byte[] encoded, ValidationResult validationResult) {
         ValidationResult temporary = ValidationResult.withLocation(validationResult.getCurrentLocation());
         try {
-            return get(clazz, validationResult.getCurrentLocation().getName());
+            return parse(clazz, encoded, validationResult.getCurrentLocation().getName());
         } finally {
             validationResult.addAll(temporary);
         }
     }
 
-    public <T extends CertificateRepositoryObject> Optional<T> get(final Class<T> clazz, final String location) {
+    public static <T extends CertificateRepositoryObject> Optional<T> parse(final Class<T> clazz, final byte[] encoded, final String location) {
         ValidationResult temporary = ValidationResult.withLocation(location);
 
         ValidationResult ignored = ValidationResult.withLocation(location);
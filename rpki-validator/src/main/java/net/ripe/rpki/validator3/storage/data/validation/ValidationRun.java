@@ -62,6 +62,10 @@ public abstract class ValidationRun extends Base<ValidationRun> {
     @Setter
     private List<ValidationCheck> validationChecks = new ArrayList<>();
 
+    @Getter
+    @Setter
+    private List<ValidationPhase> phases = new ArrayList<>();
+
     public abstract String getType();
 
     public boolean isSucceeded() {
@@ -124,6 +124,20 @@ public class CoderFactory {
         };
     }
 
+    public static Coder<byte[]> bytesCoder() {
+        return new Coder<byte[]>() {
+            @Override
+            public byte[] toBytes(byte[] z) {
+                return z;
+            }
+
+            @Override
+            public byte[] fromBytes(byte[] bb) {
+                return bb;
+            }
+        };
+    }
+
     public static Coder<String> stringCoder() {
         return new Coder<String>() {
             @Override
@@ -0,0 +1,171 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses byte arrays with Deflate, optionally with a preset dictionary.
+ *
+ * Compressed values look like <code>[0x01][dictionary version][raw length][zlib stream]</code>,
+ * dictionary version 0 meaning "no dictionary". Everything that doesn't start with 0x01
+ * is returned as is, so that uncompressed values (DER always starts with 0x30) written
+ * before compression was enabled stay readable.
+ */
+public class DeflateCoder implements Coder<byte[]> {
+
+    static final byte COMPRESSED = 0x01;
+    private static final int HEADER_SIZE = 1 + Integer.BYTES + Integer.BYTES;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final boolean compress;
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private volatile int dictionaryVersion = 0;
+
+    public DeflateCoder(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Make a dictionary known for decompression. Dictionaries must never
+     * change once they are used, so the version is part of every value.
+     */
+    public void addDictionary(int version, byte[] dictionary) {
+        if (version <= 0) {
+            throw new IllegalArgumentException("Dictionary version must be positive, got " + version);
+        }
+        dictionaries.put(version, dictionary);
+    }
+
+    /**
+     * Compress new values with the given (previously added) dictionary.
+     */
+    public void useDictionary(int version) {
+        if (version != 0 && !dictionaries.containsKey(version)) {
+            throw new IllegalArgumentException("Unknown dictionary version " + version);
+        }
+        this.dictionaryVersion = version;
+    }
+
+    public int getDictionaryVersion() {
+        return dictionaryVersion;
+    }
+
+    public static boolean isCompressed(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == COMPRESSED;
+    }
+
+    @Override
+    public byte[] toBytes(byte[] bytes) {
+        if (!compress) {
+            return bytes;
+        }
+        final int version = dictionaryVersion;
+        final Deflater deflater = DEFLATER.get();
+        try {
+            if (version != 0) {
+                deflater.setDictionary(dictionaries.get(version));
+            }
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + HEADER_SIZE);
+            out.write(header(version, bytes.length), 0, HEADER_SIZE);
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                final int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            final byte[] compressed = out.toByteArray();
+            // small objects may not get any smaller, but a raw value
+            // that looks like a compressed one can't be stored raw
+            return compressed.length < bytes.length || isCompressed(bytes) ? compressed : bytes;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    @Override
+    public byte[] fromBytes(byte[] bytes) {
+        if (!isCompressed(bytes)) {
+            return bytes;
+        }
+        final ByteBuffer bb = ByteBuffer.wrap(bytes);
+        bb.get();
+        final int version = bb.getInt();
+        final int length = bb.getInt();
+
+        final Inflater inflater = INFLATER.get();
+        try {
+            inflater.setInput(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+            final byte[] result = new byte[length];
+            int offset = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsDictionary()) {
+                    inflater.setDictionary(dictionary(version));
+                }
+                final int n = inflater.inflate(result, offset, length - offset);
+                if (n == 0 && !inflater.finished() && !inflater.needsDictionary()) {
+                    throw new IllegalStateException("Malformed compressed value, expected " + length + " bytes, got " + offset);
+                }
+                offset += n;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed value", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    private byte[] dictionary(int version) {
+        final byte[] dictionary = dictionaries.get(version);
+        if (dictionary == null) {
+            throw new IllegalStateException("Value is compressed with unknown dictionary version " + version);
+        }
+        return dictionary;
+    }
+
+    private static byte[] header(int version, int length) {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .put(COMPRESSED)
+                .putInt(version)
+                .putInt(length)
+                .array();
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a preset dictionary for {@link DeflateCoder} out of sample values.
+ *
+ * The samples are split into as many epochs as there are segments in the dictionary
+ * and from every epoch the segment containing the most frequent (in terms of the number
+ * of samples containing them) 8-byte sequences is taken, the same way zstd's "cover"
+ * algorithm does it. Once a sequence is in the dictionary it doesn't count anymore.
+ * Deflate reaches closer parts of the dictionary with shorter distances, so the best
+ * segments end up at the end.
+ */
+public class DeflateDictionaryTrainer {
+
+    /** Deflate can't look back further than its 32K window. */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int DMER_SIZE = 8;
+    private static final int SEGMENT_SIZE = 64;
+
+    public static byte[] train(Collection<byte[]> samples, int dictionarySize) {
+        final int size = Math.min(dictionarySize, MAX_DICTIONARY_SIZE);
+        final int totalSize = samples.stream().mapToInt(s -> s.length).sum();
+        final byte[] data = new byte[totalSize];
+        final Map<Long, Integer> frequencies = new HashMap<>();
+        int offset = 0;
+        for (byte[] sample : samples) {
+            System.arraycopy(sample, 0, data, offset, sample.length);
+            final Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + DMER_SIZE <= sample.length; i++) {
+                final long dmer = dmer(data, offset + i);
+                if (seen.add(dmer)) {
+                    frequencies.merge(dmer, 1, Integer::sum);
+                }
+            }
+            offset += sample.length;
+        }
+        if (totalSize <= size) {
+            return data;
+        }
+
+        final int epochs = Math.max(1, size / SEGMENT_SIZE);
+        final int epochSize = totalSize / epochs;
+        final List<Segment> segments = new ArrayList<>();
+        int dictionaryLength = 0;
+        for (int epoch = 0; epoch < epochs && epochSize >= SEGMENT_SIZE; epoch++) {
+            final Segment best = bestSegment(data, epoch * epochSize, epochSize, frequencies);
+            if (best.score == 0) {
+                continue;
+            }
+            segments.add(best);
+            dictionaryLength += SEGMENT_SIZE;
+            for (int i = best.start; i + DMER_SIZE <= best.start + SEGMENT_SIZE; i++) {
+                frequencies.remove(dmer(data, i));
+            }
+        }
+
+        segments.sort(Comparator.comparingLong(s -> s.score));
+        final byte[] dictionary = new byte[dictionaryLength];
+        int position = 0;
+        for (Segment s : segments) {
+            System.arraycopy(data, s.start, dictionary, position, SEGMENT_SIZE);
+            position += SEGMENT_SIZE;
+        }
+        return dictionary;
+    }
+
+    /**
+     * Slide a window of the segment size through the epoch, keeping the score
+     * of the window up to date by only looking at the dmers entering and leaving it.
+     */
+    private static Segment bestSegment(byte[] data, int from, int length, Map<Long, Integer> frequencies) {
+        final int dmersPerSegment = SEGMENT_SIZE - DMER_SIZE + 1;
+        final int lastStart = Math.min(from + length, data.length - SEGMENT_SIZE);
+        long score = 0;
+        for (int i = from; i < from + dmersPerSegment; i++) {
+            score += frequencies.getOrDefault(dmer(data, i), 0);
+        }
+        Segment best = new Segment(from, score);
+        for (int start = from + 1; start <= lastStart; start++) {
+            score -= frequencies.getOrDefault(dmer(data, start - 1), 0);
+            score += frequencies.getOrDefault(dmer(data, start + dmersPerSegment - 1), 0);
+            if (score > best.score) {
+                best = new Segment(start, score);
+            }
+        }
+        return best;
+    }
+
+    private static long dmer(byte[] data, int offset) {
+        long v = 0;
+        for (int i = 0; i < DMER_SIZE; i++) {
+            v = (v << 8) | (data[offset + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private static class Segment {
+        final int start;
+        final long score;
+
+        Segment(int start, long score) {
+            this.start = start;
+            this.score = score;
+        }
+    }
+}
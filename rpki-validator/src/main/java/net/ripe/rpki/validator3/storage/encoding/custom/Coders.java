@@ -101,6 +101,12 @@ public class Coders {
         return list;
     }
 
+    public static byte[] toBytes(ByteBuffer bb) {
+        final byte[] bytes = new byte[bb.remaining()];
+        bb.duplicate().get(bytes);
+        return bytes;
+    }
+
     public static long toLong(byte[] bytes) {
         return Longs.fromByteArray(bytes);
     }
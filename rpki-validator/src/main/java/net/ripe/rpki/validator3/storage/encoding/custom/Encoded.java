@@ -118,4 +118,29 @@ public class Encoded {
         return Optional.ofNullable(c.get(tag));
     }
 
+    /**
+     * Find a single field directly in the serialized form, without decoding the other fields.
+     * The returned buffer is a slice of <code>bb</code>, i.e. no bytes are copied.
+     */
+    public static Optional<ByteBuffer> field(ByteBuffer bb, short tag) {
+        final int base = bb.position();
+        final int entryCount = bb.getInt(base);
+        final int headerEntrySize = Short.BYTES + Integer.BYTES;
+        int headerPosition = base + Integer.BYTES;
+        for (int i = 0; i < entryCount; i++) {
+            if (bb.getShort(headerPosition) == tag) {
+                final int start = base + bb.getInt(headerPosition + Short.BYTES);
+                final int end = i < entryCount - 1 ?
+                        base + bb.getInt(headerPosition + headerEntrySize + Short.BYTES) :
+                        bb.limit();
+                final ByteBuffer field = bb.duplicate();
+                field.position(start);
+                field.limit(end);
+                return Optional.of(field.slice());
+            }
+            headerPosition += headerEntrySize;
+        }
+        return Optional.empty();
+    }
+
 }
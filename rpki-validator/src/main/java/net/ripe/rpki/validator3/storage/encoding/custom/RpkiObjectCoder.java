@@ -38,17 +38,35 @@ import java.util.TreeSet;
 
 public class RpkiObjectCoder implements Coder<RpkiObject> {
 
-    private final static short TYPE_TAG = Tags.unique(31);
-    private final static short SHA256_TAG = Tags.unique(32);
-    private final static short AKI_TAG = Tags.unique(33);
+    final static short TYPE_TAG = Tags.unique(31);
+    final static short SHA256_TAG = Tags.unique(32);
+    final static short AKI_TAG = Tags.unique(33);
     private final static short LAST_MARKED_TAG = Tags.unique(34);
-    private final static short SERIAL_TAG = Tags.unique(35);
-    private final static short ENCODED_TAG = Tags.unique(36);
-    private final static short SIGNING_TIME_TAG = Tags.unique(37);
+    final static short SERIAL_TAG = Tags.unique(35);
+    final static short ENCODED_TAG = Tags.unique(36);
+    final static short SIGNING_TIME_TAG = Tags.unique(37);
     private final static short LOCATIONS_TAG = Tags.unique(38);
-    private final static short ROA_PREFIXES = Tags.unique(39);
+    final static short ROA_PREFIXES = Tags.unique(39);
 
-    private final static RoaPrefixCoder roaPrefixCoder = new RoaPrefixCoder();
+    final static RoaPrefixCoder roaPrefixCoder = new RoaPrefixCoder();
+
+    private final boolean withEncoded;
+
+    public RpkiObjectCoder() {
+        this(true);
+    }
+
+    private RpkiObjectCoder(boolean withEncoded) {
+        this.withEncoded = withEncoded;
+    }
+
+    /**
+     * Coder that leaves out the encoded content of the object, for when
+     * the content is stored separately from the rest of the fields.
+     */
+    public static RpkiObjectCoder metadataCoder() {
+        return new RpkiObjectCoder(false);
+    }
 
     @Override
     public byte[] toBytes(RpkiObject rpkiObject) {
@@ -60,7 +78,9 @@ public class RpkiObjectCoder implements Coder<RpkiObject> {
         encoded.append(SHA256_TAG, rpkiObject.getSha256());
         encoded.append(AKI_TAG, rpkiObject.getAuthorityKeyIdentifier());
         encoded.appendNotNull(SERIAL_TAG, rpkiObject.getSerialNumber(), Coders::toBytes);
-        encoded.appendNotNull(ENCODED_TAG, rpkiObject.getEncoded());
+        if (withEncoded) {
+            encoded.appendNotNull(ENCODED_TAG, rpkiObject.getEncoded());
+        }
         encoded.appendNotNull(SIGNING_TIME_TAG, rpkiObject.getSigningTime(), Coders::toBytes);
 
         if (rpkiObject.getRoaPrefixes() != null && !rpkiObject.getRoaPrefixes().isEmpty()) {
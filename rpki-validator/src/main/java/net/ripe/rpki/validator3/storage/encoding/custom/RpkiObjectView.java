@@ -0,0 +1,110 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding.custom;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.RoaPrefix;
+import net.ripe.rpki.validator3.storage.data.RpkiObject;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only view of a serialized RpkiObject. Fields are decoded on access, so that
+ * reading e.g. only the type and ROA prefixes does not copy the (potentially big)
+ * encoded DER content to the heap.
+ *
+ * The view wraps the memory it has been read from, so it must not be used
+ * after the transaction that produced it is closed.
+ */
+public class RpkiObjectView {
+
+    private final ByteBuffer bb;
+
+    private RpkiObjectView(ByteBuffer bb) {
+        this.bb = bb;
+    }
+
+    public static RpkiObjectView of(ByteBuffer bb) {
+        return new RpkiObjectView(bb);
+    }
+
+    public Key key() {
+        return Key.of(getSha256());
+    }
+
+    public RpkiObject.Type getType() {
+        return RpkiObject.Type.valueOf(Coders.toString(bytes(RpkiObjectCoder.TYPE_TAG)));
+    }
+
+    public boolean isOfType(RpkiObject.Type type) {
+        return getType() == type;
+    }
+
+    public byte[] getSha256() {
+        return bytes(RpkiObjectCoder.SHA256_TAG);
+    }
+
+    public byte[] getAuthorityKeyIdentifier() {
+        return bytes(RpkiObjectCoder.AKI_TAG);
+    }
+
+    public BigInteger getSerialNumber() {
+        final byte[] b = bytes(RpkiObjectCoder.SERIAL_TAG);
+        return b == null ? null : Coders.toBigInteger(b);
+    }
+
+    public Instant getSigningTime() {
+        final byte[] b = bytes(RpkiObjectCoder.SIGNING_TIME_TAG);
+        return b == null ? null : Coders.toInstant(b);
+    }
+
+    public List<RoaPrefix> getRoaPrefixes() {
+        final byte[] b = bytes(RpkiObjectCoder.ROA_PREFIXES);
+        return b == null ?
+                Collections.emptyList() :
+                Coders.fromBytes(b, RpkiObjectCoder.roaPrefixCoder::fromBytes);
+    }
+
+    public byte[] getEncoded() {
+        return bytes(RpkiObjectCoder.ENCODED_TAG);
+    }
+
+    public RpkiObject toRpkiObject() {
+        return new RpkiObjectCoder().fromBytes(Coders.toBytes(bb));
+    }
+
+    private byte[] bytes(short tag) {
+        return Encoded.field(bb, tag).map(Coders::toBytes).orElse(null);
+    }
+}
@@ -34,6 +34,7 @@ import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -76,6 +77,11 @@ public class RpkiRepositoryCoder implements Coder<RpkiRepository> {
         return encoded.toByteArray();
     }
 
+    public static RpkiRepository.Type getType(ByteBuffer bb) {
+        return RpkiRepository.Type.valueOf(Coders.toString(Coders.toBytes(
+                Encoded.field(bb, TYPE_TAG).orElseThrow(() -> new IllegalArgumentException("No type found")))));
+    }
+
     @Override
     public RpkiRepository fromBytes(byte[] bytes) {
         Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
@@ -0,0 +1,63 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding.custom.validation;
+
+import net.ripe.rpki.validator3.storage.data.validation.ValidationPhase;
+import net.ripe.rpki.validator3.storage.encoding.Coder;
+import net.ripe.rpki.validator3.storage.encoding.custom.Coders;
+import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
+
+import java.util.Map;
+
+public class ValidationPhaseCoder implements Coder<ValidationPhase> {
+
+    private final static short NAME_TAG = Tags.unique(131);
+    private final static short COUNT_TAG = Tags.unique(132);
+    private final static short DURATION_TAG = Tags.unique(133);
+
+    @Override
+    public byte[] toBytes(ValidationPhase validationPhase) {
+        final Encoded encoded = new Encoded();
+        encoded.appendNotNull(NAME_TAG, validationPhase.getName(), Coders::toBytes);
+        encoded.append(COUNT_TAG, Coders.toBytes(validationPhase.getCount()));
+        encoded.append(DURATION_TAG, Coders.toBytes(validationPhase.getDurationMs()));
+        return encoded.toByteArray();
+    }
+
+    @Override
+    public ValidationPhase fromBytes(byte[] bytes) {
+        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return ValidationPhase.of(
+                Encoded.field(content, NAME_TAG).map(Coders::toString).orElse(null),
+                Encoded.field(content, COUNT_TAG).map(Coders::toLong).orElse(0L),
+                Encoded.field(content, DURATION_TAG).map(Coders::toLong).orElse(0L));
+    }
+}
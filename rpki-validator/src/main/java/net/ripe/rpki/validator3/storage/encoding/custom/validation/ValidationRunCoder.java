@@ -42,8 +42,10 @@ public class ValidationRunCoder {
     private final static short COMPLETED_AT_TAG = Tags.unique(121);
     private final static short VALIDATION_CHECKS_TAG = Tags.unique(122);
     private final static short STATUS_TAG = Tags.unique(123);
+    private final static short PHASES_TAG = Tags.unique(124);
 
     private static final ValidationCheckCoder vcCoder = new ValidationCheckCoder();
+    private static final ValidationPhaseCoder phaseCoder = new ValidationPhaseCoder();
 
     public static void toBytes(ValidationRun validationRun, Encoded encoded) {
         BaseCoder.toBytes(validationRun, encoded);
@@ -53,6 +55,9 @@ public class ValidationRunCoder {
         if (validationRun.getValidationChecks() != null && !validationRun.getValidationChecks().isEmpty()) {
             encoded.append(VALIDATION_CHECKS_TAG, Coders.toBytes(validationRun.getValidationChecks(), vcCoder::toBytes));
         }
+        if (validationRun.getPhases() != null && !validationRun.getPhases().isEmpty()) {
+            encoded.append(PHASES_TAG, Coders.toBytes(validationRun.getPhases(), phaseCoder::toBytes));
+        }
     }
 
     public static void fromBytes(Map<Short, byte[]> content, ValidationRun validationRun) {
@@ -62,6 +67,8 @@ public class ValidationRunCoder {
         Encoded.field(content, COMPLETED_AT_TAG).ifPresent(b -> validationRun.setCompletedAt(Coders.toInstant(b)));
         Encoded.field(content, VALIDATION_CHECKS_TAG).ifPresent(b ->
                 validationRun.setValidationChecks(Coders.fromBytes(b, vcCoder::fromBytes)));
+        Encoded.field(content, PHASES_TAG).ifPresent(b ->
+                validationRun.setPhases(Coders.fromBytes(b, phaseCoder::fromBytes)));
     }
 
 }
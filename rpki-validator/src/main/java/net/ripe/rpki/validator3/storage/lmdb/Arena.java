@@ -0,0 +1,161 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Per-thread pool of direct memory for the keys and values passed to LMDB.
+ *
+ * LMDB copies keys and values on put and only reads the key on get, so the
+ * buffers are needed only for the duration of a call. Instead of allocating
+ * a new direct buffer every time, buffers are cut from a few reusable chunks.
+ * Every method that allocates takes a mark first and resets to it when it's
+ * done (see {@link #withArena(Function)}), so the memory is reused by the next call.
+ * Buffers must not be used after resetting to a mark taken before they were allocated.
+ */
+final class Arena {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNKS = 16;
+
+    private static final ThreadLocal<Arena> ARENAS = ThreadLocal.withInitial(Arena::new);
+
+    private static final LongAdder buffers = new LongAdder();
+    private static final LongAdder chunkAllocations = new LongAdder();
+    private static final LongAdder directAllocations = new LongAdder();
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int chunk;
+    private int position;
+
+    private Arena() {
+    }
+
+    static Arena get() {
+        return ARENAS.get();
+    }
+
+    /**
+     * Apply <code>f</code> and release everything it allocated from the arena afterwards.
+     */
+    static <T> T withArena(Function<Arena, T> f) {
+        final Arena arena = get();
+        final long mark = arena.mark();
+        try {
+            return f.apply(arena);
+        } finally {
+            arena.reset(mark);
+        }
+    }
+
+    static void withArena0(Consumer<Arena> c) {
+        withArena(arena -> {
+            c.accept(arena);
+            return null;
+        });
+    }
+
+    long mark() {
+        return ((long) chunk << 32) | position;
+    }
+
+    void reset(long mark) {
+        chunk = (int) (mark >>> 32);
+        position = (int) mark;
+    }
+
+    ByteBuffer allocate(int size) {
+        buffers.increment();
+        if (size > CHUNK_SIZE) {
+            directAllocations.increment();
+            return ByteBuffer.allocateDirect(size);
+        }
+        if (position + size > CHUNK_SIZE) {
+            chunk++;
+            position = 0;
+        }
+        if (chunk == chunks.size()) {
+            if (chunk == MAX_CHUNKS) {
+                // something holds on to too much, don't keep it for the thread forever
+                chunk--;
+                position = CHUNK_SIZE;
+                directAllocations.increment();
+                return ByteBuffer.allocateDirect(size);
+            }
+            chunkAllocations.increment();
+            chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+        }
+        final ByteBuffer bb = chunks.get(chunk).duplicate();
+        bb.limit(position + size);
+        bb.position(position);
+        position += size;
+        return bb.slice();
+    }
+
+    ByteBuffer wrap(byte[] bytes) {
+        final ByteBuffer bb = allocate(bytes.length);
+        bb.put(bytes);
+        bb.flip();
+        return bb;
+    }
+
+    ByteBuffer key(Key key) {
+        return wrap(key.getBytes());
+    }
+
+    /**
+     * Number of buffers handed out.
+     */
+    static long getBuffers() {
+        return buffers.sum();
+    }
+
+    /**
+     * Number of chunks allocated, this stops growing once every thread has its chunks.
+     */
+    static long getChunkAllocations() {
+        return chunkAllocations.sum();
+    }
+
+    /**
+     * Number of buffers that didn't fit into the chunks and were allocated separately.
+     */
+    static long getDirectAllocations() {
+        return directAllocations.sum();
+    }
+}
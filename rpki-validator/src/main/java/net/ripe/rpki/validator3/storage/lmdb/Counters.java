@@ -0,0 +1,96 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.Env;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static org.lmdbjava.DbiFlags.MDB_CREATE;
+
+/**
+ * Counters (number of distinct keys, bytes used) that are kept up to date
+ * together with the data they describe, so that sizes can be reported without
+ * iterating the whole database.
+ *
+ * Changes are collected in the write transaction and are stored only once,
+ * right before the transaction is committed, so that updating a counter does
+ * not cost a write for every put or delete.
+ */
+class Counters {
+
+    private static final String COUNTERS_MAP_NAME = "counters";
+
+    private final Dbi<ByteBuffer> dbi;
+
+    Counters(Env<ByteBuffer> env) {
+        this.dbi = env.openDbi(COUNTERS_MAP_NAME, MDB_CREATE);
+    }
+
+    boolean exists(Tx.Read tx, String name) {
+        return Arena.withArena(arena -> dbi.get(tx.txn(), arena.key(Key.of(name))) != null);
+    }
+
+    long get(Tx.Read tx, String name) {
+        final long stored = Arena.withArena(arena -> {
+            final ByteBuffer bb = dbi.get(tx.txn(), arena.key(Key.of(name)));
+            return bb == null ? 0L : bb.getLong(0);
+        });
+        if (tx instanceof Tx.Write) {
+            return stored + ((Tx.Write) tx).getCounterChange(name);
+        }
+        return stored;
+    }
+
+    void add(Tx.Write tx, String name, long delta) {
+        tx.addCounterChange(name, delta);
+    }
+
+    void set(Tx.Write tx, String name, long value) {
+        add(tx, name, value - get(tx, name));
+    }
+
+    void flush(Tx.Write tx) {
+        final Map<String, Long> changes = tx.getCounterChanges();
+        if (changes == null || changes.isEmpty()) {
+            return;
+        }
+        changes.forEach((name, delta) -> Arena.withArena0(arena -> {
+            final ByteBuffer key = arena.key(Key.of(name));
+            final ByteBuffer bb = dbi.get(tx.txn(), key);
+            final long stored = bb == null ? 0L : bb.getLong(0);
+            dbi.put(tx.txn(), key, arena.key(Key.of(stored + delta)));
+        }));
+        changes.clear();
+    }
+}
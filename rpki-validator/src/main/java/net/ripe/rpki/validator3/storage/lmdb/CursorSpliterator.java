@@ -0,0 +1,87 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import org.lmdbjava.CursorIterator;
+
+import java.nio.ByteBuffer;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks an LMDB cursor on demand, so that streams built on top of it stop reading
+ * as soon as the consumer stops asking (limit, findFirst, anyMatch, etc.).
+ * The cursor is closed when it is exhausted, when the stream is closed or,
+ * at the latest, when the transaction is closed or committed.
+ */
+class CursorSpliterator<R> extends Spliterators.AbstractSpliterator<R> implements AutoCloseable {
+
+    private final CursorIterator<ByteBuffer> iterator;
+    private final Function<CursorIterator.KeyVal<ByteBuffer>, R> f;
+    private boolean closed = false;
+
+    private CursorSpliterator(CursorIterator<ByteBuffer> iterator, Function<CursorIterator.KeyVal<ByteBuffer>, R> f) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED);
+        this.iterator = iterator;
+        this.f = f;
+    }
+
+    static <R> Stream<R> stream(Tx.Read tx, CursorIterator<ByteBuffer> iterator,
+                                Function<CursorIterator.KeyVal<ByteBuffer>, R> f) {
+        final CursorSpliterator<R> spliterator = new CursorSpliterator<>(iterator, f);
+        tx.onClose(spliterator);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super R> action) {
+        if (closed) {
+            return false;
+        }
+        if (iterator.hasNext()) {
+            action.accept(f.apply(iterator.next()));
+            return true;
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            iterator.close();
+        }
+    }
+}
@@ -35,10 +35,13 @@ import lombok.Getter;
 import net.ripe.rpki.validator3.storage.Bytes;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
+import org.apache.commons.lang3.tuple.Pair;
+import org.lmdbjava.Cursor;
 import org.lmdbjava.CursorIterator;
 import org.lmdbjava.Dbi;
 import org.lmdbjava.DbiFlags;
 import org.lmdbjava.Env;
+import org.lmdbjava.KeyRange;
 import org.lmdbjava.Stat;
 
 import java.io.Serializable;
@@ -48,29 +51,37 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.stream.Stream;
 import java.util.zip.CRC32;
 
 public abstract class IxBase<T extends Serializable> {
     protected final Env<ByteBuffer> env;
+    final Lmdb lmdb;
     @Getter
     private final String name;
 
     private final Dbi<ByteBuffer> mainDb;
     final Coder<T> coder;
+    final Counters counters;
+    private final String bytesCounter;
 
     IxBase(final Lmdb lmdb,
            final String name,
            final Coder<T> coder) {
+        this.lmdb = lmdb;
         this.env = lmdb.getEnv();
         this.name = name;
         this.coder = coder;
+        this.bytesCounter = name + ":bytes";
         synchronized (lmdb) {
             this.mainDb = lmdb.createMainMapDb(name, getMainDbCreateFlags());
+            this.counters = lmdb.counters();
         }
     }
 
@@ -88,8 +99,26 @@ public abstract class IxBase<T extends Serializable> {
         return Tx.read(env);
     }
 
-    public Tx.Write writeTx() {
-        return Tx.write(env);
+    /**
+     * Counters are maintained on every put and delete, databases
+     * created before that have to be counted once.
+     */
+    void initCounters() {
+        // through the Lmdb transactions, so that counting a big database grows the map when needed
+        final boolean counted = lmdb.readTx(tx -> counters.exists(tx, bytesCounter));
+        if (!counted) {
+            lmdb.writeTx0(this::recount);
+        }
+    }
+
+    void recount(Tx.Write tx) {
+        final AtomicLong size = new AtomicLong();
+        forEach(tx, (k, v) -> size.addAndGet(k.size() + v.remaining()));
+        counters.set(tx, bytesCounter, size.get());
+    }
+
+    void addBytes(Tx.Write tx, long delta) {
+        counters.add(tx, bytesCounter, delta);
     }
 
     protected void verifyKey(Key k) {
@@ -102,7 +131,7 @@ public abstract class IxBase<T extends Serializable> {
     }
 
     public boolean exists(Tx.Read tx, Key key) {
-        return getMainDb().get(tx.txn(), key.toByteBuffer()) != null;
+        return Arena.withArena(arena -> getMainDb().get(tx.txn(), arena.key(key)) != null);
     }
 
     Dbi<ByteBuffer> getMainDb() {
@@ -114,11 +143,14 @@ public abstract class IxBase<T extends Serializable> {
         Lmdb.checkEnv(env);
     }
 
+    /**
+     * Serialized value with the checksum, allocated from the thread's {@link Arena}.
+     */
     protected ByteBuffer valueBuf(T value) {
         final byte[] valueBytes = coder.toBytes(value);
         CRC32 checksum = new CRC32();
         checksum.update(valueBytes);
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(Long.BYTES + valueBytes.length);
+        ByteBuffer byteBuffer = Arena.get().allocate(Long.BYTES + valueBytes.length);
         byteBuffer.putLong(checksum.getValue());
         byteBuffer.put(valueBytes);
         byteBuffer.flip();
@@ -126,14 +158,24 @@ public abstract class IxBase<T extends Serializable> {
     }
 
     protected T getValue(Key k, ByteBuffer bb) {
-        long crc32 = bb.getLong();
-        final byte[] valueBytes = Bytes.toBytes(bb);
+        return coder.fromBytes(Bytes.toBytes(payload(k, bb)));
+    }
+
+    /**
+     * Verify the checksum and return the serialized value without copying it,
+     * the returned buffer is a read-only slice of <code>bb</code> and is only
+     * valid within the transaction it was read in.
+     */
+    protected ByteBuffer payload(Key k, ByteBuffer bb) {
+        final ByteBuffer value = bb.duplicate();
+        final long crc32 = value.getLong();
+        final ByteBuffer payload = value.slice().asReadOnlyBuffer();
         CRC32 checksum = new CRC32();
-        checksum.update(valueBytes);
+        checksum.update(value);
         if (checksum.getValue() != crc32) {
             throw new RuntimeException("Data for the key " + k + " is corrupted");
         }
-        return coder.fromBytes(valueBytes);
+        return payload;
     }
 
     public Set<Key> keys(Tx.Read tx) {
@@ -154,14 +196,60 @@ public abstract class IxBase<T extends Serializable> {
         return result;
     }
 
+    /**
+     * Lazy variant of {@link #keys(Tx.Read)}, in key order. Must be consumed within the transaction.
+     */
+    public Stream<Key> keyStream(Tx.Read tx) {
+        return cursorStream(tx, getMainDb(), KeyRange.all(), kv -> new Key(kv.key()));
+    }
+
+    /**
+     * Lazy variant of {@link #values(Tx.Read)}, in key order. Must be consumed within the transaction.
+     */
+    public Stream<T> valueStream(Tx.Read tx) {
+        return cursorStream(tx, getMainDb(), KeyRange.all(), kv -> toValue(kv.val()));
+    }
+
+    /**
+     * Lazy variant of {@link #all(Tx.Read)}, in key order. Must be consumed within the transaction.
+     */
+    public Stream<Pair<Key, T>> entryStream(Tx.Read tx) {
+        return cursorStream(tx, getMainDb(), KeyRange.all(), kv -> {
+            final Key k = new Key(kv.key());
+            return Pair.of(k, getValue(k, kv.val()));
+        });
+    }
+
+    /**
+     * Lazy variant of {@link #forEachPayload(Tx.Read, BiConsumer)}, a buffer is only
+     * valid until the stream moves on to the next entry.
+     */
+    public Stream<ByteBuffer> payloadStream(Tx.Read tx) {
+        return cursorStream(tx, getMainDb(), KeyRange.all(), kv -> payload(null, kv.val()));
+    }
+
+    <R> Stream<R> cursorStream(Tx.Read tx, Dbi<ByteBuffer> dbi, KeyRange<ByteBuffer> keyRange,
+                               Function<CursorIterator.KeyVal<ByteBuffer>, R> f) {
+        return CursorSpliterator.stream(tx, dbi.iterate(tx.txn(), keyRange), f);
+    }
+
     public void clear(Tx.Write tx) {
         getMainDb().drop(tx.txn());
+        counters.set(tx, bytesCounter, 0L);
     }
 
     public T toValue(ByteBuffer bb) {
         return getValue(null, bb);
     }
 
+    public ByteBuffer toPayload(ByteBuffer bb) {
+        return payload(null, bb);
+    }
+
+    public T fromPayload(ByteBuffer payload) {
+        return coder.fromBytes(Bytes.toBytes(payload.duplicate()));
+    }
+
     public void forEach(Tx.Read tx, BiConsumer<Key, ByteBuffer> c) {
         try (final CursorIterator<ByteBuffer> ci = getMainDb().iterate(tx.txn())) {
             while (ci.hasNext()) {
@@ -171,31 +259,39 @@ public abstract class IxBase<T extends Serializable> {
         }
     }
 
+    /**
+     * Same as forEach, but gives the serialized value (without the checksum) to the consumer.
+     */
+    public void forEachPayload(Tx.Read tx, BiConsumer<Key, ByteBuffer> c) {
+        forEach(tx, (k, bb) -> c.accept(k, payload(k, bb)));
+    }
+
+    /**
+     * The greatest key, keys are ordered by their bytes.
+     */
+    public Optional<Key> lastKey(Tx.Read tx) {
+        try (final Cursor<ByteBuffer> cursor = getMainDb().openCursor(tx.txn())) {
+            return cursor.last() ? Optional.of(new Key(cursor.key())) : Optional.empty();
+        }
+    }
+
     public long size(Tx.Read tx) {
-        AtomicLong s = new AtomicLong();
-        forEach(tx, (k, v) -> s.getAndIncrement());
-        return s.get();
+        return getMainDb().stat(tx.txn()).entries;
     }
 
     public Sizes sizeInfo(Tx.Read tx) {
-        AtomicInteger count = new AtomicInteger();
-        AtomicInteger size = new AtomicInteger();
-        forEach(tx, (k, v) -> {
-            count.getAndIncrement();
-            size.addAndGet(k.size() + v.remaining());
-        });
-        return new Sizes(count.get(), size.get(), getAllocatedSize(tx, getMainDb()));
+        final Stat stat = getMainDb().stat(tx.txn());
+        return new Sizes(stat.entries, counters.get(tx, bytesCounter), getAllocatedSize(stat));
     }
 
-    long getAllocatedSize(Tx.Read tx, Dbi<ByteBuffer> dbi) {
-        final Stat stat = dbi.stat(tx.txn());
+    static long getAllocatedSize(Stat stat) {
         return stat.pageSize * (stat.branchPages + stat.leafPages + stat.overflowPages);
     }
 
     @Data
     @AllArgsConstructor
     public static class Sizes {
-        private int count;
+        private long count;
         private long keysAndValuesBytes;
         private long allocatedSize;
     }
@@ -29,33 +29,43 @@
  */
 package net.ripe.rpki.validator3.storage.lmdb;
 
+import com.google.common.primitives.UnsignedBytes;
 import lombok.Getter;
+import net.ripe.rpki.validator3.storage.Bytes;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
+import net.ripe.rpki.validator3.storage.encoding.custom.Coders;
 import org.apache.commons.lang3.tuple.Pair;
+import org.lmdbjava.Cursor;
 import org.lmdbjava.CursorIterator;
 import org.lmdbjava.Dbi;
 import org.lmdbjava.DbiFlags;
+import org.lmdbjava.GetOp;
 import org.lmdbjava.KeyRange;
+import org.lmdbjava.PutFlags;
+import org.lmdbjava.Stat;
 import org.lmdbjava.Txn;
 
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.lmdbjava.DbiFlags.MDB_CREATE;
 import static org.lmdbjava.DbiFlags.MDB_DUPSORT;
@@ -72,6 +82,18 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
     private final Map<String, Function<T, Set<Key>>> indexFunctions;
     private final List<BiConsumer<Tx.Write, Key>> onDeleteTriggers = new ArrayList<>();
 
+    /**
+     * The order of keys in LMDB with the default comparator.
+     */
+    private static final Comparator<Key> KEY_ORDER =
+            (a, b) -> UnsignedBytes.lexicographicalComparator().compare(a.getBytes(), b.getBytes());
+
+    /**
+     * Index keys of every primary key, so that deletes and updates don't
+     * need to decode the old value to find out which index entries to remove.
+     */
+    final Dbi<ByteBuffer> indexKeysDb;
+
     public IxMap(final Lmdb lmdb,
                  final String name,
                  final Coder<T> coder,
@@ -80,33 +102,45 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
         this.indexFunctions = indexFunctions;
         Pair<Map<String, Dbi<ByteBuffer>>, Boolean> p = lmdb.createIndexes(name, indexFunctions, getIndexDbiFlags());
         indexes = p.getLeft();
+        indexKeysDb = indexFunctions.isEmpty() ? null : lmdb.createIndexKeysDb(name);
         boolean reindex = p.getRight();
         if (reindex) {
             reindex();
         }
+        initCounters();
     }
 
     public IxMap(final Lmdb lmdb, String name, Coder<T> coder) {
         this(lmdb, name, coder, Collections.emptyMap());
     }
 
+    /**
+     * Rebuilds all indexes in one write transaction, which is retried in a
+     * bigger map when it doesn't fit.
+     */
     private void reindex() {
-        final Tx.Write tx = writeTx();
-        try {
+        lmdb.writeTx0(tx -> {
             Txn<ByteBuffer> txn = tx.txn();
             indexes.forEach((name, idx) -> idx.drop(txn));
+            if (indexKeysDb != null) {
+                indexKeysDb.drop(txn);
+            }
             forEach(tx, (k, bb) -> {
-                final T value = getValue(k, bb);
-                indexFunctions.forEach((n, idxFun) ->
-                        idxFun.apply(value).forEach(ik -> {
-                            final Dbi<ByteBuffer> idx = getIdx(n);
-                            idx.put(txn, ik.toByteBuffer(), k.toByteBuffer());
-                        }));
+                final Map<String, Set<Key>> indexKeys = indexKeys(getValue(k, bb));
+                Arena.withArena0(arena -> {
+                    final ByteBuffer pkBuf = arena.key(k);
+                    indexKeys.forEach((n, iks) ->
+                            iks.forEach(ik -> {
+                                final Dbi<ByteBuffer> idx = getIdx(n);
+                                idx.put(txn, arena.key(ik), pkBuf);
+                            }));
+                    if (indexKeysDb != null) {
+                        indexKeysDb.put(txn, pkBuf, arena.wrap(encodeIndexKeys(indexKeys)));
+                    }
+                });
             });
-            txn.commit();
-        } finally {
-            tx.close();
-        }
+            recount(tx);
+        });
     }
 
     private Dbi<ByteBuffer> getIdx(String name) {
@@ -115,7 +149,114 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
     }
 
     private void dropIndexes(Tx.Write tx) {
-        indexes.forEach((name, db) -> db.drop(tx.txn()));
+        if (indexKeysDb != null) {
+            indexKeysDb.drop(tx.txn());
+        }
+        indexes.forEach((name, db) -> {
+            db.drop(tx.txn());
+            counters.set(tx, indexBytesCounter(name), 0L);
+            counters.set(tx, indexKeysCounter(name), 0L);
+        });
+    }
+
+    private String indexBytesCounter(String indexName) {
+        return getName() + ":" + indexName + ":bytes";
+    }
+
+    private String indexKeysCounter(String indexName) {
+        return getName() + ":" + indexName + ":keys";
+    }
+
+    @Override
+    void recount(Tx.Write tx) {
+        super.recount(tx);
+        indexes.forEach((idxName, idx) -> {
+            long keys = 0;
+            long bytes = 0;
+            Key currentIndexKey = null;
+            try (final CursorIterator<ByteBuffer> iterator = idx.iterate(tx.txn())) {
+                while (iterator.hasNext()) {
+                    final CursorIterator.KeyVal<ByteBuffer> next = iterator.next();
+                    final Key indexKey = new Key(next.key());
+                    bytes += indexKey.size() + next.val().remaining();
+                    if (!indexKey.equals(currentIndexKey)) {
+                        keys++;
+                        currentIndexKey = indexKey;
+                    }
+                }
+            }
+            counters.set(tx, indexBytesCounter(idxName), bytes);
+            counters.set(tx, indexKeysCounter(idxName), keys);
+        });
+    }
+
+    private Map<String, Set<Key>> indexKeys(T value) {
+        final Map<String, Set<Key>> indexKeys = new HashMap<>();
+        indexFunctions.forEach((idxName, idxFun) ->
+                indexKeys.put(idxName, idxFun.apply(value).stream()
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet())));
+        return indexKeys;
+    }
+
+    /**
+     * Index keys of the value currently stored for the primary key. Values
+     * stored before the index keys were kept separately are decoded instead.
+     */
+    private Map<String, Set<Key>> storedIndexKeys(Tx.Read tx, Key primaryKey, ByteBuffer pkBuf) {
+        final ByteBuffer ikBuf = indexKeysDb.get(tx.txn(), pkBuf);
+        if (ikBuf != null) {
+            return decodeIndexKeys(ikBuf);
+        }
+        final ByteBuffer bb = getMainDb().get(tx.txn(), pkBuf);
+        return bb == null ? Collections.emptyMap() : indexKeys(getValue(primaryKey, bb));
+    }
+
+    private static byte[] encodeIndexKeys(Map<String, Set<Key>> indexKeys) {
+        return Coders.toBytes(indexKeys.entrySet(), e -> {
+            final List<byte[]> fields = new ArrayList<>(e.getValue().size() + 1);
+            fields.add(Coders.toBytes(e.getKey()));
+            e.getValue().forEach(ik -> fields.add(ik.getBytes()));
+            return Coders.toBytes(fields, Function.identity());
+        });
+    }
+
+    private static Map<String, Set<Key>> decodeIndexKeys(ByteBuffer bb) {
+        final Map<String, Set<Key>> indexKeys = new HashMap<>();
+        Coders.fromBytes(Bytes.toBytes(bb), Function.identity()).forEach(entry -> {
+            final List<byte[]> fields = Coders.fromBytes(entry, Function.identity());
+            indexKeys.put(Coders.toString(fields.get(0)),
+                    fields.stream().skip(1).map(Key::of).collect(Collectors.toSet()));
+        });
+        return indexKeys;
+    }
+
+    private void addIndexEntry(Tx.Write tx, String indexName, Key indexKey, ByteBuffer pkBuf, int pkSize) {
+        final Txn<ByteBuffer> txn = tx.txn();
+        final Dbi<ByteBuffer> index = getIdx(indexName);
+        final ByteBuffer ikBuf = Arena.get().key(indexKey);
+        final boolean newIndexKey = index.get(txn, ikBuf) == null;
+        if (index.put(txn, ikBuf, pkBuf, PutFlags.MDB_NODUPDATA)) {
+            counters.add(tx, indexBytesCounter(indexName), indexKey.size() + pkSize);
+            if (newIndexKey) {
+                counters.add(tx, indexKeysCounter(indexName), 1L);
+            }
+        }
+    }
+
+    private void removeIndexEntry(Tx.Write tx, String indexName, Key indexKey, ByteBuffer pkBuf, int pkSize) {
+        final Txn<ByteBuffer> txn = tx.txn();
+        final Dbi<ByteBuffer> index = getIdx(indexName);
+        if (index == null) {
+            return;
+        }
+        final ByteBuffer ikBuf = Arena.get().key(indexKey);
+        if (index.delete(txn, ikBuf, pkBuf)) {
+            counters.add(tx, indexBytesCounter(indexName), -(indexKey.size() + pkSize));
+            if (index.get(txn, ikBuf) == null) {
+                counters.add(tx, indexKeysCounter(indexName), -1L);
+            }
+        }
     }
 
     protected DbiFlags[] getMainDbCreateFlags() {
@@ -132,10 +273,50 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
 
     public Optional<T> get(Tx.Read txn, Key primaryKey) {
         verifyKey(primaryKey);
-        ByteBuffer bb = getMainDb().get(txn.txn(), primaryKey.toByteBuffer());
-        return bb == null ?
-                Optional.empty() :
-                Optional.of(getValue(primaryKey, bb));
+        return Arena.withArena(arena -> {
+            ByteBuffer bb = getMainDb().get(txn.txn(), arena.key(primaryKey));
+            return bb == null ?
+                    Optional.empty() :
+                    Optional.of(getValue(primaryKey, bb));
+        });
+    }
+
+    /**
+     * Apply <code>f</code> to the serialized value of the primary key, without decoding it.
+     * The buffer given to <code>f</code> must not escape the transaction.
+     */
+    public <R> Optional<R> getView(Tx.Read txn, Key primaryKey, Function<ByteBuffer, R> f) {
+        verifyKey(primaryKey);
+        return Arena.withArena(arena -> {
+            ByteBuffer bb = getMainDb().get(txn.txn(), arena.key(primaryKey));
+            return bb == null ?
+                    Optional.empty() :
+                    Optional.ofNullable(f.apply(payload(primaryKey, bb)));
+        });
+    }
+
+    /**
+     * Get the values for all of the <code>primaryKeys</code> that exist, using one cursor that
+     * visits the keys in the order of the map instead of a separate lookup for every key.
+     * The result is ordered by the primary key.
+     */
+    public Map<Key, T> getAll(Tx.Read tx, Collection<Key> primaryKeys) {
+        final List<Key> sorted = new ArrayList<>(primaryKeys);
+        sorted.forEach(this::verifyKey);
+        sorted.sort(KEY_ORDER);
+        return Arena.withArena(arena -> {
+            final Map<Key, T> result = new LinkedHashMap<>();
+            try (final Cursor<ByteBuffer> cursor = getMainDb().openCursor(tx.txn())) {
+                final long mark = arena.mark();
+                for (Key pk : sorted) {
+                    if (!result.containsKey(pk) && cursor.get(arena.key(pk), GetOp.MDB_SET_KEY)) {
+                        result.put(pk, getValue(pk, cursor.val()));
+                    }
+                    arena.reset(mark);
+                }
+            }
+            return result;
+        });
     }
 
     public List<T> get(Tx.Read txn, Set<Key> primaryKeys) {
@@ -148,34 +329,90 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
 
     public Map<Key, T> getByIndex(String indexName, Tx.Read tx, Key indexKey) {
         checkNotNull(indexKey, "Index key is null");
-        final ByteBuffer idxKey = indexKey.toByteBuffer();
-        return getByIndexKeyRange(indexName, tx, KeyRange.closed(idxKey, idxKey));
+        return Arena.withArena(arena -> {
+            final ByteBuffer idxKey = arena.key(indexKey);
+            return getByIndexKeyRange(indexName, tx, KeyRange.closed(idxKey, idxKey));
+        });
     }
 
     public Set<Key> getPkByIndex(String indexName, Tx.Read tx, Key indexKey) {
         checkNotNull(indexKey, "Index key is null");
+        return Arena.withArena(arena -> {
+            final ByteBuffer idxKey = arena.key(indexKey);
+            return getPkByIndexKeyRange(indexName, tx, KeyRange.closed(idxKey, idxKey));
+        });
+    }
+
+    /**
+     * Lazy variant of {@link #getByIndex(String, Tx.Read, Key)}, ordered by the primary key.
+     * Must be consumed within the transaction.
+     */
+    public Stream<Pair<Key, T>> streamByIndex(String indexName, Tx.Read tx, Key indexKey) {
+        checkNotNull(indexKey, "Index key is null");
+        final Dbi<ByteBuffer> index = getIdx(indexName);
+        if (index == null) {
+            return Stream.empty();
+        }
+        final Txn<ByteBuffer> txn = tx.txn();
+        final Dbi<ByteBuffer> mainDb = getMainDb();
+        // the key range has to live as long as the stream, so it doesn't come from the arena
         final ByteBuffer idxKey = indexKey.toByteBuffer();
-        return getPkByIndexKeyRange(indexName, tx, KeyRange.closed(idxKey, idxKey));
+        return cursorStream(tx, index, KeyRange.closed(idxKey, idxKey), kv -> {
+            final ByteBuffer pkBuf = kv.val();
+            final ByteBuffer bb = mainDb.get(txn, pkBuf);
+            if (bb == null) {
+                return null;
+            }
+            final Key pk = new Key(pkBuf);
+            return Pair.of(pk, getValue(pk, bb));
+        }).filter(Objects::nonNull);
     }
 
-    public Map<Key, T> getByIndexLess(String indexName, Tx.Read tx, Key indexKey) {
+    /**
+     * Lazy variant of {@link #getPkByIndex(String, Tx.Read, Key)}, in primary key order.
+     * Must be consumed within the transaction.
+     */
+    public Stream<Key> streamPkByIndex(String indexName, Tx.Read tx, Key indexKey) {
+        checkNotNull(indexKey, "Index key is null");
+        final Dbi<ByteBuffer> index = getIdx(indexName);
+        if (index == null) {
+            return Stream.empty();
+        }
         final ByteBuffer idxKey = indexKey.toByteBuffer();
-        return getByIndexKeyRange(indexName, tx, KeyRange.lessThan(idxKey));
+        return cursorStream(tx, index, KeyRange.closed(idxKey, idxKey), kv -> new Key(kv.val()));
+    }
+
+    /**
+     * Primary keys within <code>keyRange</code> of the index, ordered by the index key and then by the
+     * primary key, or the reverse for backward ranges. Lazy, must be consumed within the transaction.
+     * The buffers of the range must stay valid as long as the stream, so they can't come from the arena.
+     */
+    public Stream<Key> streamPkByIndexRange(String indexName, Tx.Read tx, KeyRange<ByteBuffer> keyRange) {
+        final Dbi<ByteBuffer> index = getIdx(indexName);
+        if (index == null) {
+            return Stream.empty();
+        }
+        return cursorStream(tx, index, keyRange, kv -> new Key(kv.val()));
+    }
+
+    public Map<Key, T> getByIndexLess(String indexName, Tx.Read tx, Key indexKey) {
+        return Arena.withArena(arena ->
+                getByIndexKeyRange(indexName, tx, KeyRange.lessThan(arena.key(indexKey))));
     }
 
     public Map<Key, T> getByIndexGreater(String indexName, Tx.Read tx, Key indexKey) {
-        final ByteBuffer idxKey = indexKey.toByteBuffer();
-        return getByIndexKeyRange(indexName, tx, KeyRange.greaterThan(idxKey));
+        return Arena.withArena(arena ->
+                getByIndexKeyRange(indexName, tx, KeyRange.greaterThan(arena.key(indexKey))));
     }
 
     public Set<Key> getByIndexLessPk(String indexName, Tx.Read tx, Key indexKey) {
-        final ByteBuffer idxKey = indexKey.toByteBuffer();
-        return getPkByIndexKeyRange(indexName, tx, KeyRange.lessThan(idxKey));
+        return Arena.withArena(arena ->
+                getPkByIndexKeyRange(indexName, tx, KeyRange.lessThan(arena.key(indexKey))));
     }
 
     public Set<Key> getByIndexGreaterPk(String indexName, Tx.Read tx, Key indexKey) {
-        final ByteBuffer idxKey = indexKey.toByteBuffer();
-        return getPkByIndexKeyRange(indexName, tx, KeyRange.greaterThan(idxKey));
+        return Arena.withArena(arena ->
+                getPkByIndexKeyRange(indexName, tx, KeyRange.greaterThan(arena.key(indexKey))));
     }
 
     public Map<Key, T> getByIndexMax(String indexName, Tx.Read tx, Predicate<T> p) {
@@ -196,37 +433,128 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
 
     public Optional<T> put(Tx.Write tx, Key primaryKey, T value) {
         checkKeyAndValue(primaryKey, value);
-        final Txn<ByteBuffer> txn = tx.txn();
         final Optional<T> oldValue = get(tx, primaryKey);
-        final ByteBuffer pkBuf = primaryKey.toByteBuffer();
-        final ByteBuffer val = valueBuf(value);
-        getMainDb().put(txn, pkBuf, val);
-        if (oldValue.isPresent()) {
-            indexFunctions.forEach((idxName, idxFun) -> {
-                final Set<Key> oldIndexKeys = idxFun.apply(oldValue.get());
-                final Set<Key> indexKeys = idxFun.apply(value).stream()
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toSet());
-                final Dbi<ByteBuffer> index = getIdx(idxName);
-                oldIndexKeys.stream()
-                        .filter(oik -> !indexKeys.contains(oik))
-                        .forEach(oik -> index.delete(txn, oik.toByteBuffer(), pkBuf));
-
-                indexKeys.stream()
-                        .filter(ik -> !oldIndexKeys.contains(ik))
-                        .forEach(ik -> index.put(txn, ik.toByteBuffer(), pkBuf));
-            });
-            return oldValue;
-        } else {
-            indexFunctions.forEach((idxName, idxFun) -> {
-                final Set<Key> indexKeys = idxFun.apply(value).stream()
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toSet());
+        store(tx, primaryKey, value);
+        return oldValue;
+    }
+
+    /**
+     * The same as {@link #put(Tx.Write, Key, Serializable)}, but doesn't decode and return the old value.
+     */
+    public void store(Tx.Write tx, Key primaryKey, T value) {
+        checkKeyAndValue(primaryKey, value);
+        Arena.withArena0(arena -> {
+            final Txn<ByteBuffer> txn = tx.txn();
+            final ByteBuffer pkBuf = arena.key(primaryKey);
+            final int pkSize = primaryKey.size();
+            final ByteBuffer oldVal = getMainDb().get(txn, pkBuf);
+            final boolean exists = oldVal != null;
+            final long oldSize = exists ? pkSize + oldVal.remaining() : 0;
+            final Map<String, Set<Key>> oldIndexKeys = exists && indexKeysDb != null ?
+                    storedIndexKeys(tx, primaryKey, pkBuf) :
+                    Collections.emptyMap();
+            final ByteBuffer val = valueBuf(value);
+            addBytes(tx, pkSize + val.remaining() - oldSize);
+            getMainDb().put(txn, pkBuf, val);
+            if (indexKeysDb != null) {
+                final Map<String, Set<Key>> indexKeys = indexKeys(value);
+                indexKeys.forEach((idxName, keys) -> {
+                    final Set<Key> oldKeys = oldIndexKeys.getOrDefault(idxName, Collections.emptySet());
+                    oldKeys.stream()
+                            .filter(oik -> !keys.contains(oik))
+                            .forEach(oik -> removeIndexEntry(tx, idxName, oik, pkBuf, pkSize));
+
+                    keys.stream()
+                            .filter(ik -> !oldKeys.contains(ik))
+                            .forEach(ik -> addIndexEntry(tx, idxName, ik, pkBuf, pkSize));
+                });
+                indexKeysDb.put(txn, pkBuf, arena.wrap(encodeIndexKeys(indexKeys)));
+            }
+        });
+    }
+
+    /**
+     * Bulk version of {@link #store(Tx.Write, Key, Serializable)}. Entries are written
+     * in key order through one cursor per database. Keys that sort after the last key
+     * in the database are appended, other new keys are inserted without looking up an
+     * old value first; only the keys that already exist go through the usual update.
+     */
+    public void putAll(Tx.Write tx, Map<Key, T> values) {
+        final List<Key> primaryKeys = new ArrayList<>(values.keySet());
+        primaryKeys.forEach(pk -> checkKeyAndValue(pk, values.get(pk)));
+        primaryKeys.sort(KEY_ORDER);
+
+        Arena.withArena0(arena -> {
+            final Txn<ByteBuffer> txn = tx.txn();
+            final List<Key> existing = new ArrayList<>();
+            final Map<String, List<Pair<Key, Key>>> newIndexEntries = new HashMap<>();
+            try (final Cursor<ByteBuffer> main = getMainDb().openCursor(txn);
+                 final Cursor<ByteBuffer> ixKeys = indexKeysDb == null ? null : indexKeysDb.openCursor(txn)) {
+                Key last = main.last() ? new Key(main.key()) : null;
+                final long mark = arena.mark();
+                for (Key pk : primaryKeys) {
+                    final T value = values.get(pk);
+                    final ByteBuffer pkBuf = arena.key(pk);
+                    final ByteBuffer val = valueBuf(value);
+                    final boolean append = last == null || KEY_ORDER.compare(pk, last) > 0;
+                    if (main.put(pkBuf, val, append ? PutFlags.MDB_APPEND : PutFlags.MDB_NOOVERWRITE)) {
+                        if (append) {
+                            last = pk;
+                        }
+                        addBytes(tx, pk.size() + val.remaining());
+                        if (ixKeys != null) {
+                            final Map<String, Set<Key>> indexKeys = indexKeys(value);
+                            indexKeys.forEach((idxName, iks) -> iks.forEach(ik ->
+                                    newIndexEntries.computeIfAbsent(idxName, n -> new ArrayList<>()).add(Pair.of(ik, pk))));
+                            ixKeys.put(pkBuf, arena.wrap(encodeIndexKeys(indexKeys)));
+                        }
+                    } else {
+                        existing.add(pk);
+                    }
+                    arena.reset(mark);
+                }
+            }
 
-                indexKeys.forEach(ik -> getIdx(idxName).put(txn, ik.toByteBuffer(), pkBuf));
+            newIndexEntries.forEach((idxName, entries) -> {
+                entries.sort(Comparator.comparing((Pair<Key, Key> e) -> e.getLeft(), KEY_ORDER)
+                        .thenComparing(Pair::getRight, KEY_ORDER));
+                try (final Cursor<ByteBuffer> index = getIdx(idxName).openCursor(txn)) {
+                    Key lastIndexKey = index.last() ? new Key(index.key()) : null;
+                    boolean appended = false;
+                    Key currentIndexKey = null;
+                    final long mark = arena.mark();
+                    for (Pair<Key, Key> e : entries) {
+                        final Key ik = e.getLeft();
+                        final Key pk = e.getRight();
+                        final ByteBuffer ikBuf = arena.key(ik);
+                        // duplicates can only be appended after the last index key
+                        // if this batch is the one that has put it there
+                        final boolean append = lastIndexKey == null ||
+                                KEY_ORDER.compare(ik, lastIndexKey) > 0 ||
+                                appended && ik.equals(lastIndexKey);
+                        if (!ik.equals(currentIndexKey)) {
+                            currentIndexKey = ik;
+                            if (append || !index.get(ikBuf, GetOp.MDB_SET_KEY)) {
+                                counters.add(tx, indexKeysCounter(idxName), 1L);
+                            }
+                        }
+                        final boolean added = append ?
+                                index.put(ikBuf, arena.key(pk), PutFlags.MDB_APPEND, PutFlags.MDB_APPENDDUP) :
+                                index.put(ikBuf, arena.key(pk), PutFlags.MDB_NODUPDATA);
+                        if (added) {
+                            counters.add(tx, indexBytesCounter(idxName), ik.size() + pk.size());
+                        }
+                        if (append) {
+                            lastIndexKey = ik;
+                            appended = true;
+                        }
+                        arena.reset(mark);
+                    }
+                }
             });
-        }
-        return Optional.empty();
+
+            existing.forEach(pk -> store(tx, pk, values.get(pk)));
+        });
     }
 
     public boolean modify(Tx.Write tx, Key primaryKey, Consumer<T> modifyValue) {
@@ -242,21 +570,23 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
         checkNotNull(primaryKey, "Key is null");
         final Txn<ByteBuffer> txn = tx.txn();
         final Dbi<ByteBuffer> mainDb = getMainDb();
-        final ByteBuffer pkBuf = primaryKey.toByteBuffer();
-        if (indexFunctions.isEmpty()) {
-            mainDb.delete(txn, pkBuf);
-        } else {
+        Arena.withArena0(arena -> {
+            final ByteBuffer pkBuf = arena.key(primaryKey);
+            final int pkSize = primaryKey.size();
             final ByteBuffer bb = mainDb.get(txn, pkBuf);
             if (bb != null) {
-                // TODO probably avoid deserialization, just store the
-                //  index keys next to the serialized value
-                final T value = getValue(primaryKey, bb);
-                mainDb.delete(txn, pkBuf);
-                indexFunctions.forEach((idxName, idxFun) ->
-                        idxFun.apply(value).forEach(ix ->
-                                getIdx(idxName).delete(txn, ix.toByteBuffer(), pkBuf)));
+                addBytes(tx, -(pkSize + bb.remaining()));
+                if (indexKeysDb == null) {
+                    mainDb.delete(txn, pkBuf);
+                } else {
+                    final Map<String, Set<Key>> indexKeys = storedIndexKeys(tx, primaryKey, pkBuf);
+                    mainDb.delete(txn, pkBuf);
+                    indexKeysDb.delete(txn, pkBuf);
+                    indexKeys.forEach((idxName, keys) ->
+                            keys.forEach(ix -> removeIndexEntry(tx, idxName, ix, pkBuf, pkSize)));
+                }
             }
-        }
+        });
         try {
             onDeleteTriggers.forEach(bf -> bf.accept(tx, primaryKey));
         } catch (OnDeleteRestrictException o) {
@@ -270,10 +600,33 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
 
     @Override
     public void clear(Tx.Write tx) {
-        getMainDb().drop(tx.txn());
+        super.clear(tx);
         dropIndexes(tx);
     }
 
+    /**
+     * Number of distinct keys in the index.
+     */
+    public long countIndexKeys(String indexName, Tx.Read tx) {
+        return counters.get(tx, indexKeysCounter(indexName));
+    }
+
+    /**
+     * Number of primary keys stored in the index for the index key, without iterating them.
+     */
+    public long countByIndex(String indexName, Tx.Read tx, Key indexKey) {
+        checkNotNull(indexKey, "Index key is null");
+        final Dbi<ByteBuffer> index = getIdx(indexName);
+        if (index == null) {
+            return 0;
+        }
+        return Arena.withArena(arena -> {
+            try (final Cursor<ByteBuffer> cursor = index.openCursor(tx.txn())) {
+                return cursor.get(arena.key(indexKey), GetOp.MDB_SET_KEY) ? cursor.count() : 0;
+            }
+        });
+    }
+
     private Map<Key, T> getByIndexKeyRange(String indexName, Tx.Read tx, KeyRange keyRange) {
         final Dbi<ByteBuffer> index = getIdx(indexName);
         if (index == null) {
@@ -284,9 +637,10 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
         final Dbi<ByteBuffer> mainDb = getMainDb();
         try (final CursorIterator<ByteBuffer> iterator = index.iterate(txn, keyRange)) {
             while (iterator.hasNext()) {
-                final Key pk = new Key(iterator.next().val());
+                final ByteBuffer pkBuf = iterator.next().val();
+                final Key pk = new Key(pkBuf);
                 if (!m.containsKey(pk)) {
-                    final ByteBuffer bb = mainDb.get(txn, pk.toByteBuffer());
+                    final ByteBuffer bb = mainDb.get(txn, pkBuf);
                     if (bb != null) {
                         m.put(pk, getValue(pk, bb));
                     }
@@ -376,18 +730,12 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
         IxBase.Sizes sizes = super.sizeInfo(tx);
         final Map<String, IxBase.Sizes> indexSizes = new HashMap<>();
         indexes.forEach((name, ignore) -> {
-            Dbi<ByteBuffer> idx = getIdx(name);
-            AtomicInteger count = new AtomicInteger();
-            AtomicInteger size = new AtomicInteger();
-            try (final CursorIterator<ByteBuffer> iterator = idx.iterate(tx.txn())) {
-                while (iterator.hasNext()) {
-                    count.incrementAndGet();
-                    final CursorIterator.KeyVal<ByteBuffer> next = iterator.next();
-                    size.addAndGet(next.key().remaining() + next.val().remaining());
-                }
-            }
-            long allocatedSize = getAllocatedSize(tx, idx);
-            indexSizes.put(name, new IxBase.Sizes(count.get(), size.get(), allocatedSize));
+            final Stat stat = getIdx(name).stat(tx.txn());
+            indexSizes.put(name, new IndexSizes(
+                    stat.entries,
+                    counters.get(tx, indexBytesCounter(name)),
+                    getAllocatedSize(stat),
+                    countIndexKeys(name, tx)));
         });
         return new Sizes(sizes.getCount(),
                 sizes.getKeysAndValuesBytes(),
@@ -426,7 +774,7 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
         @Getter
         private long totalAllocatedSize;
 
-        Sizes(int count, long sizeInBytes, long allocatedSize, Map<String, IxBase.Sizes> indexSizes) {
+        Sizes(long count, long sizeInBytes, long allocatedSize, Map<String, IxBase.Sizes> indexSizes) {
             super(count, sizeInBytes, allocatedSize);
             this.indexSizes = indexSizes.isEmpty() ? null : indexSizes;
             totalKeysAndValuesBytes = sizeInBytes;
@@ -438,4 +786,14 @@ public class IxMap<T extends Serializable> extends IxBase<T> {
         }
     }
 
+    public static class IndexSizes extends IxBase.Sizes {
+        @Getter
+        private long distinctKeys;
+
+        IndexSizes(long count, long sizeInBytes, long allocatedSize, long distinctKeys) {
+            super(count, sizeInBytes, allocatedSize);
+            this.distinctKeys = distinctKeys;
+        }
+    }
+
 }
@@ -29,8 +29,10 @@
  */
 package net.ripe.rpki.validator3.storage.lmdb;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Sets;
 import com.google.gson.Gson;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
@@ -40,21 +42,28 @@ import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
 import org.apache.commons.lang3.tuple.Pair;
+import org.lmdbjava.CopyFlags;
 import org.lmdbjava.Dbi;
 import org.lmdbjava.DbiFlags;
 import org.lmdbjava.Env;
 import org.lmdbjava.EnvInfo;
 import org.lmdbjava.Txn;
 
+import java.io.File;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -79,29 +88,136 @@ public abstract class Lmdb {
         return metadata;
     }
 
+    private Counters counters;
+
+    synchronized Counters counters() {
+        if (counters == null) {
+            counters = new Counters(getEnv());
+        }
+        return counters;
+    }
+
+    /**
+     * Transactions hold the read lock, resizing the map holds the write lock,
+     * since LMDB only allows to change the map size when no transaction is open.
+     */
+    private final ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
+
+    private volatile long maxMapSize = Long.MAX_VALUE;
+
+    protected void setMaxMapSize(long maxMapSize) {
+        this.maxMapSize = maxMapSize;
+    }
+
+    /**
+     * Run <code>f</code> in a write transaction. If the map gets full, the transaction
+     * is aborted, the map is grown and <code>f</code> is executed again in a new transaction.
+     */
     public <T> T writeTx(Function<Tx.Write, T> f) {
-        Tx.Write tx = Tx.write(getEnv());
-        txs.put(tx.getId(), new TxInfo(tx));
+        while (true) {
+            try {
+                return writeTxOnce(f);
+            } catch (RuntimeException e) {
+                // it's impossible to wait for the other transactions to finish
+                // if the current thread itself is holding one of them.
+                if (!isMapFull(e) || resizeLock.getReadHoldCount() > 0) {
+                    throw e;
+                }
+                growMap(e);
+            }
+        }
+    }
+
+    private <T> T writeTxOnce(Function<Tx.Write, T> f) {
+        resizeLock.readLock().lock();
         try {
-            final T result = f.apply(tx);
-            tx.txn().commit();
-            if (tx.getAfterCommit() != null) {
-                tx.getAfterCommit().forEach(r -> {
-                    try {
-                        r.run();
-                    } catch (Exception ignored) {
-                        // this is just to keep the loop going, every Runnable
-                        // has to take care of exceptions themselves
-                    }
-                });
+            Tx.Write tx = Tx.write(getEnv());
+            txs.put(tx.getId(), new TxInfo(tx));
+            try {
+                final T result = f.apply(tx);
+                tx.closeResources();
+                if (tx.getCounterChanges() != null) {
+                    counters().flush(tx);
+                }
+                tx.txn().commit();
+                if (tx.getAfterCommit() != null) {
+                    tx.getAfterCommit().forEach(r -> {
+                        try {
+                            r.run();
+                        } catch (Exception ignored) {
+                            // this is just to keep the loop going, every Runnable
+                            // has to take care of exceptions themselves
+                        }
+                    });
+                }
+                return result;
+            } finally {
+                tx.close();
+                txs.remove(tx.getId());
             }
-            return result;
         } finally {
-            tx.close();
-            txs.remove(tx.getId());
+            resizeLock.readLock().unlock();
         }
     }
 
+    private static boolean isMapFull(Throwable e) {
+        return Throwables.getCausalChain(e).stream().anyMatch(t -> t instanceof Env.MapFullException);
+    }
+
+    private void growMap(RuntimeException mapFull) {
+        resizeLock.writeLock().lock();
+        try {
+            final long currentSize = getEnv().info().mapSize;
+            if (currentSize >= maxMapSize) {
+                log.error("LMDB map is full and has reached the maximum size of {} bytes", maxMapSize);
+                throw mapFull;
+            }
+            final long newSize = nextMapSize(currentSize, maxMapSize);
+            log.info("LMDB map is full, growing it from {} to {} bytes", currentSize, newSize);
+            getEnv().setMapSize(newSize);
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Double the map size while it is small and grow by 25% after that to not
+     * reserve too much address space, but never grow beyond <code>maxSize</code>.
+     */
+    static long nextMapSize(long currentSize, long maxSize) {
+        final long gb = 1024L * 1024L * 1024L;
+        final long grown = currentSize < 8 * gb ? currentSize * 2 : currentSize + currentSize / 4;
+        return Math.min(grown, maxSize);
+    }
+
+    /**
+     * Copy the whole environment into the (existing and empty) directory <code>target</code>
+     * while it is being used. With <code>compact</code> free pages are omitted and the pages
+     * are renumbered sequentially, so that the copy only takes as much space as the live data.
+     */
+    public void copyTo(File target, boolean compact) {
+        // the copy runs its own read transaction that must not overlap with resizing the map
+        resizeLock.readLock().lock();
+        try {
+            checkEnv(getEnv());
+            if (compact) {
+                getEnv().copy(target, CopyFlags.MDB_CP_COMPACT);
+            } else {
+                getEnv().copy(target);
+            }
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    public long getMapSize() {
+        return getEnv().info().mapSize;
+    }
+
+    public long getMapUsed() {
+        return (getEnv().info().lastPageNumber + 1) * getEnv().stat().pageSize;
+    }
+
     public void writeTx0(Consumer<Tx.Write> c) {
         writeTx(tx -> {
             c.accept(tx);
@@ -110,13 +226,18 @@ public abstract class Lmdb {
     }
 
     public <T> T readTx(Function<Tx.Read, T> f) {
-        Tx.Read tx = Tx.read(getEnv());
-        txs.put(tx.getId(), new TxInfo(tx));
+        resizeLock.readLock().lock();
         try {
-            return f.apply(tx);
+            Tx.Read tx = Tx.read(getEnv());
+            txs.put(tx.getId(), new TxInfo(tx));
+            try {
+                return f.apply(tx);
+            } finally {
+                tx.close();
+                txs.remove(tx.getId());
+            }
         } finally {
-            tx.close();
-            txs.remove(tx.getId());
+            resizeLock.readLock().unlock();
         }
     }
 
@@ -127,6 +248,93 @@ public abstract class Lmdb {
         });
     }
 
+    /**
+     * A read transaction for the current thread, when it runs many short read transactions one after
+     * the other, like the workers validating certificate trees. Must be closed by the same thread.
+     */
+    public RenewedReadTxs renewedReadTxs() {
+        return new RenewedReadTxs(Thread.currentThread());
+    }
+
+    /**
+     * The transaction is only reset after use, renewing a reset transaction is a lot cheaper than
+     * creating a new one. A reset transaction doesn't hold on to a snapshot, so every
+     * {@link #readTx(Function)} still sees the latest committed data.
+     * <p>
+     * LMDB ties a read transaction to the thread that created it, other threads get a new
+     * read transaction every time.
+     */
+    public class RenewedReadTxs implements AutoCloseable {
+        private final Thread owner;
+        private Txn<ByteBuffer> txn;
+        private boolean inUse = false;
+        private boolean closed = false;
+
+        private RenewedReadTxs(Thread owner) {
+            this.owner = owner;
+        }
+
+        public <T> T readTx(Function<Tx.Read, T> f) {
+            // a worker can pick up other work while waiting inside the transaction
+            if (closed || inUse || Thread.currentThread() != owner) {
+                return Lmdb.this.readTx(f);
+            }
+            resizeLock.readLock().lock();
+            inUse = true;
+            try {
+                if (txn == null) {
+                    checkEnv(getEnv());
+                    txn = getEnv().txnRead();
+                } else {
+                    txn.renew();
+                }
+                Tx.Read tx = new Tx.Renewed(getEnv(), txn);
+                txs.put(tx.getId(), new TxInfo(tx));
+                try {
+                    return f.apply(tx);
+                } finally {
+                    tx.close();
+                    txs.remove(tx.getId());
+                }
+            } finally {
+                inUse = false;
+                resizeLock.readLock().unlock();
+            }
+        }
+
+        public void readTx0(Consumer<Tx.Read> c) {
+            readTx(tx -> {
+                c.accept(tx);
+                return null;
+            });
+        }
+
+        /**
+         * LMDB only aborts a transaction that is not reset, so the transaction is renewed first,
+         * which only works on the thread that created it.
+         */
+        @Override
+        public void close() {
+            if (Thread.currentThread() != owner) {
+                throw new IllegalStateException("Renewed read transactions must be closed by " + owner.getName());
+            }
+            closed = true;
+            if (txn == null) {
+                return;
+            }
+            resizeLock.readLock().lock();
+            try {
+                if (!getEnv().isClosed()) {
+                    txn.renew();
+                }
+                txn.close();
+                txn = null;
+            } finally {
+                resizeLock.readLock().unlock();
+            }
+        }
+    }
+
     public abstract Env<ByteBuffer> getEnv();
 
     static void checkEnv(Env env) {
@@ -191,10 +399,27 @@ public abstract class Lmdb {
         meta().put(key.toByteBuffer(), foo);
     }
 
+    Dbi<ByteBuffer> createIndexKeysDb(String name) {
+        return getEnv().openDbi(name + "-ixkeys", MDB_CREATE);
+    }
+
     private Key dbMetaKey(String dbName) {
         return Key.of(dbName + "-key");
     }
 
+    /**
+     * Arbitrary values stored next to the map descriptions, i.e. things that
+     * describe the data rather than being the data.
+     */
+    public Optional<byte[]> getMeta(Tx.Read tx, String name) {
+        final ByteBuffer bb = meta().get(tx.txn(), Key.of(name).toByteBuffer());
+        return Optional.ofNullable(bb).map(Bytes::toBytes);
+    }
+
+    public void putMeta(Tx.Write tx, String name, byte[] value) {
+        meta().put(tx.txn(), Key.of(name).toByteBuffer(), Bytes.toDirectBuffer(value));
+    }
+
     <T extends Serializable> Pair<Map<String, Dbi<ByteBuffer>>, Boolean> createIndexes(
             String name,
             Map<String, Function<T, Set<Key>>> indexFunctions,
@@ -253,24 +478,84 @@ public abstract class Lmdb {
         private Set<String> indexes;
     }
 
+    /**
+     * Bookkeeping for an open transaction. Creating it has to be cheap, since there is one
+     * for every transaction, so the stack trace of the owning thread is only captured by
+     * {@link #checkSlowTransactions(Duration)} once a transaction has been open for too long.
+     */
     @Data
     public static class TxInfo {
         private Long txId;
         private Long threadId;
+        private String threadName;
         private List<String> stackTrace;
         private boolean writing;
+        private boolean slow;
         private Instant startedAt;
 
+        @Getter(AccessLevel.NONE)
+        private final Thread thread;
+
         TxInfo(Tx tx) {
+            this.thread = Thread.currentThread();
             this.txId = tx.getId();
             this.threadId = tx.getThreadId();
-            this.stackTrace = Stream.of(Thread.currentThread().getStackTrace())
-                    .skip(2)
-                    .map(StackTraceElement::toString)
-                    .collect(Collectors.toList());
+            this.threadName = thread.getName();
             this.writing = tx instanceof Tx.Write;
             this.startedAt = Instant.now();
         }
+
+        public long getAgeMillis() {
+            return Duration.between(startedAt, Instant.now()).toMillis();
+        }
+
+        synchronized boolean markSlow() {
+            if (slow) {
+                return false;
+            }
+            slow = true;
+            stackTrace = Stream.of(thread.getStackTrace())
+                    .map(StackTraceElement::toString)
+                    .collect(Collectors.toList());
+            return true;
+        }
+    }
+
+    private final LongAdder slowTxCount = new LongAdder();
+
+    public long getSlowTxCount() {
+        return slowTxCount.sum();
+    }
+
+    /**
+     * Age of the oldest open read transaction in milliseconds, 0 if there is none.
+     * Long-living read transactions prevent LMDB from reusing pages freed by later writes.
+     */
+    public long getOldestReadTxAgeMillis() {
+        return txs.values().stream()
+                .filter(i -> !i.isWriting())
+                .mapToLong(TxInfo::getAgeMillis)
+                .max()
+                .orElse(0L);
+    }
+
+    /**
+     * Mark transactions open for longer than <code>threshold</code> as slow, capture
+     * the stack of their threads and return the newly detected ones.
+     */
+    public List<TxInfo> checkSlowTransactions(Duration threshold) {
+        final Instant cutoff = Instant.now().minus(threshold);
+        final List<TxInfo> detected = new ArrayList<>();
+        txs.values().forEach(i -> {
+            if (i.getStartedAt().isBefore(cutoff) && i.markSlow()) {
+                // the transaction may have finished while the stack was captured
+                if (txs.containsKey(i.getTxId())) {
+                    slowTxCount.increment();
+                    detected.add(i);
+                }
+            }
+        });
+        return detected;
     }
 
     @Data
@@ -279,6 +564,15 @@ public abstract class Lmdb {
         private org.lmdbjava.Stat lmdbStat;
         private EnvInfo info;
         private List<IxMapStat> ixMapStats;
+        private BufferStat buffers;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class BufferStat {
+        private long buffers;
+        private long chunkAllocations;
+        private long directAllocations;
     }
 
     @Data
@@ -296,7 +590,11 @@ public abstract class Lmdb {
                     .sorted(Comparator.comparing(Map.Entry::getKey))
                     .map(e -> new IxMapStat(e.getKey(), e.getValue().sizeInfo(tx)))
                     .collect(Collectors.toList());
-            return new Stat(stat, info, ixMapStats);
+            final BufferStat buffers = new BufferStat(
+                    Arena.getBuffers(),
+                    Arena.getChunkAllocations(),
+                    Arena.getDirectAllocations());
+            return new Stat(stat, info, ixMapStats, buffers);
         });
     }
 }
@@ -0,0 +1,200 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.validator3.util.Time;
+import org.lmdbjava.CopyFlags;
+import org.lmdbjava.Env;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Supplier;
+
+/**
+ * Makes compacted copies of the LMDB environment, either as a hot backup or
+ * to find out if compacting the data file reclaims enough of the free pages
+ * that accumulate over time.
+ * <p>
+ * A running validator keeps writing, so the data file itself is only replaced
+ * with a compacted copy on the next start, before any store is created.
+ */
+@Service
+@Slf4j
+public class LmdbCompactionService {
+
+    static final String DATA_FILE = "data.mdb";
+    static final String COMPACTION_REQUEST = "compact-on-start";
+
+    private final Lmdb lmdb;
+    private final File dataDirectory;
+    private final Path backupRoot;
+    private final double minReclaimedRatio;
+
+    @Autowired
+    public LmdbCompactionService(Lmdb lmdb,
+                                 @Value("${rpki.validator.data.path}") String lmdbPath,
+                                 @Value("${rpki.validator.lmdb.backup.path}") String backupPath,
+                                 @Value("${rpki.validator.lmdb.compaction.min.reclaimed.ratio:0.2}") double minReclaimedRatio) {
+        this.lmdb = lmdb;
+        this.dataDirectory = new File(lmdbPath).getAbsoluteFile();
+        this.backupRoot = new File(backupPath).getAbsoluteFile().toPath().normalize();
+        this.minReclaimedRatio = minReclaimedRatio;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class CompactionResult {
+        private String path;
+        private long sizeBefore;
+        private long sizeAfter;
+        private long reclaimedBytes;
+        private long durationMs;
+        private boolean appliedOnRestart;
+    }
+
+    /**
+     * Measure how much a compacted copy would reclaim. If it is enough to be worth
+     * it, the data file is compacted on the next start.
+     */
+    public synchronized CompactionResult compact() throws IOException {
+        final File target = compactedDirectory(dataDirectory);
+        deleteCopy(target);
+        final CompactionResult result;
+        try {
+            result = copy(target);
+        } finally {
+            deleteCopy(target);
+        }
+        final double reclaimedRatio = result.getSizeBefore() == 0 ? 0 :
+                (double) result.getReclaimedBytes() / result.getSizeBefore();
+        final File request = new File(dataDirectory, COMPACTION_REQUEST);
+        if (reclaimedRatio < minReclaimedRatio) {
+            log.info("Compaction would only reclaim {} bytes ({}%), not compacting on restart",
+                    result.getReclaimedBytes(), Math.round(reclaimedRatio * 100));
+            Files.deleteIfExists(request.toPath());
+            return result;
+        }
+        Files.write(request.toPath(), new byte[0]);
+        result.setAppliedOnRestart(true);
+        log.info("Compaction reclaims {} bytes ({}%), the data file will be compacted on restart",
+                result.getReclaimedBytes(), Math.round(reclaimedRatio * 100));
+        return result;
+    }
+
+    /**
+     * Make a compacted copy into the directory <code>name</code> under the backup root,
+     * which must not exist or be an empty directory.
+     */
+    public synchronized CompactionResult backup(String name) throws IOException {
+        final File target = backupDirectory(name);
+        if (target.exists()) {
+            final String[] files = target.list();
+            if (files == null || files.length > 0) {
+                throw new IllegalArgumentException("Backup target " + target + " is not an empty directory");
+            }
+        } else {
+            Files.createDirectories(target.toPath());
+        }
+        final CompactionResult result = copy(target);
+        log.info("Made a backup to {}, reclaimed {} bytes", target, result.getReclaimedBytes());
+        return result;
+    }
+
+    private File backupDirectory(String name) {
+        final Path target = backupRoot.resolve(name).normalize();
+        if (!target.startsWith(backupRoot) || target.equals(backupRoot)) {
+            throw new IllegalArgumentException("Backup target " + name + " is not a directory under " + backupRoot);
+        }
+        return target.toFile();
+    }
+
+    private CompactionResult copy(File target) throws IOException {
+        Files.createDirectories(target.toPath());
+        final long sizeBefore = new File(dataDirectory, DATA_FILE).length();
+        final long duration = Time.timed(() -> lmdb.copyTo(target, true));
+        final long sizeAfter = new File(target, DATA_FILE).length();
+        log.info("Made a compacted copy of {} ({} bytes) into {} ({} bytes) in {}ms",
+                dataDirectory, sizeBefore, target, sizeAfter, duration);
+        return new CompactionResult(target.getPath(), sizeBefore, sizeAfter, sizeBefore - sizeAfter, duration, false);
+    }
+
+    static File compactedDirectory(File dataDirectory) {
+        final File absolute = dataDirectory.getAbsoluteFile();
+        return new File(absolute.getParentFile(), absolute.getName() + ".compacted");
+    }
+
+    private static void deleteCopy(File directory) throws IOException {
+        Files.deleteIfExists(new File(directory, DATA_FILE).toPath());
+        Files.deleteIfExists(new File(directory, "lock.mdb").toPath());
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    /**
+     * Replace the data file with a compacted copy if that was requested. Must be called
+     * before the environment is opened for use, <code>openEnv</code> opens it only to make
+     * the copy, so that nothing can be written to the data file after the copy is made.
+     */
+    static void compactOnStart(File dataDirectory, Supplier<Env<ByteBuffer>> openEnv) throws IOException {
+        final File compacted = compactedDirectory(dataDirectory);
+        if (compacted.exists()) {
+            log.info("Removing incomplete compacted copy {}", compacted);
+            deleteCopy(compacted);
+        }
+        final File request = new File(dataDirectory, COMPACTION_REQUEST);
+        if (!request.exists()) {
+            return;
+        }
+        final File dataFile = new File(dataDirectory.getAbsoluteFile(), DATA_FILE);
+        final long sizeBefore = dataFile.length();
+        Files.createDirectories(compacted.toPath());
+        final long duration = Time.timed(() -> {
+            try (Env<ByteBuffer> env = openEnv.get()) {
+                env.copy(compacted, CopyFlags.MDB_CP_COMPACT);
+            }
+        });
+        log.info("Replacing the data file in {} ({} bytes) with a compacted copy ({} bytes) made in {}ms",
+                dataDirectory, sizeBefore, new File(compacted, DATA_FILE).length(), duration);
+        Files.move(new File(compacted, DATA_FILE).toPath(), dataFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deleteCopy(compacted);
+        // only now, an interrupted compaction is simply done again
+        Files.delete(request.toPath());
+    }
+}
@@ -59,9 +59,11 @@ public class LmdbImpl extends Lmdb {
 
     public LmdbImpl(
             @Value("${rpki.validator.data.path}") String lmdbPath,
-            @Value("${rpki.validator.lmdb.size.mb:8192}") long dbSizeInMb) {
+            @Value("${rpki.validator.lmdb.size.mb:1024}") long dbSizeInMb,
+            @Value("${rpki.validator.lmdb.max.size.mb:65536}") long maxDbSizeInMb) {
         this.dbSizeInMb = dbSizeInMb;
         this.lmdbPath = lmdbPath;
+        setMaxMapSize(maxDbSizeInMb * 1024L * 1024L);
     }
 
     @PostConstruct
@@ -69,10 +71,10 @@ public class LmdbImpl extends Lmdb {
         try {
             log.info("Creating LMDB environment at {}", lmdbPath);
             oneThread.submit(() -> {
-                env = create()
-                        .setMapSize(dbSizeInMb * 1024L * 1024L)
-                        .setMaxDbs(100)
-                        .open(new File(lmdbPath));
+                // before any store is created, so that nothing is written after the compacted copy is made
+                LmdbCompactionService.compactOnStart(new File(lmdbPath), this::openEnv);
+                env = openEnv();
+                return null;
             }).get();
 
             Runtime.getRuntime().addShutdownHook(new Thread(this::waitForAllTxToFinishAndClose));
@@ -82,6 +84,13 @@ public class LmdbImpl extends Lmdb {
         }
     }
 
+    private Env<ByteBuffer> openEnv() {
+        return create()
+                .setMapSize(dbSizeInMb * 1024L * 1024L)
+                .setMaxDbs(100)
+                .open(new File(lmdbPath));
+    }
+
     @PreDestroy
     public synchronized void waitForAllTxToFinishAndClose() {
         if (!env.isClosed()) {
@@ -0,0 +1,82 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Storage metrics, picked up by the actuator's meter registry.
+ */
+@Component
+public class LmdbMetrics implements MeterBinder {
+
+    private final Lmdb lmdb;
+
+    @Autowired
+    public LmdbMetrics(Lmdb lmdb) {
+        this.lmdb = lmdb;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("lmdb.buffers", this, m -> Arena.getBuffers())
+                .description("Key and value buffers handed out to LMDB operations")
+                .register(registry);
+        FunctionCounter.builder("lmdb.buffers.chunk.allocations", this, m -> Arena.getChunkAllocations())
+                .description("Direct memory chunks allocated for the per-thread buffer arenas")
+                .register(registry);
+        FunctionCounter.builder("lmdb.buffers.direct.allocations", this, m -> Arena.getDirectAllocations())
+                .description("Buffers too big for the arenas, allocated as separate direct buffers")
+                .register(registry);
+        Gauge.builder("lmdb.tx.open", lmdb, l -> l.getTxs().size())
+                .description("Currently open transactions")
+                .register(registry);
+        Gauge.builder("lmdb.tx.read.oldest.age", lmdb, l -> l.getOldestReadTxAgeMillis())
+                .description("Age of the oldest open read transaction, it keeps LMDB from reusing freed pages")
+                .baseUnit("milliseconds")
+                .register(registry);
+        Gauge.builder("lmdb.map.size", lmdb, Lmdb::getMapSize)
+                .description("Current size of the LMDB memory map, it grows when the map gets full")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("lmdb.map.used", lmdb, Lmdb::getMapUsed)
+                .description("Part of the LMDB memory map used by pages")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("lmdb.tx.slow", lmdb, Lmdb::getSlowTxCount)
+                .description("Transactions that were open for longer than the slow transaction threshold")
+                .register(registry);
+    }
+}
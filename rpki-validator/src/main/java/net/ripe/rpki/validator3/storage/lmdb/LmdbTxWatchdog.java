@@ -0,0 +1,92 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically looks for transactions that are open for longer than the configured
+ * threshold and logs them together with the current stack of the owning thread.
+ */
+@Component
+@Slf4j
+public class LmdbTxWatchdog {
+
+    private final Lmdb lmdb;
+    private final Duration threshold;
+
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "lmdb-tx-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public LmdbTxWatchdog(Lmdb lmdb,
+                          @Value("${rpki.validator.lmdb.slow.tx.threshold:PT30S}") String slowTxThreshold) {
+        this.lmdb = lmdb;
+        this.threshold = Duration.parse(slowTxThreshold);
+    }
+
+    @PostConstruct
+    public void start() {
+        final long period = Math.max(1000L, threshold.toMillis() / 2);
+        scheduledExecutorService.scheduleAtFixedRate(this::check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduledExecutorService.shutdownNow();
+    }
+
+    void check() {
+        try {
+            lmdb.checkSlowTransactions(threshold).forEach(txInfo ->
+                    log.warn("{} transaction {} in thread {} is open for {}ms, stack trace:\n    {}",
+                            txInfo.isWriting() ? "Write" : "Read",
+                            txInfo.getTxId(),
+                            txInfo.getThreadName(),
+                            txInfo.getAgeMillis(),
+                            String.join("\n    ", txInfo.getStackTrace())));
+        } catch (Exception e) {
+            log.error("Couldn't check for slow transactions", e);
+        }
+    }
+}
@@ -31,14 +31,18 @@ package net.ripe.rpki.validator3.storage.lmdb;
 
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
+import org.lmdbjava.Cursor;
 import org.lmdbjava.CursorIterator;
 import org.lmdbjava.DbiFlags;
+import org.lmdbjava.GetOp;
 import org.lmdbjava.KeyRange;
+import org.lmdbjava.PutFlags;
 
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.lmdbjava.DbiFlags.MDB_CREATE;
 import static org.lmdbjava.DbiFlags.MDB_DUPSORT;
@@ -49,6 +53,7 @@ public class MultIxMap<T extends Serializable> extends IxBase<T> {
                      final String name,
                      final Coder<T> coder) {
         super(lmdb, name, coder);
+        initCounters();
     }
 
     protected DbiFlags[] getMainDbCreateFlags() {
@@ -61,41 +66,73 @@ public class MultIxMap<T extends Serializable> extends IxBase<T> {
 
     public List<T> get(Tx.Read tx, Key primaryKey) {
         verifyKey(primaryKey);
-        final ByteBuffer pkBuf = primaryKey.toByteBuffer();
         final List<T> result = new ArrayList<>();
-        try (final CursorIterator<ByteBuffer> iterate = getMainDb().iterate(tx.txn(), KeyRange.closed(pkBuf, pkBuf))) {
-            while (iterate.hasNext()) {
-                final CursorIterator.KeyVal<ByteBuffer> next = iterate.next();
-                result.add(getValue(primaryKey, next.val()));
+        Arena.withArena0(arena -> {
+            final ByteBuffer pkBuf = arena.key(primaryKey);
+            try (final CursorIterator<ByteBuffer> iterate = getMainDb().iterate(tx.txn(), KeyRange.closed(pkBuf, pkBuf))) {
+                while (iterate.hasNext()) {
+                    final CursorIterator.KeyVal<ByteBuffer> next = iterate.next();
+                    result.add(getValue(primaryKey, next.val()));
+                }
             }
-        }
+        });
         return result;
     }
 
-    public int count(Tx.Read txn, Key primaryKey) {
+    /**
+     * Lazy variant of {@link #get(Tx.Read, Key)}, in value order. Must be consumed within the transaction.
+     */
+    public Stream<T> stream(Tx.Read tx, Key primaryKey) {
         verifyKey(primaryKey);
-        int s = 0;
+        // the key range has to live as long as the stream, so it doesn't come from the arena
         final ByteBuffer pkBuf = primaryKey.toByteBuffer();
-        try (final CursorIterator<ByteBuffer> ci = getMainDb().iterate(txn.txn(), KeyRange.closed(pkBuf, pkBuf))) {
-            while (ci.hasNext()) {
-                ci.next();
-                s++;
+        return cursorStream(tx, getMainDb(), KeyRange.closed(pkBuf, pkBuf), kv -> getValue(primaryKey, kv.val()));
+    }
+
+    public int count(Tx.Read txn, Key primaryKey) {
+        verifyKey(primaryKey);
+        return Arena.withArena(arena -> {
+            try (final Cursor<ByteBuffer> cursor = getMainDb().openCursor(txn.txn())) {
+                return cursor.get(arena.key(primaryKey), GetOp.MDB_SET_KEY) ? (int) cursor.count() : 0;
             }
-        }
-        return s;
+        });
     }
 
     public void put(Tx.Write tx, Key primaryKey, T value) {
         checkKeyAndValue(primaryKey, value);
-        getMainDb().put(tx.txn(), primaryKey.toByteBuffer(), valueBuf(value));
+        Arena.withArena0(arena -> {
+            final ByteBuffer val = valueBuf(value);
+            final int size = primaryKey.size() + val.remaining();
+            if (getMainDb().put(tx.txn(), arena.key(primaryKey), val, PutFlags.MDB_NODUPDATA)) {
+                addBytes(tx, size);
+            }
+        });
     }
 
     public void delete(Tx.Write tx, Key primaryKey) {
-        getMainDb().delete(tx.txn(), primaryKey.toByteBuffer());
+        verifyKey(primaryKey);
+        Arena.withArena0(arena -> {
+            final ByteBuffer pkBuf = arena.key(primaryKey);
+            long size = 0;
+            try (final CursorIterator<ByteBuffer> ci = getMainDb().iterate(tx.txn(), KeyRange.closed(pkBuf, pkBuf))) {
+                while (ci.hasNext()) {
+                    size += primaryKey.size() + ci.next().val().remaining();
+                }
+            }
+            if (getMainDb().delete(tx.txn(), pkBuf)) {
+                addBytes(tx, -size);
+            }
+        });
     }
 
     public void delete(Tx.Write tx, Key primaryKey, T value) {
         verifyKey(primaryKey);
-        getMainDb().delete(tx.txn(), primaryKey.toByteBuffer(), valueBuf(value));
+        Arena.withArena0(arena -> {
+            final ByteBuffer val = valueBuf(value);
+            final int size = primaryKey.size() + val.remaining();
+            if (getMainDb().delete(tx.txn(), arena.key(primaryKey), val)) {
+                addBytes(tx, -size);
+            }
+        });
     }
 }
@@ -29,6 +29,7 @@
  */
 package net.ripe.rpki.validator3.storage.lmdb;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.lmdbjava.Env;
@@ -36,7 +37,9 @@ import org.lmdbjava.Txn;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -64,6 +67,13 @@ public abstract class Tx implements AutoCloseable {
         txn = makeTxn();
     }
 
+    private Tx(Env<ByteBuffer> env, Txn<ByteBuffer> txn) {
+        threadId = Thread.currentThread().getId();
+        this.env = env;
+        id = idseq.getAndIncrement();
+        this.txn = txn;
+    }
+
     protected abstract Txn<ByteBuffer> makeTxn();
 
     public static Read read(Env<ByteBuffer> e) {
@@ -96,10 +106,40 @@ public abstract class Tx implements AutoCloseable {
 
     public void abort() {
         checkEnv();
+        closeResources();
         txn.abort();
         aborted = true;
     }
 
+    private List<AutoCloseable> resources = null;
+
+    /**
+     * Close <code>c</code> together with the transaction, i.e. cursors
+     * of lazy streams that haven't been consumed until the end.
+     */
+    void onClose(AutoCloseable c) {
+        if (resources == null) {
+            resources = new ArrayList<>();
+        }
+        resources.add(c);
+    }
+
+    /**
+     * Write transactions must close their cursors before commit.
+     */
+    void closeResources() {
+        if (resources != null) {
+            resources.forEach(c -> {
+                try {
+                    c.close();
+                } catch (Exception e) {
+                    log.error("Couldn't close a resource of the transaction " + id, e);
+                }
+            });
+            resources = null;
+        }
+    }
+
     public static class Write extends Read {
         Write(Env<ByteBuffer> e) {
             super(e);
@@ -120,6 +160,20 @@ public abstract class Tx implements AutoCloseable {
             }
             afterCommit.add(r);
         }
+
+        @Getter(AccessLevel.PACKAGE)
+        private Map<String, Long> counterChanges = null;
+
+        void addCounterChange(String name, long delta) {
+            if (counterChanges == null) {
+                counterChanges = new HashMap<>();
+            }
+            counterChanges.merge(name, delta, Long::sum);
+        }
+
+        long getCounterChange(String name) {
+            return counterChanges == null ? 0L : counterChanges.getOrDefault(name, 0L);
+        }
     }
 
     public static class Read extends Tx {
@@ -127,6 +181,10 @@ public abstract class Tx implements AutoCloseable {
             super(e);
         }
 
+        Read(Env<ByteBuffer> e, Txn<ByteBuffer> txn) {
+            super(e, txn);
+        }
+
         @Override
         protected Txn<ByteBuffer> makeTxn() {
             checkEnv();
@@ -134,8 +192,25 @@ public abstract class Tx implements AutoCloseable {
         }
     }
 
+    /**
+     * Read transaction around an LMDB transaction that is renewed and reset by its
+     * owner instead of being created and closed every time.
+     */
+    static class Renewed extends Read {
+        Renewed(Env<ByteBuffer> e, Txn<ByteBuffer> txn) {
+            super(e, txn);
+        }
+
+        @Override
+        public void close() {
+            closeResources();
+            txn().reset();
+        }
+    }
+
     @Override
     public void close() {
+        closeResources();
         txn().close();
     }
 }
@@ -34,26 +34,48 @@ import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
 import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
+import net.ripe.rpki.validator3.storage.encoding.custom.RpkiObjectView;
 import net.ripe.rpki.validator3.storage.lmdb.Tx;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 public interface RpkiObjects extends GenericStore<RpkiObject> {
     Optional<RpkiObject> get(Tx.Read tx, Key key);
 
+    <R> Optional<R> getView(Tx.Read tx, Key key, Function<RpkiObjectView, R> f);
+
     void put(Tx.Write tx, RpkiObject rpkiObject);
 
     void put(Tx.Write tx, RpkiObject rpkiObject, String location);
 
+    /**
+     * Store a batch of objects with their locations, faster than one by one.
+     */
+    void putAll(Tx.Write tx, Collection<Pair<String, RpkiObject>> locatedObjects);
+
     void delete(Tx.Write tx, RpkiObject o);
 
-    void markReachable(Tx.Write tx, Key pk, Instant i);
+    void markReachable(Tx.Write tx, Key pk);
+
+    /**
+     * Record that the object has been found unreachable at <code>since</code>.
+     */
+    void markUnreachable(Tx.Write tx, Key pk, Instant since);
+
+    /**
+     * Compare the currently <code>reachable</code> objects with the stored reachability, returns
+     * the objects that are not reachable anymore and the ones that have become reachable again.
+     */
+    Pair<Set<Key>, Set<Key>> findReachabilityChanges(Tx.Read tx, Set<Key> reachable);
 
     void addLocation(Tx.Write tx, Key pk, String location);
 
@@ -66,12 +88,23 @@ public interface RpkiObjects extends GenericStore<RpkiObject> {
 
     Optional<RpkiObject> findBySha256(Tx.Read tx, byte[] sha256);
 
+    /**
+     * Find the objects for all of the hashes with one pass over the objects, the ones
+     * that don't exist are left out.
+     */
+    Map<Key, RpkiObject> findAllBySha256(Tx.Read tx, Collection<Key> sha256s);
+
     Map<String, RpkiObject> findObjectsInManifest(Tx.Read tx, ManifestCms manifestCms);
 
     Optional<RpkiObject> findLatestMftByAKI(Tx.Read tx, byte[] authorityKeyIdentifier);
 
     long deleteUnreachableObjects(Tx.Write tx, Instant unreachableSince);
 
+    /**
+     * Remove the locations that no object refers to anymore, returns how many were removed.
+     */
+    long deleteUnreferencedLocations(Tx.Write tx);
+
     Stream<byte[]> streamObjects(Tx.Read tx, RpkiObject.Type type);
 
     Set<Key> getPkByType(Tx.Read tx, RpkiObject.Type type);
@@ -80,8 +80,16 @@ public interface ValidationRuns {
 
     void associateRpkiObjectKey(Tx.Write tx, CertificateTreeValidationRun validationRun, Key rpkiObjectKey);
 
+    void associateRpkiObjectKey(Tx.Write tx, RpkiRepositoryValidationRun validationRun, Key rpkiObjectKey);
+
     Set<Key> findAssociatedPks(Tx.Read tx, CertificateTreeValidationRun validationRun);
 
+    /**
+     * Lazy variant of {@link #findAssociatedPks(Tx.Read, CertificateTreeValidationRun)}, must be
+     * consumed within the transaction.
+     */
+    Stream<Key> streamAssociatedPks(Tx.Read tx, CertificateTreeValidationRun validationRun);
+
     Stream<Pair<CertificateTreeValidationRun, RpkiObject>> findCurrentlyValidated(Tx.Read tx, RpkiObject.Type cer);
 
     void clear(Tx.Write tx);
@@ -30,7 +30,8 @@
 package net.ripe.rpki.validator3.storage.stores.impl;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.primitives.UnsignedBytes;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
 import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
@@ -38,6 +39,10 @@ import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import net.ripe.rpki.validator3.storage.encoding.DeflateCoder;
+import net.ripe.rpki.validator3.storage.encoding.DeflateDictionaryTrainer;
+import net.ripe.rpki.validator3.storage.encoding.custom.RpkiObjectCoder;
+import net.ripe.rpki.validator3.storage.encoding.custom.RpkiObjectView;
 import net.ripe.rpki.validator3.storage.lmdb.IxMap;
 import net.ripe.rpki.validator3.storage.lmdb.Lmdb;
 import net.ripe.rpki.validator3.storage.lmdb.MultIxMap;
@@ -45,22 +50,26 @@ import net.ripe.rpki.validator3.storage.lmdb.Tx;
 import net.ripe.rpki.validator3.storage.stores.GenericStoreImpl;
 import net.ripe.rpki.validator3.storage.stores.RpkiObjects;
 import net.ripe.rpki.validator3.util.Time;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.math.BigInteger;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -69,14 +78,28 @@ import java.util.stream.Stream;
 public class LmdbRpkiObject extends GenericStoreImpl<RpkiObject> implements RpkiObjects {
 
     private static final String RPKI_OBJECTS = "rpki-objects";
+    private static final String ENCODED_MAP = "rpki-objects-encoded";
     private static final String REACHABLE_MAP = "rpki-objects-reachable";
+    private static final String UNREACHABLE_MAP = "rpki-objects-unreachable";
     private static final String LOCATION_MAP = "rpki-objects-location";
+    private static final String LOCATION_ID_MAP = "rpki-objects-location-ids";
+    private static final String LOCATIONS = "rpki-locations";
     private static final String BY_AKI_MFT_INDEX = "by-aki-mft";
     private static final String BY_TYPE_INDEX = "by-type";
+    private static final String DICTIONARY_META = ENCODED_MAP + "-dictionary-";
+    private static final int DICTIONARY_SAMPLES = 2000;
+    private static final int MIN_DICTIONARY_SAMPLES = 100;
+    private static final int RECOMPRESS_BATCH_SIZE = 1000;
+    private static final long MIN_FILTER_CAPACITY = 1_000_000;
 
     private final IxMap<RpkiObject> ixMap;
-    private final IxMap<Long> reachableMap;
-    private final MultIxMap<String> locationMap;
+    private final IxMap<byte[]> encodedMap;
+    private final DeflateCoder encodedCoder;
+    private final ParsedObjectCache parsedObjects;
+    private final IxMap<Long> unreachableMap;
+    private final MultIxMap<Long> locationIdMap;
+    private final LocationDictionary locations;
+    private final Sha256Filter sha256Filter;
 
     private Set<Key> akiMftKey(RpkiObject rpkiObject) {
         byte[] authorityKeyIdentifier = rpkiObject.getAuthorityKeyIdentifier();
@@ -89,30 +112,166 @@ public class LmdbRpkiObject extends GenericStoreImpl<RpkiObject> implements Rpki
         return Key.keys(Key.of(rpkiObject.getType().toString()));
     }
 
-    @Autowired
     public LmdbRpkiObject(Lmdb lmdb) {
+        this(lmdb, false);
+    }
+
+    public LmdbRpkiObject(Lmdb lmdb, boolean compress) {
+        this(lmdb, compress, new ParsedObjectCache(16, "PT1M"));
+    }
+
+    @Autowired
+    public LmdbRpkiObject(Lmdb lmdb,
+                          @Value("${rpki.validator.lmdb.compression.enabled:false}") boolean compress,
+                          ParsedObjectCache parsedObjects) {
+        this.parsedObjects = parsedObjects;
         this.ixMap = lmdb.createIxMap(
                 RPKI_OBJECTS,
                 ImmutableMap.of(
                         BY_AKI_MFT_INDEX, this::akiMftKey,
                         BY_TYPE_INDEX, this::typeKey),
-                CoderFactory.makeCoder(RpkiObject.class));
+                RpkiObjectCoder.metadataCoder());
 
-        this.reachableMap = lmdb.createIxMap(REACHABLE_MAP, ImmutableMap.of(), CoderFactory.longCoder());
-        this.locationMap = lmdb.createMultIxMap(LOCATION_MAP, CoderFactory.stringCoder());
+        // DER content is stored separately, keyed by its sha256, so that
+        // reading the metadata doesn't drag the content along. Dictionaries are
+        // loaded even with compression off, to be able to read compressed content.
+        this.encodedCoder = new DeflateCoder(compress);
+        loadDictionaries(lmdb);
+        this.encodedMap = lmdb.createIxMap(ENCODED_MAP, ImmutableMap.of(), encodedCoder);
+
+        // only objects that are not reachable have an entry, with the time they have
+        // first been found unreachable, so that cleanup writes only what has changed
+        this.unreachableMap = lmdb.createIxMap(UNREACHABLE_MAP, ImmutableMap.of(), CoderFactory.longCoder());
+        migrateReachability(lmdb);
+        // objects only refer to the ids of their locations in the dictionary
+        this.locations = new LocationDictionary(lmdb, LOCATIONS);
+        this.locationIdMap = lmdb.createMultIxMap(LOCATION_ID_MAP, CoderFactory.longCoder());
+        migrateLocations(lmdb);
+        this.sha256Filter = createSha256Filter(lmdb);
 
         ixMap.onDelete((tx, k) -> {
-            reachableMap.delete(tx, k);
-            locationMap.delete(tx, k);
+            encodedMap.delete(tx, k);
+            unreachableMap.delete(tx, k);
+            locationIdMap.delete(tx, k);
+            parsedObjects.invalidate(k);
+        });
+
+        if (compress && encodedCoder.getDictionaryVersion() == 0) {
+            trainCompressionDictionary(lmdb);
+        }
+    }
+
+    /**
+     * Only puts through this store are added to the filter, so it is filled with everything
+     * that is already stored before the store is used.
+     */
+    private Sha256Filter createSha256Filter(Lmdb lmdb) {
+        return lmdb.readTx(tx -> {
+            final long size = ixMap.size(tx);
+            final Sha256Filter filter = new Sha256Filter(Math.max(MIN_FILTER_CAPACITY, 2 * size));
+            final Long t = Time.timed(() -> {
+                try (Stream<Key> keys = ixMap.keyStream(tx)) {
+                    keys.forEach(filter::put);
+                }
+            });
+            log.info("Added {} object hashes to a filter for {} hashes in {}ms", size, filter.getCapacity(), t);
+            return filter;
+        });
+    }
+
+    private void loadDictionaries(Lmdb lmdb) {
+        lmdb.readTx0(tx -> {
+            int version = 1;
+            Optional<byte[]> dictionary;
+            while ((dictionary = lmdb.getMeta(tx, DICTIONARY_META + version)).isPresent()) {
+                encodedCoder.addDictionary(version, dictionary.get());
+                version++;
+            }
+            encodedCoder.useDictionary(version - 1);
         });
     }
 
+    /**
+     * Train a new compression dictionary on a sample of the stored objects, store it as the
+     * next dictionary version and rewrite all the content with it. Keys are sha256 hashes,
+     * so the first objects in key order are as good a random sample as any.
+     */
+    public void trainCompressionDictionary(Lmdb lmdb) {
+        final List<byte[]> samples = lmdb.readTx(tx -> {
+            try (Stream<byte[]> values = encodedMap.valueStream(tx)) {
+                return values.limit(DICTIONARY_SAMPLES).collect(Collectors.toList());
+            }
+        });
+        if (samples.size() < MIN_DICTIONARY_SAMPLES) {
+            log.info("Only {} objects stored, compressing without a dictionary for now", samples.size());
+            return;
+        }
+
+        final byte[] dictionary = DeflateDictionaryTrainer.train(samples, DeflateDictionaryTrainer.MAX_DICTIONARY_SIZE);
+        final int version = encodedCoder.getDictionaryVersion() + 1;
+        lmdb.writeTx0(tx -> lmdb.putMeta(tx, DICTIONARY_META + version, dictionary));
+        encodedCoder.addDictionary(version, dictionary);
+        encodedCoder.useDictionary(version);
+
+        final List<Key> keys = lmdb.readTx(tx -> {
+            try (Stream<Key> ks = encodedMap.keyStream(tx)) {
+                return ks.collect(Collectors.toList());
+            }
+        });
+        final Long t = Time.timed(() ->
+                Lists.partition(keys, RECOMPRESS_BATCH_SIZE).forEach(batch ->
+                        lmdb.writeTx0(tx -> batch.forEach(k ->
+                                encodedMap.get(tx, k).ifPresent(bytes -> encodedMap.store(tx, k, bytes))))));
+        log.info("Trained compression dictionary version {} ({} bytes) on {} objects, recompressed {} objects in {}ms",
+                version, dictionary.length, samples.size(), keys.size(), t);
+    }
+
+    /**
+     * Every object used to have the time it was last reachable or inserted, which doesn't tell
+     * which objects the latest cleanup found unreachable. Start without unreachable objects,
+     * the next cleanup marks the ones that really are unreachable.
+     */
+    private void migrateReachability(Lmdb lmdb) {
+        final IxMap<Long> reachableMap = lmdb.createIxMap(REACHABLE_MAP, ImmutableMap.of(), CoderFactory.longCoder());
+        if (lmdb.readTx(reachableMap::size) > 0) {
+            lmdb.writeTx0(tx -> {
+                final long count = reachableMap.size(tx);
+                reachableMap.clear(tx);
+                unreachableMap.clear(tx);
+                log.info("Dropped the last reachable time of {} objects, the next cleanup finds the unreachable ones", count);
+            });
+        }
+    }
+
+    /**
+     * Locations used to be stored as full URIs for every object, move them to the dictionary.
+     */
+    private void migrateLocations(Lmdb lmdb) {
+        final MultIxMap<String> locationMap = lmdb.createMultIxMap(LOCATION_MAP, CoderFactory.stringCoder());
+        if (lmdb.readTx(locationMap::size) > 0) {
+            lmdb.writeTx0(tx -> {
+                final List<Pair<Key, String>> existing = new ArrayList<>();
+                locationMap.forEach(tx, (k, v) -> existing.add(Pair.of(k, locationMap.toValue(v))));
+                existing.forEach(p -> addLocation(tx, p.getLeft(), p.getRight()));
+                locationMap.clear(tx);
+                log.info("Moved {} object locations to the location dictionary", existing.size());
+            });
+        }
+    }
+
     @Override
     public void put(Tx.Write tx, RpkiObject o) {
-        ixMap.put(tx, o.key(), o);
-        // mark every object as reachable at the moment of inserting, otherwise
-        // we will keep the objects that have never been reached forever
-        markReachable(tx, o.key(), o.getCreatedAt());
+        final Key key = o.key();
+        sha256Filter.put(key);
+        // objects read back from the store don't have the content,
+        // it is already stored in that case
+        if (o.getEncoded() != null) {
+            encodedMap.store(tx, key, o.getEncoded());
+        }
+        ixMap.store(tx, key, o);
+        // objects are reachable when they are inserted, the next cleanup
+        // marks them as unreachable if they are not referred to by anything
+        markReachable(tx, key);
     }
 
     @Override
@@ -121,35 +280,98 @@ public class LmdbRpkiObject extends GenericStoreImpl<RpkiObject> implements Rpki
         addLocation(tx, o.key(), location);
     }
 
+    @Override
+    public void putAll(Tx.Write tx, Collection<Pair<String, RpkiObject>> locatedObjects) {
+        final Map<Key, RpkiObject> objects = new HashMap<>();
+        final Map<Key, byte[]> encoded = new HashMap<>();
+        final Map<Key, Long> reachable = new HashMap<>();
+        locatedObjects.forEach(p -> {
+            final RpkiObject o = p.getRight();
+            final Key key = o.key();
+            objects.put(key, o);
+            if (o.getEncoded() != null) {
+                encoded.put(key, o.getEncoded());
+            }
+        });
+        objects.keySet().forEach(sha256Filter::put);
+        encodedMap.putAll(tx, encoded);
+        ixMap.putAll(tx, objects);
+        objects.keySet().forEach(key -> markReachable(tx, key));
+        locatedObjects.forEach(p -> addLocation(tx, p.getRight().key(), p.getLeft()));
+    }
+
     @Override
     public void delete(Tx.Write tx, RpkiObject o) {
         ixMap.delete(tx, o.key());
     }
 
     @Override
-    public void markReachable(Tx.Write tx, Key pk, Instant i) {
-        reachableMap.put(tx, pk, i.toEpochMilli());
+    public void markReachable(Tx.Write tx, Key pk) {
+        unreachableMap.delete(tx, pk);
+    }
+
+    @Override
+    public void markUnreachable(Tx.Write tx, Key pk, Instant since) {
+        // the object may have been deleted since the changes were calculated
+        if (ixMap.exists(tx, pk)) {
+            unreachableMap.put(tx, pk, since.toEpochMilli());
+        }
+    }
+
+    @Override
+    public Pair<Set<Key>, Set<Key>> findReachabilityChanges(Tx.Read tx, Set<Key> reachable) {
+        final Set<Key> unreachable;
+        try (Stream<Key> keys = unreachableMap.keyStream(tx)) {
+            unreachable = keys.collect(Collectors.toSet());
+        }
+        final Set<Key> becameUnreachable;
+        try (Stream<Key> keys = ixMap.keyStream(tx)) {
+            becameUnreachable = keys
+                    .filter(k -> !reachable.contains(k) && !unreachable.contains(k))
+                    .collect(Collectors.toSet());
+        }
+        final Set<Key> becameReachable = unreachable.stream()
+                .filter(reachable::contains)
+                .collect(Collectors.toSet());
+        return Pair.of(becameUnreachable, becameReachable);
     }
 
     @Override
     public void addLocation(Tx.Write tx, Key pk, String location) {
-        locationMap.put(tx, pk, location);
+        locationIdMap.put(tx, pk, locations.intern(tx, location));
     }
 
     @Override
     public SortedSet<String> getLocations(Tx.Read tx, Key pk) {
-        return new TreeSet<>(locationMap.get(tx, pk));
+        final List<Long> ids = locationIdMap.get(tx, pk);
+        if (ids.size() == 1) {
+            return locations.resolve(tx, ids.get(0))
+                    .map(ImmutableSortedSet::of)
+                    .orElse(ImmutableSortedSet.of());
+        }
+        final ImmutableSortedSet.Builder<String> result = ImmutableSortedSet.naturalOrder();
+        ids.forEach(id -> locations.resolve(tx, id).ifPresent(result::add));
+        return result.build();
     }
 
     @Override
     public void deleteLocation(Tx.Write tx, Key key, String uri) {
-        locationMap.delete(tx, key, uri);
+        locations.find(tx, uri).ifPresent(id -> locationIdMap.delete(tx, key, id));
     }
 
     @Override
     public <T extends CertificateRepositoryObject> Optional<T> findCertificateRepositoryObject(
             Tx.Read tx, Key sha256, Class<T> clazz, ValidationResult validationResult) {
-        return get(tx, sha256).flatMap(o -> o.get(clazz, validationResult));
+        return parsedObjects.get(sha256, clazz, validationResult.getCurrentLocation().getName(), () -> getEncoded(tx, sha256));
+    }
+
+    private Optional<byte[]> getEncoded(Tx.Read tx, Key sha256) {
+        final Optional<byte[]> encoded = encodedMap.get(tx, sha256);
+        if (encoded.isPresent()) {
+            return encoded;
+        }
+        // objects stored before the content was split off still have it inline
+        return getView(tx, sha256, RpkiObjectView::getEncoded);
     }
 
     @Override
@@ -157,40 +379,62 @@ public class LmdbRpkiObject extends GenericStoreImpl<RpkiObject> implements Rpki
         return ixMap.get(tx, key);
     }
 
+    @Override
+    public <R> Optional<R> getView(Tx.Read tx, Key key, Function<RpkiObjectView, R> f) {
+        return ixMap.getView(tx, key, bb -> f.apply(RpkiObjectView.of(bb)));
+    }
+
+    @Override
+    public boolean exists(Tx.Read tx, Key key) {
+        return sha256Filter.mightContain(key) && ixMap.exists(tx, key);
+    }
+
     @Override
     public Optional<RpkiObject> findBySha256(Tx.Read tx, byte[] sha256) {
-        return get(tx, Key.of(sha256));
+        final Key key = Key.of(sha256);
+        return sha256Filter.mightContain(key) ? get(tx, key) : Optional.empty();
+    }
+
+    @Override
+    public Map<Key, RpkiObject> findAllBySha256(Tx.Read tx, Collection<Key> sha256s) {
+        return ixMap.getAll(tx, sha256s.stream()
+                .filter(sha256Filter::mightContain)
+                .collect(Collectors.toList()));
     }
 
     @Override
     public Map<String, RpkiObject> findObjectsInManifest(Tx.Read tx, ManifestCms manifestCms) {
-        final SortedMap<byte[], String> hashes = new TreeMap<>(UnsignedBytes.lexicographicalComparator());
-        manifestCms.getFiles().forEach((name, hash) -> hashes.put(hash, name));
-        return hashes.keySet().stream()
-                .map(sha256 -> findBySha256(tx, sha256))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
+        final Map<Key, String> hashes = new HashMap<>();
+        manifestCms.getFiles().forEach((name, hash) -> hashes.put(Key.of(hash), name));
+        return findAllBySha256(tx, hashes.keySet()).entrySet().stream()
                 .collect(Collectors.toMap(
-                        x -> hashes.get(x.getSha256()),
-                        x -> x
+                        e -> hashes.get(e.getKey()),
+                        Map.Entry::getValue
                 ));
     }
 
     @Override
     public Optional<RpkiObject> findLatestMftByAKI(Tx.Read tx, byte[] authorityKeyIdentifier) {
-        return ixMap.getByIndex(BY_AKI_MFT_INDEX, tx, Key.of(authorityKeyIdentifier))
-                .values()
+        // only decode the serial and signing time of every candidate and
+        // read the complete object for the latest one
+        final Comparator<Triple<Key, BigInteger, Instant>> bySerialAndSigningTime = Comparator
+                .comparing((Triple<Key, BigInteger, Instant> t) -> t.getMiddle())
+                .thenComparing(Triple::getRight);
+        return ixMap.getPkByIndex(BY_AKI_MFT_INDEX, tx, Key.of(authorityKeyIdentifier))
                 .stream()
-                .max(Comparator
-                        .comparing(RpkiObject::getSerialNumber)
-                        .thenComparing(RpkiObject::getSigningTime));
+                .map(pk -> getView(tx, pk, v -> Triple.of(pk, v.getSerialNumber(), v.getSigningTime())))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .max(bySerialAndSigningTime)
+                .flatMap(t -> get(tx, t.getLeft()));
     }
 
     @Override
     public long deleteUnreachableObjects(Tx.Write tx, Instant unreachableSince) {
         final Set<Key> toDelete = new HashSet<>();
-        reachableMap.forEach(tx, (k, bb) -> {
-            if (reachableMap.toValue(bb) < unreachableSince.toEpochMilli()) {
+        final long unreachableSinceMillis = unreachableSince.toEpochMilli();
+        unreachableMap.forEachPayload(tx, (k, bb) -> {
+            if (bb.getLong(0) < unreachableSinceMillis) {
                 toDelete.add(k);
             }
         });
@@ -198,13 +442,18 @@ public class LmdbRpkiObject extends GenericStoreImpl<RpkiObject> implements Rpki
         return (long) toDelete.size();
     }
 
+    @Override
+    public long deleteUnreferencedLocations(Tx.Write tx) {
+        final Set<Long> referenced = locationIdMap.valueStream(tx).collect(Collectors.toSet());
+        return locations.retainAll(tx, referenced);
+    }
+
     @Override
     public Stream<byte[]> streamObjects(Tx.Read tx, RpkiObject.Type type) {
-        final List<byte[]> objectBytes = new ArrayList<>();
-        getPkByType(tx, type).forEach(pk ->
-                ixMap.get(tx, pk).ifPresent(ro ->
-                        objectBytes.add(ro.getEncoded())));
-        return objectBytes.stream();
+        return ixMap.streamPkByIndex(BY_TYPE_INDEX, tx, Key.of(type.toString()))
+                .map(pk -> getEncoded(tx, pk))
+                .filter(Optional::isPresent)
+                .map(Optional::get);
     }
 
     @Override
@@ -212,6 +461,15 @@ public class LmdbRpkiObject extends GenericStoreImpl<RpkiObject> implements Rpki
         return ixMap.getPkByIndex(BY_TYPE_INDEX, tx, Key.of(type.toString()));
     }
 
+    @Override
+    public void clear(Tx.Write tx) {
+        ixMap.clear(tx);
+        encodedMap.clear(tx);
+        unreachableMap.clear(tx);
+        locationIdMap.clear(tx);
+        locations.clear(tx);
+    }
+
     @Override
     protected IxMap<RpkiObject> ixMap() {
         return ixMap;
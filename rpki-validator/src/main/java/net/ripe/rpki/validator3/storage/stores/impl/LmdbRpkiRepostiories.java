@@ -30,6 +30,7 @@
 package net.ripe.rpki.validator3.storage.stores.impl;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Longs;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.api.Paging;
 import net.ripe.rpki.validator3.api.SearchTerm;
@@ -40,6 +41,7 @@ import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
+import net.ripe.rpki.validator3.storage.encoding.custom.RpkiRepositoryCoder;
 import net.ripe.rpki.validator3.storage.lmdb.IxMap;
 import net.ripe.rpki.validator3.storage.lmdb.Lmdb;
 import net.ripe.rpki.validator3.storage.lmdb.Tx;
@@ -47,16 +49,19 @@ import net.ripe.rpki.validator3.storage.stores.GenericStoreImpl;
 import net.ripe.rpki.validator3.storage.stores.RpkiRepositories;
 import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
 import net.ripe.rpki.validator3.util.Rsync;
+import org.apache.commons.lang3.tuple.Pair;
+import org.lmdbjava.KeyRange;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.validation.constraints.NotNull;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.List;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -74,6 +79,19 @@ public class LmdbRpkiRepostiories extends GenericStoreImpl<RpkiRepository> imple
     private static final String BY_URI_PREFIX = "by-uri";
     private static final String BY_TA = "by-ta";
 
+    /**
+     * Serialized sort fields, their byte order must be the same as the order of the values.
+     */
+    private static final Map<Sorting.By, Function<RpkiRepository, byte[]>> SORT_FIELDS = ImmutableMap.of(
+            Sorting.By.LOCATION, LmdbRpkiRepostiories::locationField,
+            Sorting.By.STATUS, r -> statusField(r.getStatus()),
+            Sorting.By.TYPE, r -> new byte[]{(byte) r.getType().ordinal()},
+            Sorting.By.LASTCHECKED, r -> Longs.toByteArray(r.getUpdatedAt() == null ? 0L : r.getUpdatedAt().toEpochMilli())
+    );
+
+    // LMDB doesn't allow keys longer than 511 bytes
+    private static final int MAX_LOCATION_FIELD_SIZE = 400;
+
     private final IxMap<RpkiRepository> ixMap;
     private final Sequences sequences;
     private final ValidationScheduler validationScheduler;
@@ -83,14 +101,43 @@ public class LmdbRpkiRepostiories extends GenericStoreImpl<RpkiRepository> imple
         this.sequences = sequences;
         this.validationScheduler = validationScheduler;
 
-        ixMap = lmdb.createIxMap(
-                RPKI_REPOSITORIES,
-                ImmutableMap.of(
-                        BY_URI_PREFIX, this::locationIndex,
-                        BY_TA, r -> r.getTrustAnchors().stream().map(Ref::key).collect(Collectors.toSet())
-                ),
-                RpkiRepository.class
-        );
+        final ImmutableMap.Builder<String, Function<RpkiRepository, Set<Key>>> indexes = ImmutableMap.builder();
+        indexes.put(BY_URI_PREFIX, this::locationIndex);
+        indexes.put(BY_TA, r -> r.getTrustAnchors().stream().map(Ref::key).collect(Collectors.toSet()));
+        // sort indexes contain the sort field, with the trust anchor in front of it for the
+        // per-trust anchor ones; the primary keys of equal fields are ordered by LMDB itself.
+        SORT_FIELDS.forEach((by, field) -> {
+            indexes.put(sortIndexName(by, false), r -> Key.keys(Key.of(field.apply(r))));
+            indexes.put(sortIndexName(by, true), r -> r.getTrustAnchors().stream()
+                    .map(ta -> taSortKey(ta.key(), field.apply(r)))
+                    .collect(Collectors.toSet()));
+        });
+
+        ixMap = lmdb.createIxMap(RPKI_REPOSITORIES, indexes.build(), RpkiRepository.class);
+    }
+
+    private static String sortIndexName(Sorting.By by, boolean perTrustAnchor) {
+        return (perTrustAnchor ? "by-ta-" : "by-") + by.name().toLowerCase();
+    }
+
+    private static Key taSortKey(Key taId, byte[] field) {
+        final byte[] ta = taId.getBytes();
+        final byte[] bytes = Arrays.copyOf(ta, ta.length + field.length);
+        System.arraycopy(field, 0, bytes, ta.length, field.length);
+        return Key.of(bytes);
+    }
+
+    private static byte[] statusField(RpkiRepository.Status status) {
+        return new byte[]{(byte) status.ordinal()};
+    }
+
+    private static byte[] locationField(RpkiRepository r) {
+        final String location = r.getLocationUri();
+        if (location == null) {
+            return new byte[0];
+        }
+        final byte[] bytes = location.getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= MAX_LOCATION_FIELD_SIZE ? bytes : Arrays.copyOf(bytes, MAX_LOCATION_FIELD_SIZE);
     }
 
     private Key uriToKey(String uri) {
@@ -132,7 +179,7 @@ public class LmdbRpkiRepostiories extends GenericStoreImpl<RpkiRepository> imple
                 }
             });
         }
-        ixMap.put(tx, registered.key(), registered);
+        ixMap.store(tx, registered.key(), registered);
         return registered;
     }
 
@@ -147,7 +194,7 @@ public class LmdbRpkiRepostiories extends GenericStoreImpl<RpkiRepository> imple
     @Override
     public void update(Tx.Write tx, RpkiRepository rpkiRepository) {
         rpkiRepository.setUpdatedAt(Instant.now());
-        ixMap.put(tx, rpkiRepository.key(), rpkiRepository);
+        ixMap.store(tx, rpkiRepository.key(), rpkiRepository);
     }
 
     @Override
@@ -167,35 +214,61 @@ public class LmdbRpkiRepostiories extends GenericStoreImpl<RpkiRepository> imple
     public Stream<RpkiRepository> findAll(Tx.Read tx, RpkiRepository.Status optionalStatus, Key taId,
                                           boolean hideChildrenOfDownloadedParent,
                                           SearchTerm searchTerm, Sorting sorting, Paging paging) {
-        return applyPaged(
-                applySorting(
-                        applyFiltered(tx, optionalStatus, taId, hideChildrenOfDownloadedParent, searchTerm),
-                        sorting),
-                paging);
+        final Stream<Key> sortedPks = sortedPks(tx, taId, sorting);
+        final Predicate<RpkiRepository> filter = filter(tx, optionalStatus, hideChildrenOfDownloadedParent, searchTerm);
+        if (filter == null) {
+            // nothing to filter, so skipping to the page doesn't need to decode anything
+            return applyPaged(sortedPks, paging).map(pk -> ixMap.get(tx, pk))
+                    .filter(Optional::isPresent)
+                    .map(Optional::get);
+        }
+        return applyPaged(sortedPks.map(pk -> ixMap.get(tx, pk))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .filter(filter), paging);
     }
 
-    // TODO Optimize it with forEach
-    private Stream<RpkiRepository> applyFiltered(Tx.Read tx,
-                                                 RpkiRepository.Status optionalStatus,
-                                                 Key taId, boolean hideChildrenOfDownloadedParent,
-                                                 SearchTerm searchTerm) {
-        Stream<RpkiRepository> stream = taId != null ?
-                ixMap.getByIndex(BY_TA, tx, taId).values().stream() :
-                ixMap.values(tx).stream();
+    /**
+     * Walk the sort index of the given field, restricted to the trust anchor if there is one.
+     * Note that ASC sorts from the largest to the smallest value and DESC the other way
+     * around, the UI relies on that.
+     */
+    private Stream<Key> sortedPks(Tx.Read tx, Key taId, Sorting sorting) {
+        if (sorting == null) {
+            sorting = Sorting.of(Sorting.By.LOCATION, Sorting.Direction.ASC);
+        }
+        final Sorting.By by = SORT_FIELDS.containsKey(sorting.getBy()) ? sorting.getBy() : Sorting.By.LOCATION;
+        final boolean backward = sorting.getDirection() != Sorting.Direction.DESC;
+        final KeyRange<ByteBuffer> keyRange;
+        if (taId == null) {
+            keyRange = backward ? KeyRange.allBackward() : KeyRange.all();
+        } else {
+            final ByteBuffer from = taId.toByteBuffer();
+            final ByteBuffer to = Key.of(taId.asLong() + 1).toByteBuffer();
+            keyRange = backward ? KeyRange.openClosedBackward(to, from) : KeyRange.closedOpen(from, to);
+        }
+        return ixMap.streamPkByIndexRange(sortIndexName(by, taId != null), tx, keyRange);
+    }
+
+    private Predicate<RpkiRepository> filter(Tx.Read tx,
+                                             RpkiRepository.Status optionalStatus,
+                                             boolean hideChildrenOfDownloadedParent,
+                                             SearchTerm searchTerm) {
+        Predicate<RpkiRepository> filter = null;
 
         if (optionalStatus != null) {
-            stream = stream.filter(r -> r.getStatus() == optionalStatus);
+            filter = and(filter, r -> r.getStatus() == optionalStatus);
         }
 
         if (searchTerm != null) {
             final String stringTerm = searchTerm.asString().toLowerCase();
-            stream = stream.filter(r ->
+            filter = and(filter, r ->
                     r.getLocationUri() != null && r.getLocationUri().toLowerCase().contains(stringTerm) ||
                     r.getStatus() != null && r.getStatus().toString().toLowerCase().contains(stringTerm));
         }
 
         if (hideChildrenOfDownloadedParent) {
-            stream = stream.filter(r -> {
+            filter = and(filter, r -> {
                 final Ref<RpkiRepository> parentRef = r.getParentRepository();
                 if (parentRef == null) {
                     return true;
@@ -206,36 +279,14 @@ public class LmdbRpkiRepostiories extends GenericStoreImpl<RpkiRepository> imple
                                 parent.get().getLastDownloadedAt() == null;
             });
         }
-        return stream;
+        return filter;
     }
 
-    private Stream<RpkiRepository> applySorting(Stream<RpkiRepository> stream, Sorting sorting) {
-        if (sorting == null) {
-            sorting = Sorting.of(Sorting.By.LOCATION, Sorting.Direction.ASC);
-        }
-        Comparator<RpkiRepository> comparator;
-        switch (sorting.getBy()) {
-            case TYPE:
-                comparator = Comparator.comparing(RpkiRepository::getType);
-                break;
-            case STATUS:
-                comparator = Comparator.comparing(RpkiRepository::getStatus);
-                break;
-            case LASTCHECKED:
-                comparator = Comparator.comparing(RpkiRepository::getUpdatedAt);
-                break;
-            case LOCATION:
-            default:
-                comparator = Comparator.comparing(RpkiRepository::getLocationUri);
-                break;
-        }
-        return stream.sorted(
-                sorting.getDirection() == Sorting.Direction.DESC ?
-                        comparator :
-                        comparator.reversed());
+    private static <T> Predicate<T> and(Predicate<T> p1, Predicate<T> p2) {
+        return p1 == null ? p2 : p1.and(p2);
     }
 
-    private Stream<RpkiRepository> applyPaged(Stream<RpkiRepository> stream, Paging paging) {
+    private <T> Stream<T> applyPaged(Stream<T> stream, Paging paging) {
         if (paging != null) {
             return paging.apply(stream);
         }
@@ -245,7 +296,17 @@ public class LmdbRpkiRepostiories extends GenericStoreImpl<RpkiRepository> imple
     @Override
     public long countAll(Tx.Read tx, RpkiRepository.Status optionalStatus, Key taId,
                          boolean hideChildrenOfDownloadedParent, SearchTerm searchTerm) {
-        return applyFiltered(tx, optionalStatus, taId, hideChildrenOfDownloadedParent, searchTerm).count();
+        if (!hideChildrenOfDownloadedParent && searchTerm == null) {
+            if (taId == null) {
+                return optionalStatus == null ?
+                        ixMap.size(tx) :
+                        ixMap.countByIndex(sortIndexName(Sorting.By.STATUS, false), tx, Key.of(statusField(optionalStatus)));
+            }
+            return optionalStatus == null ?
+                    ixMap.countByIndex(BY_TA, tx, taId) :
+                    ixMap.countByIndex(sortIndexName(Sorting.By.STATUS, true), tx, taSortKey(taId, statusField(optionalStatus)));
+        }
+        return findAll(tx, optionalStatus, taId, hideChildrenOfDownloadedParent, searchTerm, null, null).count();
     }
 
     @Override
@@ -256,36 +317,41 @@ public class LmdbRpkiRepostiories extends GenericStoreImpl<RpkiRepository> imple
 
     @Override
     public Stream<RpkiRepository> findAll(Tx.Read tx, Key taId) {
-        return ixMap.getByIndex(BY_TA, tx, taId).values().stream();
+        return ixMap.streamByIndex(BY_TA, tx, taId).map(Pair::getValue);
     }
 
     @Override
     public Map<RpkiRepository.Status, Long> countByStatus(Tx.Read tx, Key taId, boolean hideChildrenOfDownloadedParent) {
-        return findAll(tx, null, taId, hideChildrenOfDownloadedParent, null, null, null)
-                .collect(Collectors.groupingBy(RpkiRepository::getStatus, Collectors.counting()));
+        if (hideChildrenOfDownloadedParent) {
+            return findAll(tx, null, taId, true, null, null, null)
+                    .collect(Collectors.groupingBy(RpkiRepository::getStatus, Collectors.counting()));
+        }
+        final Map<RpkiRepository.Status, Long> counts = new EnumMap<>(RpkiRepository.Status.class);
+        for (RpkiRepository.Status status : RpkiRepository.Status.values()) {
+            final long count = countAll(tx, status, taId, false, null);
+            if (count > 0) {
+                counts.put(status, count);
+            }
+        }
+        return counts;
     }
 
     @Override
     public Stream<RpkiRepository> findRsyncRepositories(Tx.Read tx) {
-        return findRepositoriesByPredicate(tx, r ->
-                r.getType() == RpkiRepository.Type.RSYNC ||
-                r.getType() == RpkiRepository.Type.RSYNC_PREFETCH);
+        return findRepositoriesByType(tx, type ->
+                type == RpkiRepository.Type.RSYNC ||
+                type == RpkiRepository.Type.RSYNC_PREFETCH);
     }
 
     @Override
     public Stream<RpkiRepository> findRrdpRepositories(Tx.Read tx) {
-        return findRepositoriesByPredicate(tx, r -> r.getType() == RpkiRepository.Type.RRDP);
+        return findRepositoriesByType(tx, type -> type == RpkiRepository.Type.RRDP);
     }
 
-    private Stream<RpkiRepository> findRepositoriesByPredicate(Tx.Read tx, Predicate<RpkiRepository> p) {
-        final List<RpkiRepository> result = new ArrayList<>();
-        ixMap.forEach(tx, (k, bb) -> {
-            final RpkiRepository r = ixMap.toValue(bb);
-            if (p.test(r)) {
-                result.add(r);
-            }
-        });
-        return result.stream();
+    private Stream<RpkiRepository> findRepositoriesByType(Tx.Read tx, Predicate<RpkiRepository.Type> p) {
+        return ixMap.payloadStream(tx)
+                .filter(bb -> p.test(RpkiRepositoryCoder.getType(bb)))
+                .map(ixMap::fromPayload);
     }
 
     @Override
@@ -300,7 +366,7 @@ public class LmdbRpkiRepostiories extends GenericStoreImpl<RpkiRepository> imple
                         }
                         ixMap.delete(tx, pk);
                     } else {
-                        ixMap.put(tx, pk, rpkiRepository);
+                        ixMap.store(tx, pk, rpkiRepository);
                     }
                 });
     }
@@ -34,7 +34,6 @@ import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.api.Paging;
 import net.ripe.rpki.validator3.api.SearchTerm;
 import net.ripe.rpki.validator3.api.Sorting;
-import net.ripe.rpki.validator3.storage.Bytes;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.data.RpkiRepository;
@@ -268,7 +267,7 @@ public class LmdbValidationRuns implements ValidationRuns {
         final Set<Key> repoKeys = rpkiRepositories.keys(tx);
         final List<Pair<Key, Key>> toDelete = new ArrayList<>();
         vr2ro.forEach(tx, (vrKey, bb) -> {
-            final Key roKey = Key.of(Bytes.toBytes(bb));
+            final Key roKey = vr2ro.toValue(bb);
             if (!roKeys.contains(roKey)) {
                 toDelete.add(Pair.of(vrKey, roKey));
             }
@@ -278,7 +277,7 @@ public class LmdbValidationRuns implements ValidationRuns {
 
         final Set<Key> reposToDelete = new HashSet<>();
         vr2repo.forEach(tx, (vrKey, bb) -> {
-            final Key repoKey = Key.of(Bytes.toBytes(bb));
+            final Key repoKey = vr2repo.toValue(bb);
             if (!repoKeys.contains(repoKey)) {
                 reposToDelete.add(vrKey);
             }
@@ -376,6 +375,11 @@ public class LmdbValidationRuns implements ValidationRuns {
         vr2ro.put(tx, validationRun.key(), rpkiObjectKey);
     }
 
+    @Override
+    public void associateRpkiObjectKey(Tx.Write tx, RpkiRepositoryValidationRun validationRun, Key rpkiObjectKey) {
+        vr2ro.put(tx, validationRun.key(), rpkiObjectKey);
+    }
+
     @Override
     public void associate(Tx.Write tx, RsyncRepositoryValidationRun validationRun, RpkiRepository rpkiRepository) {
         vr2repo.put(tx, validationRun.key(), rpkiRepository.key());
@@ -386,6 +390,11 @@ public class LmdbValidationRuns implements ValidationRuns {
         return new HashSet<>(vr2ro.get(tx, validationRun.key()));
     }
 
+    @Override
+    public Stream<Key> streamAssociatedPks(Tx.Read tx, CertificateTreeValidationRun validationRun) {
+        return vr2ro.stream(tx, validationRun.key());
+    }
+
     @Override
     public Stream<Pair<CertificateTreeValidationRun, RpkiObject>> findCurrentlyValidated(Tx.Read tx, RpkiObject.Type type) {
         final Set<Key> byType = rpkiObjects.getPkByType(tx, type);
@@ -0,0 +1,206 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.stores.impl;
+
+import com.google.common.collect.ImmutableMap;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import net.ripe.rpki.validator3.storage.lmdb.IxMap;
+import net.ripe.rpki.validator3.storage.lmdb.Lmdb;
+import net.ripe.rpki.validator3.storage.lmdb.Tx;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Interns object locations, so that objects only refer to a compact id instead of the full URI.
+ *
+ * The directory part of a location (usually the base URI of the repository) is shared by many
+ * locations, so it is interned separately and only the file name is stored with every location.
+ * Locations that are not referenced anymore are removed with {@link #retainAll(Tx.Write, Set)},
+ * their ids may be given out again afterwards. Prefixes are never removed, there is only one
+ * per repository directory.
+ */
+class LocationDictionary {
+
+    private static final String BY_VALUE = "by-value";
+
+    // LMDB doesn't allow keys longer than 511 bytes
+    private static final int MAX_INDEX_KEY_SIZE = 400;
+
+    private final IxMap<String> prefixes;
+    private final IxMap<byte[]> locations;
+
+    // only committed prefixes end up here, the ids of rolled back ones would be reused
+    private final Map<Long, String> prefixById = new ConcurrentHashMap<>();
+    private final Map<String, Long> prefixIds = new ConcurrentHashMap<>();
+
+    LocationDictionary(Lmdb lmdb, String name) {
+        this.prefixes = lmdb.createIxMap(name + "-prefixes",
+                ImmutableMap.of(BY_VALUE, p -> Key.keys(indexKey(p.getBytes(UTF_8)))),
+                CoderFactory.stringCoder());
+        this.locations = lmdb.createIxMap(name,
+                ImmutableMap.of(BY_VALUE, l -> Key.keys(indexKey(l))),
+                CoderFactory.bytesCoder());
+    }
+
+    long intern(Tx.Write tx, String location) {
+        final long prefixId = internPrefix(tx, prefix(location));
+        final byte[] value = locationValue(prefixId, name(location));
+        final Optional<Long> existing = find(tx, value);
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+        // ids are big endian, so the last key is the greatest id
+        final long id = locations.lastKey(tx).map(k -> k.asLong() + 1).orElse(1L);
+        locations.store(tx, Key.of(id), value);
+        return id;
+    }
+
+    Optional<Long> find(Tx.Read tx, String location) {
+        return findPrefix(tx, prefix(location))
+                .flatMap(prefixId -> find(tx, locationValue(prefixId, name(location))));
+    }
+
+    Optional<String> resolve(Tx.Read tx, long id) {
+        return locations.getView(tx, Key.of(id), bb -> {
+            final long prefixId = bb.getLong(bb.position());
+            final ByteBuffer name = bb.duplicate();
+            name.position(bb.position() + Long.BYTES);
+            return resolvePrefix(tx, prefixId) + UTF_8.decode(name);
+        });
+    }
+
+    /**
+     * Remove every location whose id is not in <code>ids</code>, returns how many were removed.
+     */
+    long retainAll(Tx.Write tx, Set<Long> ids) {
+        final List<Key> unreferenced = locations.keyStream(tx)
+                .filter(k -> !ids.contains(k.asLong()))
+                .collect(Collectors.toList());
+        unreferenced.forEach(k -> locations.delete(tx, k));
+        return unreferenced.size();
+    }
+
+    void clear(Tx.Write tx) {
+        locations.clear(tx);
+        prefixes.clear(tx);
+        prefixById.clear();
+        prefixIds.clear();
+        tx.afterCommit(() -> {
+            prefixById.clear();
+            prefixIds.clear();
+        });
+    }
+
+    private Optional<Long> find(Tx.Read tx, byte[] value) {
+        return locations.getByIndex(BY_VALUE, tx, indexKey(value)).entrySet().stream()
+                .filter(e -> Arrays.equals(value, e.getValue()))
+                .map(e -> e.getKey().asLong())
+                .findFirst();
+    }
+
+    private long internPrefix(Tx.Write tx, String prefix) {
+        final Optional<Long> existing = findPrefix(tx, prefix);
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+        // prefixes are never deleted, so the next id is simply the size
+        final long id = prefixes.size(tx) + 1;
+        prefixes.store(tx, Key.of(id), prefix);
+        tx.afterCommit(() -> cachePrefix(id, prefix));
+        return id;
+    }
+
+    private Optional<Long> findPrefix(Tx.Read tx, String prefix) {
+        final Long cached = prefixIds.get(prefix);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        final Optional<Long> id = prefixes.getByIndex(BY_VALUE, tx, indexKey(prefix.getBytes(UTF_8))).entrySet().stream()
+                .filter(e -> prefix.equals(e.getValue()))
+                .map(e -> e.getKey().asLong())
+                .findFirst();
+        if (!(tx instanceof Tx.Write)) {
+            id.ifPresent(i -> cachePrefix(i, prefix));
+        }
+        return id;
+    }
+
+    private String resolvePrefix(Tx.Read tx, long prefixId) {
+        final String cached = prefixById.get(prefixId);
+        if (cached != null) {
+            return cached;
+        }
+        final String prefix = prefixes.get(tx, Key.of(prefixId))
+                .orElseThrow(() -> new IllegalStateException("Location prefix " + prefixId + " doesn't exist"));
+        if (!(tx instanceof Tx.Write)) {
+            cachePrefix(prefixId, prefix);
+        }
+        return prefix;
+    }
+
+    private void cachePrefix(long id, String prefix) {
+        prefixById.put(id, prefix);
+        prefixIds.put(prefix, id);
+    }
+
+    private static String prefix(String location) {
+        return location.substring(0, location.lastIndexOf('/') + 1);
+    }
+
+    private static String name(String location) {
+        return location.substring(location.lastIndexOf('/') + 1);
+    }
+
+    private static byte[] locationValue(long prefixId, String name) {
+        final byte[] nameBytes = name.getBytes(UTF_8);
+        return ByteBuffer.allocate(Long.BYTES + nameBytes.length)
+                .putLong(prefixId)
+                .put(nameBytes)
+                .array();
+    }
+
+    private static Key indexKey(byte[] bytes) {
+        if (bytes.length == 0) {
+            // LMDB doesn't allow empty keys
+            return Key.of(new byte[]{0});
+        }
+        return Key.of(bytes.length <= MAX_INDEX_KEY_SIZE ? bytes : Arrays.copyOf(bytes, MAX_INDEX_KEY_SIZE));
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.stores.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.UnknownCertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.util.CertificateRepositoryObjectFactory;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Parsed RPKI objects by the sha256 of their content. The content of an object never changes
+ * for the same hash, so entries are only invalidated when the object is deleted from the store.
+ * Otherwise the cache is bounded by the total size of the content of the objects in it and by
+ * the time since they were last used.
+ */
+@Component
+@Slf4j
+public class ParsedObjectCache implements MeterBinder {
+
+    private final Cache<Key, CertificateRepositoryObject> cache;
+
+    @Autowired
+    public ParsedObjectCache(@Value("${rpki.validator.rpki.object.cache.size.mb:256}") long sizeMb,
+                             @Value("${rpki.validator.rpki.object.cache.expiry:PT30M}") String expiry) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(sizeMb * 1024L * 1024L)
+                .weigher((Key k, CertificateRepositoryObject o) -> o.getEncoded().length)
+                .expireAfterAccess(Duration.parse(expiry).toMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        log.info("Caching up to {}MB of parsed RPKI objects", sizeMb);
+    }
+
+    /**
+     * Parse <code>encoded</code> only if the object is not in the cache. The type of the object
+     * is derived from the extension of <code>location</code>, objects that couldn't be parsed
+     * as a known type are not cached. Parse errors are ignored, as all stored objects must be parsable.
+     */
+    public <T extends CertificateRepositoryObject> Optional<T> get(Key sha256, Class<T> clazz, String location,
+                                                                   Supplier<Optional<byte[]>> encoded) {
+        CertificateRepositoryObject object = cache.getIfPresent(sha256);
+        if (object == null) {
+            final Optional<byte[]> bytes = encoded.get();
+            if (!bytes.isPresent()) {
+                return Optional.empty();
+            }
+            object = CertificateRepositoryObjectFactory.createCertificateRepositoryObject(
+                    bytes.get(), ValidationResult.withLocation(location));
+            if (object == null) {
+                return Optional.empty();
+            }
+            if (!(object instanceof UnknownCertificateRepositoryObject)) {
+                cache.put(sha256, object);
+            }
+        }
+        return clazz.isInstance(object) ? Optional.of(clazz.cast(object)) : Optional.empty();
+    }
+
+    public void invalidate(Key sha256) {
+        cache.invalidate(sha256);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("rpki.objects.parsed.cache.hits", cache, c -> c.stats().hitCount())
+                .description("Parsed RPKI objects found in the cache")
+                .register(registry);
+        FunctionCounter.builder("rpki.objects.parsed.cache.misses", cache, c -> c.stats().missCount())
+                .description("RPKI objects that had to be parsed")
+                .register(registry);
+        FunctionCounter.builder("rpki.objects.parsed.cache.evictions", cache, c -> c.stats().evictionCount())
+                .description("Parsed RPKI objects evicted because of size or age")
+                .register(registry);
+        Gauge.builder("rpki.objects.parsed.cache.size", cache, Cache::size)
+                .description("Parsed RPKI objects in the cache")
+                .register(registry);
+        Gauge.builder("rpki.objects.parsed.cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .description("Part of the lookups served from the cache since the start")
+                .register(registry);
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.stores.impl;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter over the sha256 hashes of the stored objects, so that looking up an
+ * object that is definitely not stored doesn't have to touch the database.
+ *
+ * The hashes are already uniformly distributed, so the bit positions are derived from
+ * the key itself instead of hashing it again. Bits are never cleared: objects that are
+ * deleted, or put in a transaction that is rolled back, only add false positives, which
+ * fall through to the database. Keys shorter than 16 bytes are never filtered out.
+ *
+ * When a filter is full another one twice its size is added, a key is let through if
+ * any of them might contain it.
+ */
+class Sha256Filter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+    private static final int MIN_KEY_SIZE = 2 * Long.BYTES;
+    private static final long MIN_CAPACITY = 1024;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    Sha256Filter(long capacity) {
+        segments.add(new Segment(Math.max(capacity, MIN_CAPACITY)));
+    }
+
+    void put(Key key) {
+        final byte[] bytes = key.getBytes();
+        if (bytes.length < MIN_KEY_SIZE || mightContain(bytes)) {
+            return;
+        }
+        current().put(bytes);
+    }
+
+    boolean mightContain(Key key) {
+        final byte[] bytes = key.getBytes();
+        return bytes.length < MIN_KEY_SIZE || mightContain(bytes);
+    }
+
+    private boolean mightContain(byte[] bytes) {
+        for (Segment segment : segments) {
+            if (segment.mightContain(bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Segment current() {
+        final Segment last = segments.get(segments.size() - 1);
+        if (!last.isFull()) {
+            return last;
+        }
+        synchronized (segments) {
+            final Segment latest = segments.get(segments.size() - 1);
+            if (latest != last) {
+                return latest;
+            }
+            final Segment next = new Segment(2 * last.capacity);
+            segments.add(next);
+            return next;
+        }
+    }
+
+    long getCapacity() {
+        return segments.stream().mapToLong(s -> s.capacity).sum();
+    }
+
+    private static class Segment {
+        private final long capacity;
+        private final long bitCount;
+        private final AtomicLongArray words;
+        private final LongAdder count = new LongAdder();
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+            this.words = new AtomicLongArray((int) Math.min((capacity * BITS_PER_KEY + 63) / 64, Integer.MAX_VALUE));
+            this.bitCount = (long) words.length() * Long.SIZE;
+        }
+
+        void put(byte[] bytes) {
+            final ByteBuffer bb = ByteBuffer.wrap(bytes);
+            final long h1 = bb.getLong(0);
+            final long h2 = bb.getLong(Long.BYTES);
+            for (int i = 0; i < HASHES; i++) {
+                final long bit = Math.floorMod(h1 + i * h2, bitCount);
+                words.accumulateAndGet((int) (bit >>> 6), 1L << bit, (w, m) -> w | m);
+            }
+            count.increment();
+        }
+
+        boolean mightContain(byte[] bytes) {
+            final ByteBuffer bb = ByteBuffer.wrap(bytes);
+            final long h1 = bb.getLong(0);
+            final long h2 = bb.getLong(Long.BYTES);
+            for (int i = 0; i < HASHES; i++) {
+                final long bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isFull() {
+            return count.sum() >= capacity;
+        }
+    }
+}
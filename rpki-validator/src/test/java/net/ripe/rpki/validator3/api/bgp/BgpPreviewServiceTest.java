@@ -30,6 +30,7 @@
 package net.ripe.rpki.validator3.api.bgp;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import net.ripe.ipresource.Asn;
 import net.ripe.ipresource.IpRange;
@@ -73,7 +74,7 @@ public class BgpPreviewServiceTest {
     public void should_mark_non_matching_bgp_entry_as_unknown() {
         DateTime lastModified = DateTime.now();
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", lastModified, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(AS_3333, "127.0.0.0/8", 8)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "127.0.0.0/8", 8)), ImmutableSet.of()));
 
         BgpPreviewService.BgpPreviewResult bgpPreviewResult = subject.find(null, null, null);
         assertThat(bgpPreviewResult.getLastModified()).isEqualByComparingTo(lastModified.getMillis());
@@ -85,7 +86,7 @@ public class BgpPreviewServiceTest {
     @Test
     public void should_validate_matching_bgp_entry() {
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(AS_3333, "0.0.0.0/4", 8)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "0.0.0.0/4", 8)), ImmutableSet.of()));
 
         assertThat(subject.find(null, null, null).getData()).contains(
             BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.VALID)
@@ -95,7 +96,7 @@ public class BgpPreviewServiceTest {
     @Test
     public void should_reject_too_specific_bgp_entry() {
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(AS_3333, "0.0.0.0/4", null)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "0.0.0.0/4", null)), ImmutableSet.of()));
 
         assertThat(subject.find(null, null, null).getData()).contains(
             BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.INVALID_LENGTH)
@@ -105,7 +106,7 @@ public class BgpPreviewServiceTest {
     @Test
     public void should_reject_bgp_entry_for_different_asn() {
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(Asn.parse("AS3"), "10.0.0.0/8", null)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(Asn.parse("AS3"), "10.0.0.0/8", null)), ImmutableSet.of()));
 
         assertThat(subject.find(null, null, null).getData()).contains(
             BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.INVALID_ASN)
@@ -116,7 +117,7 @@ public class BgpPreviewServiceTest {
     public void should_reject_bgp_entry_when_roa_exists_but_ignored_by_asn_based_filter() {
         subject = createBgpPreviewService(ImmutableList.of(ignoreFilter(AS_3333.longValue(), null)));
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(AS_3333, "10.0.0.0/8", 8)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "10.0.0.0/8", 8)), ImmutableSet.of()));
 
         assertThat(subject.find(null, null, null).getData()).contains(
                 BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.UNKNOWN)
@@ -127,7 +128,7 @@ public class BgpPreviewServiceTest {
     public void should_reject_bgp_entry_when_roa_exists_but_ignored_by_prefix_based_filter() {
         subject = createBgpPreviewService(ImmutableList.of(ignoreFilter(null, "10.0.0.0/8")));
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(AS_3333, "10.0.0.0/8", 8)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "10.0.0.0/8", 8)), ImmutableSet.of()));
 
         assertThat(subject.find(null, null, null).getData()).contains(
                 BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.UNKNOWN)
@@ -138,7 +139,7 @@ public class BgpPreviewServiceTest {
     public void should_reject_bgp_entry_when_roa_exists_but_ignored_by_filter_with_covering_prefix() {
         subject = createBgpPreviewService(ImmutableList.of(ignoreFilter(null, "0.0.0.0/4")));
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(AS_3333, "10.0.0.0/8", 8)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "10.0.0.0/8", 8)), ImmutableSet.of()));
 
         assertThat(subject.find(null, null, null).getData()).contains(
                 BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.UNKNOWN)
@@ -149,7 +150,7 @@ public class BgpPreviewServiceTest {
     public void should_reject_bgp_entry_when_roa_exists_but_ignored_by_ans_and_prefix_based_filter() {
         subject = createBgpPreviewService(ImmutableList.of(ignoreFilter(AS_3333.longValue(), "10.0.0.0/8")));
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(AS_3333, "10.0.0.0/8", 8)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "10.0.0.0/8", 8)), ImmutableSet.of()));
 
         assertThat(subject.find(null, null, null).getData()).contains(
                 BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.UNKNOWN)
@@ -160,7 +161,7 @@ public class BgpPreviewServiceTest {
     public void should_accept_bgp_entry_when_ignore_filter_is_not_exactly_matching_because_asn_differs() {
         subject = createBgpPreviewService(ImmutableList.of(ignoreFilter(AS_2222.longValue(), "10.0.0.0/8")));
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(AS_3333, "10.0.0.0/8", 8)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "10.0.0.0/8", 8)), ImmutableSet.of()));
 
         assertThat(subject.find(null, null, null).getData()).contains(
                 BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.VALID)
@@ -171,13 +172,35 @@ public class BgpPreviewServiceTest {
     public void should_accept_bgp_entry_when_ignore_filter_is_not_exactly_matching_because_prefix_is_too_small() {
         subject = createBgpPreviewService(ImmutableList.of(ignoreFilter(AS_3333.longValue(), "10.10.0.0/16")));
         subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000))))));
-        subject.updateValidatedRoaPrefixes(ImmutableList.of(roa(AS_3333, "10.0.0.0/8", 8)).stream());
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "10.0.0.0/8", 8)), ImmutableSet.of()));
 
         assertThat(subject.find(null, null, null).getData()).contains(
                 BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.VALID)
         );
     }
 
+    @Test
+    public void should_revalidate_bgp_entries_covered_by_delta() {
+        subject.updateBgpRisDump(ImmutableList.of(BgpRisDump.of("", null, Optional.of(ImmutableList.of(
+                BgpRisEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), 1000),
+                BgpRisEntry.of(AS_3333, IpRange.parse("192.168.0.0/16"), 1000))))));
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(roa(AS_3333, "192.168.0.0/16", 16)), ImmutableSet.of()));
+
+        final ValidatedRpkiObjects.RoaPrefix added = roa(AS_3333, "10.0.0.0/8", 8);
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(added), ImmutableSet.of()));
+        assertThat(subject.find(null, null, null).getData()).contains(
+                BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.VALID),
+                BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("192.168.0.0/16"), BgpPreviewService.Validity.VALID)
+        );
+
+        subject.updateValidatedRoaPrefixes(ValidatedRpkiObjects.RoaPrefixesDelta.of(ImmutableSet.of(), ImmutableSet.of(added)));
+        assertThat(subject.find(null, null, null).getData()).contains(
+                BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("10.0.0.0/8"), BgpPreviewService.Validity.UNKNOWN),
+                BgpPreviewService.BgpPreviewEntry.of(AS_3333, IpRange.parse("192.168.0.0/16"), BgpPreviewService.Validity.VALID)
+        );
+        assertThat(subject.validity(AS_3333, IpRange.parse("10.0.0.0/8")).getValidity()).isEqualTo("UNKNOWN");
+    }
+
     private ValidatedRpkiObjects.RoaPrefix roa(Asn asn, String prefix, Integer maximumLength) {
         return ValidatedRpkiObjects.RoaPrefix.of(null, asn, IpRange.parse(prefix), maximumLength, maximumLength != null ? maximumLength : IpRange.parse(prefix).getPrefixLength(), ImmutableSortedSet.of());
     }
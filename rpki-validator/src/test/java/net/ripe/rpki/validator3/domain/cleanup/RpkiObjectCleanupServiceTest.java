@@ -93,7 +93,7 @@ public class RpkiObjectCleanupServiceTest extends GenericStorageTest {
         // Orphan is still new, so nothing to delete
         assertThat(subject.cleanupRpkiObjects()).isEqualTo(0);
 
-        wtx0(tx -> rpkiObjects.markReachable(tx, orphan.key(), Instant.now().minus(Duration.ofDays(10))));
+        wtx0(tx -> rpkiObjects.markUnreachable(tx, orphan.key(), Instant.now().minus(Duration.ofDays(10))));
 
         // Orphan is now old, so should be deleted
         assertThat(subject.cleanupRpkiObjects()).isEqualTo(1);
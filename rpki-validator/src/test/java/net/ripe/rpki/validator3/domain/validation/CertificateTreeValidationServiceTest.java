@@ -48,10 +48,14 @@ import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
 import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
+import net.ripe.rpki.validator3.storage.data.validation.ValidationPhase;
+import net.ripe.rpki.validator3.storage.lmdb.Tx;
 import net.ripe.rpki.validator3.storage.stores.impl.GenericStorageTest;
 import org.apache.commons.lang3.tuple.Pair;
+import org.joda.time.DateTimeUtils;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -63,9 +67,11 @@ import java.net.URI;
 import java.security.KeyPair;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toList;
@@ -97,6 +103,11 @@ public class CertificateTreeValidationServiceTest extends GenericStorageTest {
         validationScheduler.disable();
     }
 
+    @After
+    public void resetClock() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
     @Test
     public void should_register_rpki_repositories() {
         TrustAnchor ta = factory.createRipeNccTrustAnchor();
@@ -393,4 +404,140 @@ public class CertificateTreeValidationServiceTest extends GenericStorageTest {
         assertThat(validatedRoas.get(0).getLeft()).isEqualTo(result);
         assertThat(validatedRoas.get(0).getRight().getRoaPrefixes()).hasSize(1);
     }
+
+    @Test
+    public void should_reuse_validation_of_unchanged_certificate_authorities() {
+        TrustAnchor ta = wtx(tx -> {
+            TrustAnchor ta1 = factory.createTrustAnchor(tx, x -> x.roaPrefixes(Collections.singletonList(
+                    RoaPrefix.of(IpRange.prefix(IpAddress.parse("192.168.0.0"), 16), 24, Asn.parse("64512"))
+            )));
+            this.getTrustAnchors().add(tx, ta1);
+            final Ref<TrustAnchor> trustAnchorRef = this.getTrustAnchors().makeRef(tx, ta1.key());
+            RpkiRepository repository = this.getRpkiRepositories().register(tx, trustAnchorRef, TA_RRDP_NOTIFY_URI, RpkiRepository.Type.RRDP);
+            repository.setDownloaded();
+            this.getRpkiRepositories().update(tx, repository);
+            return ta1;
+        });
+
+        subject.validate(ta.key().asLong());
+        subject.validate(ta.key().asLong());
+
+        List<CertificateTreeValidationRun> completed = rtx(tx -> this.getValidationRuns().findAll(tx, CertificateTreeValidationRun.class));
+        assertThat(completed).hasSize(2);
+        assertThat(completed).allMatch(run -> run.getStatus() == SUCCEEDED);
+
+        final List<Long> roaRunIds = rtx(tx -> this.getValidationRuns()
+                .findCurrentlyValidated(tx, RpkiObject.Type.ROA)
+                .map(p -> p.getLeft().key().asLong())
+                .collect(toList()));
+        final long latestRunId = completed.stream().mapToLong(run -> run.key().asLong()).max().getAsLong();
+        assertThat(roaRunIds).containsExactly(latestRunId);
+        assertThat(rtx(tx -> this.getValidationRuns().findCurrentlyValidated(tx, RpkiObject.Type.MFT).count())).isEqualTo(1L);
+        assertThat(parsedObjects(latestRun())).isZero();
+    }
+
+    @Test
+    public void should_validate_certificate_authority_again_when_manifest_changes() {
+        final AtomicReference<CertificateAuthority> root = new AtomicReference<>();
+        TrustAnchor ta = wtx(tx -> {
+            TrustAnchor ta1 = factory.createTrustAnchor(tx, x -> root.set(x.build()));
+            registerDownloadedRepository(tx, ta1);
+            return ta1;
+        });
+        subject.validate(ta.key().asLong());
+        assertThat(parsedObjects(latestRun())).isPositive();
+
+        // a new manifest and CRL, the certificate of the trust anchor stays the same
+        wtx0(tx -> factory.createCertificateAuthority(tx, root.get(), root.get()));
+        subject.validate(ta.key().asLong());
+
+        final CertificateTreeValidationRun second = latestRun();
+        assertThat(second.getStatus()).isEqualTo(SUCCEEDED);
+        assertThat(parsedObjects(second)).isPositive();
+    }
+
+    @Test
+    public void should_validate_certificate_authority_again_when_repository_fails() {
+        final AtomicReference<RpkiRepository> repository = new AtomicReference<>();
+        TrustAnchor ta = wtx(tx -> {
+            TrustAnchor ta1 = factory.createTrustAnchor(tx, x -> {});
+            repository.set(registerDownloadedRepository(tx, ta1));
+            return ta1;
+        });
+        subject.validate(ta.key().asLong());
+        assertThat(parsedObjects(latestRun())).isPositive();
+
+        wtx0(tx -> {
+            repository.get().setFailed();
+            this.getRpkiRepositories().update(tx, repository.get());
+        });
+        subject.validate(ta.key().asLong());
+
+        assertThat(parsedObjects(latestRun())).isPositive();
+    }
+
+    @Test
+    public void should_validate_certificate_authority_again_when_an_object_changes_validity() {
+        TrustAnchor ta = wtx(tx -> {
+            TrustAnchor ta1 = factory.createTrustAnchor(tx, x -> {});
+            registerDownloadedRepository(tx, ta1);
+            return ta1;
+        });
+        subject.validate(ta.key().asLong());
+        assertThat(parsedObjects(latestRun())).isPositive();
+
+        // past the next update time of the manifest and the CRL
+        DateTimeUtils.setCurrentMillisOffset(Duration.standardHours(9).getMillis());
+        subject.validate(ta.key().asLong());
+
+        final CertificateTreeValidationRun second = latestRun();
+        assertThat(parsedObjects(second)).isPositive();
+        assertThat(second.getValidationChecks()).isNotEmpty();
+    }
+
+    @Test
+    public void should_validate_certificate_authority_again_when_previous_result_had_failures() {
+        final ValidityPeriod expired = new ValidityPeriod(
+            Instant.now().minus(Duration.standardDays(2)),
+            Instant.now().minus(Duration.standardDays(1))
+        );
+        TrustAnchor ta = wtx(tx -> {
+            TrustAnchor ta1 = factory.createTrustAnchor(tx, x -> {}, expired);
+            registerDownloadedRepository(tx, ta1);
+            return ta1;
+        });
+        subject.validate(ta.key().asLong());
+        final CertificateTreeValidationRun first = latestRun();
+        assertThat(first.getValidationChecks()).isNotEmpty();
+        assertThat(parsedObjects(first)).isPositive();
+
+        subject.validate(ta.key().asLong());
+
+        assertThat(parsedObjects(latestRun())).isPositive();
+    }
+
+    private RpkiRepository registerDownloadedRepository(Tx.Write tx, TrustAnchor ta) {
+        this.getTrustAnchors().add(tx, ta);
+        final Ref<TrustAnchor> trustAnchorRef = this.getTrustAnchors().makeRef(tx, ta.key());
+        RpkiRepository repository = this.getRpkiRepositories().register(tx, trustAnchorRef, TA_RRDP_NOTIFY_URI, RpkiRepository.Type.RRDP);
+        repository.setDownloaded();
+        this.getRpkiRepositories().update(tx, repository);
+        return repository;
+    }
+
+    private CertificateTreeValidationRun latestRun() {
+        return rtx(tx -> this.getValidationRuns().findAll(tx, CertificateTreeValidationRun.class)).stream()
+                .max(Comparator.comparing(run -> run.key().asLong()))
+                .get();
+    }
+
+    /**
+     * The objects of a CA are only parsed when it is validated, not when its previous result is reused.
+     */
+    private static long parsedObjects(CertificateTreeValidationRun run) {
+        return run.getPhases().stream()
+                .filter(phase -> phase.getName().equals("parse-objects"))
+                .mapToLong(ValidationPhase::getCount)
+                .sum();
+    }
 }
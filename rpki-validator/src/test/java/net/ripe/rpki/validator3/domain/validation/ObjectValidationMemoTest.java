@@ -0,0 +1,222 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCmsBuilder;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.crl.X509CrlBuilder;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.validation.ValidationOptions;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import net.ripe.rpki.validator3.domain.ta.TrustAnchorsFactory;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.util.Sha256;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.Security;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.ripe.rpki.commons.validation.ValidationString.VALIDATOR_RPKI_REPOSITORY_PENDING;
+import static net.ripe.rpki.validator3.domain.ta.TrustAnchorsFactory.KEY_PAIR_FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectValidationMemoTest {
+
+    private static final URI TA_LOCATION = URI.create("rsync://rpki.test/test-trust-anchor.cer");
+    private static final URI CRL_URI = URI.create("rsync://rpki.test/test-trust-anchor.crl");
+    private static final String LOCATION = "rsync://rpki.test/repository/object";
+
+    private final TrustAnchorsFactory factory = new TrustAnchorsFactory();
+
+    // long enough for the validity of the objects to decide when they have to be validated again
+    private final ObjectValidationMemo memo = new ObjectValidationMemo(100, Duration.ofDays(30));
+
+    private KeyPair taKeyPair;
+    private X509ResourceCertificate taCertificate;
+    private X509ResourceCertificate childCertificate;
+    private CertificateRepositoryObjectValidationContext context;
+    private byte[] issuer;
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+        taKeyPair = KEY_PAIR_FACTORY.generate();
+        final TrustAnchorsFactory.CertificateAuthority ta = ca("CN=test-trust-anchor", taKeyPair, "0.0.0.0/0", "rsync://rpki.test/repository/");
+        taCertificate = factory.createCaCertificate(ta, taKeyPair.getPublic(), ta.getDn(), CRL_URI.toString(), taKeyPair);
+
+        final KeyPair childKeyPair = KEY_PAIR_FACTORY.generate();
+        final TrustAnchorsFactory.CertificateAuthority child = ca("CN=child-ca", childKeyPair, "192.168.0.0/16", "rsync://rpki.test/repository/child/");
+        childCertificate = factory.createCaCertificate(child, childKeyPair.getPublic(), ta.getDn(), CRL_URI.toString(), taKeyPair);
+
+        context = new CertificateRepositoryObjectValidationContext(TA_LOCATION, taCertificate);
+        issuer = memo.issuer(context, CRL_URI);
+    }
+
+    @After
+    public void resetClock() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void passedObjectIsNotValidatedAgain() {
+        final X509Crl crl = crl();
+        assertFalse(validate(childCertificate, crl).hasFailures());
+
+        assertFalse(validate(childCertificate, crl).hasFailures());
+        assertEquals(1, memo.stats().hitCount());
+    }
+
+    @Test
+    public void objectRevokedByLaterCrlIsValidatedAgainAndFails() {
+        assertFalse(validate(childCertificate, crl()).hasFailures());
+
+        final ValidationResult result = validate(childCertificate, crl(childCertificate.getSerialNumber()));
+
+        assertEquals(0, memo.stats().hitCount());
+        assertTrue(result.hasFailures());
+    }
+
+    @Test
+    public void objectPastNotAfterIsValidatedAgainAndFails() {
+        assertFalse(validate(childCertificate, crl()).hasFailures());
+
+        DateTimeUtils.setCurrentMillisOffset(Duration.ofDays(8).toMillis());
+        final ValidationResult result = validate(childCertificate, crl());
+
+        assertEquals(0, memo.stats().hitCount());
+        assertTrue(result.hasFailures());
+    }
+
+    @Test
+    public void objectPastNextUpdateIsValidatedAgainAndFails() {
+        final ManifestCms manifest = manifest(DateTime.now().plusHours(1));
+        final X509Crl crl = crl();
+        assertFalse(validate(manifest, crl).hasFailures());
+
+        DateTimeUtils.setCurrentMillisOffset(Duration.ofHours(2).toMillis());
+        final ValidationResult result = validate(manifest, crl);
+
+        assertEquals(0, memo.stats().hitCount());
+        assertTrue(result.hasFailures());
+    }
+
+    @Test
+    public void objectWithWarningsIsNeverMemoized() {
+        final X509Crl crl = crl();
+        final AtomicInteger validations = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            final ValidationResult result = ValidationResult.withLocation(LOCATION);
+            memo.validate(childCertificate, key(childCertificate), LOCATION, issuer, crl, result, r -> {
+                validations.incrementAndGet();
+                r.warnIfTrue(true, VALIDATOR_RPKI_REPOSITORY_PENDING, "rsync://rpki.test/repository/child/");
+            });
+            assertFalse(result.getWarnings().isEmpty());
+        }
+
+        assertEquals(3, validations.get());
+        assertEquals(0, memo.stats().hitCount());
+    }
+
+    private ValidationResult validate(CertificateRepositoryObject object, X509Crl crl) {
+        final ValidationResult result = ValidationResult.withLocation(LOCATION);
+        memo.validate(object, key(object), LOCATION, issuer, context, crl, CRL_URI, new ValidationOptions(), result);
+        return result;
+    }
+
+    private static Key key(CertificateRepositoryObject object) {
+        return Key.of(Sha256.hash(object.getEncoded()));
+    }
+
+    private X509Crl crl(BigInteger... revokedSerials) {
+        final X509CrlBuilder builder = new X509CrlBuilder()
+            .withIssuerDN(taCertificate.getSubject())
+            .withThisUpdateTime(DateTime.now())
+            .withNextUpdateTime(DateTime.now().plusHours(8))
+            .withAuthorityKeyIdentifier(taKeyPair.getPublic())
+            .withNumber(TrustAnchorsFactory.nextSerial());
+        for (BigInteger serial : revokedSerials) {
+            builder.addEntry(serial, DateTime.now());
+        }
+        return builder.build(taKeyPair.getPrivate());
+    }
+
+    private ManifestCms manifest(DateTime nextUpdate) {
+        final KeyPair eeKeyPair = KEY_PAIR_FACTORY.generate();
+        final X509ResourceCertificate eeCertificate = new X509ResourceCertificateBuilder()
+            .withInheritedResourceTypes(EnumSet.allOf(IpResourceType.class))
+            .withIssuerDN(taCertificate.getSubject())
+            .withSubjectDN(new X500Principal("CN=manifest, " + taCertificate.getSubject()))
+            .withValidityPeriod(factory.typicalValidityPeriod())
+            .withPublicKey(eeKeyPair.getPublic())
+            .withSigningKeyPair(taKeyPair)
+            .withCa(false)
+            .withKeyUsage(KeyUsage.digitalSignature)
+            .withSerial(TrustAnchorsFactory.nextSerial())
+            .withCrlDistributionPoints(CRL_URI)
+            .build();
+        return new ManifestCmsBuilder()
+            .withCertificate(eeCertificate)
+            .withManifestNumber(TrustAnchorsFactory.nextSerial())
+            .withThisUpdateTime(DateTime.now())
+            .withNextUpdateTime(nextUpdate)
+            .build(eeKeyPair.getPrivate());
+    }
+
+    private static TrustAnchorsFactory.CertificateAuthority ca(String dn, KeyPair keyPair, String resources, String repositoryUri) {
+        return TrustAnchorsFactory.CertificateAuthority.builder()
+            .dn(dn)
+            .keyPair(keyPair)
+            .resources(IpResourceSet.parse(resources))
+            .manifestURI(repositoryUri + "manifest.mft")
+            .repositoryURI(repositoryUri)
+            .crlDistributionPoint(CRL_URI.toString())
+            .build();
+    }
+}
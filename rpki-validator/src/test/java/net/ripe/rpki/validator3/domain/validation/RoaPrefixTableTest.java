@@ -0,0 +1,165 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.Ipv4Address;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+public class RoaPrefixTableTest {
+
+    private static final ValidatedRpkiObjects.TrustAnchorData TRUST_ANCHOR = ValidatedRpkiObjects.TrustAnchorData.of(1L, "Test TA");
+    private static final ImmutableSortedSet<String> LOCATIONS = ImmutableSortedSet.of("rsync://repo/a.roa", "https://repo/a.roa");
+
+    private static ValidatedRpkiObjects.RoaPrefix roa(String asn, String prefix, Integer maximumLength, ImmutableSortedSet<String> locations) {
+        final IpRange range = IpRange.parse(prefix);
+        return ValidatedRpkiObjects.RoaPrefix.of(TRUST_ANCHOR, Asn.parse(asn), range, maximumLength,
+                maximumLength == null ? range.getPrefixLength() : maximumLength, locations);
+    }
+
+    private static RoaPrefixTable table(List<ValidatedRpkiObjects.RoaPrefix> prefixes) {
+        final RoaPrefixTable.Builder builder = RoaPrefixTable.builder(TRUST_ANCHOR);
+        prefixes.forEach(p -> builder.add(p.getAsn().longValue(), p.getPrefix(), p.getMaximumLength(), p.getEffectiveLength(), p.getLocations()));
+        return builder.build();
+    }
+
+    @Test
+    public void should_read_back_what_is_added() {
+        final List<ValidatedRpkiObjects.RoaPrefix> prefixes = Arrays.asList(
+                roa("AS3333", "10.0.0.0/8", null, LOCATIONS),
+                roa("AS4294967295", "0.0.0.0/0", 32, LOCATIONS),
+                roa("AS0", "255.255.255.255/32", null, ImmutableSortedSet.of()),
+                roa("AS3333", "2001:db8::/32", 48, LOCATIONS),
+                roa("AS3333", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ff00/120", 128, LOCATIONS),
+                roa("AS2222", "::/0", null, ImmutableSortedSet.of("rsync://repo/b.roa"))
+        );
+
+        final RoaPrefixTable table = table(prefixes);
+
+        assertEquals(prefixes.size(), table.size());
+        assertEquals(ImmutableSet.copyOf(prefixes), table.stream().collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void should_be_equal_regardless_of_order_and_duplicates() {
+        final ValidatedRpkiObjects.RoaPrefix a = roa("AS3333", "10.0.0.0/8", null, LOCATIONS);
+        final ValidatedRpkiObjects.RoaPrefix b = roa("AS3333", "10.0.0.0/8", null, ImmutableSortedSet.of("rsync://repo/b.roa"));
+        final ValidatedRpkiObjects.RoaPrefix c = roa("AS3333", "2001:db8::/32", null, LOCATIONS);
+
+        final RoaPrefixTable table = table(Arrays.asList(a, b, c));
+        assertEquals(table, table(Arrays.asList(c, a, b, a)));
+        assertEquals(3, table(Arrays.asList(c, a, b, a)).size());
+        assertNotEquals(table, table(Arrays.asList(a, c)));
+    }
+
+    @Test
+    public void should_diff_tables() {
+        final ValidatedRpkiObjects.RoaPrefix kept = roa("AS3333", "10.0.0.0/8", null, LOCATIONS);
+        final ValidatedRpkiObjects.RoaPrefix moved = roa("AS3333", "192.168.0.0/16", 24, LOCATIONS);
+        final ValidatedRpkiObjects.RoaPrefix movedTo = roa("AS3333", "192.168.0.0/16", 24, ImmutableSortedSet.of("rsync://repo/b.roa"));
+        final ValidatedRpkiObjects.RoaPrefix removed = roa("AS3333", "2001:db8::/32", null, LOCATIONS);
+        final ValidatedRpkiObjects.RoaPrefix added = roa("AS2222", "2001:db8::/32", null, LOCATIONS);
+
+        final List<ValidatedRpkiObjects.RoaPrefix> addedRows = new ArrayList<>();
+        final List<ValidatedRpkiObjects.RoaPrefix> removedRows = new ArrayList<>();
+        table(Arrays.asList(kept, movedTo, added)).diff(table(Arrays.asList(kept, moved, removed)), addedRows::add, removedRows::add);
+
+        assertEquals(ImmutableSet.of(movedTo, added), ImmutableSet.copyOf(addedRows));
+        assertEquals(ImmutableSet.of(moved, removed), ImmutableSet.copyOf(removedRows));
+    }
+
+    @Test
+    public void should_have_no_diff_with_itself() {
+        final RoaPrefixTable table = table(Arrays.asList(roa("AS3333", "10.0.0.0/8", null, LOCATIONS)));
+        table.diff(table, p -> { throw new AssertionError("added " + p); }, p -> { throw new AssertionError("removed " + p); });
+        assertTrue(RoaPrefixTable.EMPTY.isEmpty());
+    }
+
+    /**
+     * Compare the heap used by a set of ROA prefix objects with the one of a table with the
+     * same prefixes, about as many as all trust anchors together have. The locations are
+     * shared by both, so they are left out.
+     */
+    @Test
+    @Ignore
+    public void benchmarkHeapFootprint() {
+        final int count = Integer.getInteger("roa.prefix.count", 500_000);
+        final Random random = new Random(42);
+        final List<ImmutableSortedSet<String>> locations = new ArrayList<>();
+        for (int i = 0; i < count / 4; i++) {
+            locations.add(ImmutableSortedSet.of("rsync://rpki.example.net/repository/" + Integer.toHexString(i) + ".roa"));
+        }
+
+        final long beforeSet = usedHeap();
+        final ImmutableSet.Builder<ValidatedRpkiObjects.RoaPrefix> builder = ImmutableSet.builder();
+        for (int i = 0; i < count; i++) {
+            final IpRange prefix = IpRange.prefix(new Ipv4Address(random.nextInt() & 0xFFFFFF00L), 24);
+            builder.add(ValidatedRpkiObjects.RoaPrefix.of(TRUST_ANCHOR, new Asn(random.nextInt(400_000)), prefix,
+                    random.nextBoolean() ? null : 24, 24, locations.get(random.nextInt(locations.size()))));
+        }
+        final ImmutableSet<ValidatedRpkiObjects.RoaPrefix> set = builder.build();
+        final long setSize = usedHeap() - beforeSet;
+
+        final long beforeTable = usedHeap();
+        final long t0 = System.nanoTime();
+        final RoaPrefixTable table = table(set.asList());
+        final long t1 = System.nanoTime();
+        final long tableSize = usedHeap() - beforeTable;
+
+        log.info("{} ROA prefixes", set.size());
+        log.info("set of objects: {} bytes ({} bytes/prefix)", setSize, setSize / set.size());
+        log.info("table: {} bytes ({} bytes/prefix), built in {}ms", tableSize, tableSize / table.size(), (t1 - t0) / 1_000_000);
+        assertEquals(set.size(), table.size());
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
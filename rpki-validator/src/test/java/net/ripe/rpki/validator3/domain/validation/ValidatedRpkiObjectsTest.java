@@ -0,0 +1,86 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ValidatedRpkiObjectsTest {
+
+    private static final ValidatedRpkiObjects.TrustAnchorData TRUST_ANCHOR = ValidatedRpkiObjects.TrustAnchorData.of(1L, "Test TA");
+
+    private static ValidatedRpkiObjects.RoaPrefix roa(String asn, String prefix, String location) {
+        final IpRange range = IpRange.parse(prefix);
+        return ValidatedRpkiObjects.RoaPrefix.of(TRUST_ANCHOR, Asn.parse(asn), range, null, range.getPrefixLength(), ImmutableSortedSet.of(location));
+    }
+
+    private static RoaPrefixTable table(ValidatedRpkiObjects.RoaPrefix... prefixes) {
+        final RoaPrefixTable.Builder builder = RoaPrefixTable.builder(TRUST_ANCHOR);
+        for (ValidatedRpkiObjects.RoaPrefix p : prefixes) {
+            builder.add(p.getAsn().longValue(), p.getPrefix(), p.getMaximumLength(), p.getEffectiveLength(), p.getLocations());
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void should_calculate_delta_between_roa_prefixes() {
+        final ValidatedRpkiObjects.RoaPrefix kept = roa("AS3333", "10.0.0.0/8", "rsync://repo/a.roa");
+        final ValidatedRpkiObjects.RoaPrefix removed = roa("AS3333", "192.168.0.0/16", "rsync://repo/a.roa");
+        final ValidatedRpkiObjects.RoaPrefix added = roa("AS2222", "192.168.0.0/16", "rsync://repo/b.roa");
+
+        final ValidatedRpkiObjects.RoaPrefixesDelta delta = ValidatedRpkiObjects.RoaPrefixesDelta.between(
+                table(kept, removed),
+                table(kept, added));
+
+        assertEquals(ImmutableSet.of(added), delta.getAdded());
+        assertEquals(ImmutableSet.of(removed), delta.getRemoved());
+    }
+
+    @Test
+    public void should_have_empty_delta_when_nothing_changed() {
+        final RoaPrefixTable prefixes = table(roa("AS3333", "10.0.0.0/8", "rsync://repo/a.roa"));
+        assertTrue(ValidatedRpkiObjects.RoaPrefixesDelta.between(prefixes, prefixes).isEmpty());
+    }
+
+    @Test
+    public void should_remove_all_roa_prefixes_of_a_removed_trust_anchor() {
+        final ValidatedRpkiObjects.RoaPrefix prefix = roa("AS3333", "10.0.0.0/8", "rsync://repo/a.roa");
+        final ValidatedRpkiObjects.RoaPrefixesDelta delta = ValidatedRpkiObjects.RoaPrefixesDelta.between(table(prefix), RoaPrefixTable.EMPTY);
+
+        assertTrue(delta.getAdded().isEmpty());
+        assertEquals(ImmutableSet.of(prefix), delta.getRemoved());
+    }
+}
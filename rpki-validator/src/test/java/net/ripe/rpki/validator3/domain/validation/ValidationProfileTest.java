@@ -0,0 +1,70 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import net.ripe.rpki.validator3.storage.data.validation.ValidationPhase;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValidationProfileTest {
+
+    @Test
+    public void should_sum_phases_over_threads() {
+        final ValidationProfile profile = new ValidationProfile();
+
+        IntStream.range(0, 100).parallel().forEach(i -> profile.record("b", TimeUnit.MILLISECONDS.toNanos(2)));
+        final Integer result = profile.timed("a", () -> 42);
+
+        assertEquals(Integer.valueOf(42), result);
+
+        final List<ValidationPhase> summary = profile.summary();
+        assertEquals(2, summary.size());
+        assertEquals("a", summary.get(0).getName());
+        assertEquals(1, summary.get(0).getCount());
+        assertEquals(ValidationPhase.of("b", 100, 200), summary.get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_record_failed_phases() {
+        final ValidationProfile profile = new ValidationProfile();
+        try {
+            profile.timed("failing", () -> {
+                throw new IllegalStateException();
+            });
+        } finally {
+            assertEquals(1, profile.summary().get(0).getCount());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import net.ripe.rpki.validator3.IntegrationTest;
+import net.ripe.rpki.validator3.TestObjects;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.TrustAnchor;
+import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
+import net.ripe.rpki.validator3.storage.stores.impl.GenericStorageTest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringRunner.class)
+@IntegrationTest
+public class ValidationRunAssociationsTest extends GenericStorageTest {
+
+    @Test
+    public void should_associate_objects_in_batches() {
+        final TrustAnchor trustAnchor = TestObjects.newTrustAnchor();
+        wtx0(tx -> getTrustAnchors().add(tx, trustAnchor));
+
+        final CertificateTreeValidationRun validationRun = wtx(tx -> {
+            CertificateTreeValidationRun vr = new CertificateTreeValidationRun(getTrustAnchors().makeRef(tx, trustAnchor.key()));
+            getValidationRuns().add(tx, vr);
+            return vr;
+        });
+
+        final ValidationRunAssociations associations = new ValidationRunAssociations(getLmdb(), getValidationRuns(), validationRun, 3, new ValidationProfile());
+        associations.add(Arrays.asList(Key.of(1L), Key.of(2L)));
+        assertEquals(0, associations.getAssociatedCount());
+
+        associations.add(Arrays.asList(Key.of(3L), Key.of(4L)));
+        associations.add(Collections.emptyList());
+        assertEquals(3, associations.getAssociatedCount());
+        assertEquals(3, rtx(tx -> getValidationRuns().getObjectCount(tx, validationRun)).intValue());
+
+        associations.add(IntStream.range(5, 10).mapToObj(i -> Key.of((long) i)).collect(Collectors.toList()));
+        associations.flush();
+        assertEquals(9, associations.getAssociatedCount());
+
+        final Set<Key> associated = rtx(tx -> getValidationRuns().findAssociatedPks(tx, validationRun));
+        assertEquals(IntStream.range(1, 10).mapToObj(i -> Key.of((long) i)).collect(Collectors.toSet()), associated);
+
+        // not visible as the latest run until it is completed
+        assertFalse(rtx(tx -> getValidationRuns().findLatestSuccessfulCaTreeValidationRun(tx, trustAnchor)).isPresent());
+        validationRun.setSucceeded();
+        wtx0(tx -> getValidationRuns().update(tx, validationRun));
+        assertTrue(rtx(tx -> getValidationRuns().findLatestSuccessfulCaTreeValidationRun(tx, trustAnchor)).isPresent());
+    }
+}
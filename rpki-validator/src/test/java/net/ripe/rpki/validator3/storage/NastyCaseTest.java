@@ -64,7 +64,7 @@ public class NastyCaseTest {
 
     @Before
     public void setUp() throws Exception {
-        lmdb = new LmdbImpl("/Users/mpuzanov/ripe/tmp/rpki/validator-3/workdb/", 8192);
+        lmdb = new LmdbImpl("/Users/mpuzanov/ripe/tmp/rpki/validator-3/workdb/", 8192, 65536);
         lmdb.initLmdb();
         lmdbRpkiObject = new LmdbRpkiObject(lmdb);
     }
@@ -0,0 +1,204 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+@RunWith(JUnitQuickcheck.class)
+public class DeflateCoderTest {
+
+    @Property
+    public void roundTrip(byte[] bytes) {
+        final DeflateCoder coder = new DeflateCoder(true);
+        assertArrayEquals(bytes, coder.fromBytes(coder.toBytes(bytes)));
+    }
+
+    @Property
+    public void roundTripWithDictionary(byte[] bytes) {
+        final DeflateCoder coder = new DeflateCoder(true);
+        coder.addDictionary(1, "some dictionary content".getBytes());
+        coder.useDictionary(1);
+        assertArrayEquals(bytes, coder.fromBytes(coder.toBytes(bytes)));
+    }
+
+    @Test
+    public void readsUncompressedValues() {
+        final byte[] der = derLike(new Random(1), 1000);
+        assertSame(der, new DeflateCoder(false).toBytes(der));
+        assertArrayEquals(der, new DeflateCoder(true).fromBytes(der));
+    }
+
+    @Test
+    public void readsValuesCompressedWithOlderDictionaries() {
+        final Random r = new Random(2);
+        final byte[] dictionary = derLike(r, 2000);
+        final DeflateCoder coder = new DeflateCoder(true);
+        coder.addDictionary(1, dictionary);
+        coder.useDictionary(1);
+        final byte[] der = derLike(r, 3000);
+        final byte[] compressed = coder.toBytes(der);
+
+        coder.addDictionary(2, derLike(r, 2000));
+        coder.useDictionary(2);
+        assertArrayEquals(der, coder.fromBytes(compressed));
+
+        // compression can be switched off without losing access to the content
+        final DeflateCoder reader = new DeflateCoder(false);
+        reader.addDictionary(1, dictionary);
+        assertArrayEquals(der, reader.fromBytes(compressed));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsOnUnknownDictionary() {
+        final DeflateCoder coder = new DeflateCoder(true);
+        coder.addDictionary(1, derLike(new Random(3), 2000));
+        coder.useDictionary(1);
+        final byte[] compressed = coder.toBytes(derLike(new Random(4), 3000));
+        new DeflateCoder(true).fromBytes(compressed);
+    }
+
+    @Test
+    public void trainedDictionaryImprovesCompression() {
+        final Random r = new Random(5);
+        final byte[] template = derLike(r, 1500);
+        final List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            samples.add(similarTo(template, r));
+        }
+        final byte[] dictionary = DeflateDictionaryTrainer.train(samples, 4096);
+        assertTrue(dictionary.length > 0 && dictionary.length <= 4096);
+
+        final DeflateCoder plain = new DeflateCoder(true);
+        final DeflateCoder withDictionary = new DeflateCoder(true);
+        withDictionary.addDictionary(1, dictionary);
+        withDictionary.useDictionary(1);
+
+        final byte[] object = similarTo(template, r);
+        final byte[] compressed = withDictionary.toBytes(object);
+        assertTrue(DeflateCoder.isCompressed(compressed));
+        assertTrue(compressed.length < plain.toBytes(object).length * 3 / 4);
+        assertArrayEquals(object, withDictionary.fromBytes(compressed));
+    }
+
+    /**
+     * Compare the footprint and decoding latency of a real repository snapshot, i.e.
+     * an rsync mirror of the production repositories, with and without a dictionary.
+     */
+    @Test
+    @Ignore
+    public void benchmarkOnSnapshot() throws IOException {
+        final Path snapshot = Paths.get(System.getProperty("rpki.snapshot.path", "/tmp/rpki-snapshot"));
+        final List<byte[]> objects;
+        try (Stream<Path> files = Files.walk(snapshot)) {
+            objects = files.filter(Files::isRegularFile)
+                    .map(DeflateCoderTest::read)
+                    .collect(Collectors.toList());
+        }
+        final long rawSize = objects.stream().mapToLong(o -> o.length).sum();
+        log.info("{} objects, {} bytes", objects.size(), rawSize);
+
+        final DeflateCoder plain = new DeflateCoder(true);
+        benchmark("no dictionary", plain, objects, rawSize);
+
+        final long t0 = System.nanoTime();
+        final byte[] dictionary = DeflateDictionaryTrainer.train(
+                objects.subList(0, Math.min(2000, objects.size())), DeflateDictionaryTrainer.MAX_DICTIONARY_SIZE);
+        log.info("Trained a dictionary of {} bytes in {}ms", dictionary.length, (System.nanoTime() - t0) / 1_000_000);
+
+        final DeflateCoder withDictionary = new DeflateCoder(true);
+        withDictionary.addDictionary(1, dictionary);
+        withDictionary.useDictionary(1);
+        benchmark("trained dictionary", withDictionary, objects, rawSize);
+    }
+
+    private static void benchmark(String name, DeflateCoder coder, List<byte[]> objects, long rawSize) {
+        final long t0 = System.nanoTime();
+        final List<byte[]> compressed = objects.stream().map(coder::toBytes).collect(Collectors.toList());
+        final long t1 = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            compressed.forEach(coder::fromBytes);
+        }
+        final long t2 = System.nanoTime();
+        compressed.forEach(coder::fromBytes);
+        final long t3 = System.nanoTime();
+        final long size = compressed.stream().mapToLong(c -> c.length).sum();
+        log.info("{}: {} bytes ({}% of raw), encode {}us/object, decode {}us/object",
+                name, size, 100 * size / rawSize,
+                (t1 - t0) / 1000 / objects.size(), (t3 - t2) / 1000 / objects.size());
+    }
+
+    private static byte[] read(Path p) {
+        try {
+            return Files.readAllBytes(p);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Something that starts like a DER SEQUENCE and has lots of repeating structure.
+     */
+    private static byte[] derLike(Random r, int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i % 7 == 0 ? r.nextInt(256) : "0\u0082\u0006\u0009*\u0086H".charAt(i % 7));
+        }
+        bytes[0] = 0x30;
+        return bytes;
+    }
+
+    private static byte[] similarTo(byte[] template, Random r) {
+        final byte[] bytes = template.clone();
+        for (int i = 0; i < 40; i++) {
+            bytes[1 + r.nextInt(bytes.length - 1)] = (byte) r.nextInt(256);
+        }
+        return bytes;
+    }
+}
@@ -31,14 +31,17 @@ package net.ripe.rpki.validator3.storage.encoding.custom;
 
 import com.pholser.junit.quickcheck.Property;
 import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import net.ripe.rpki.validator3.storage.Bytes;
 import org.junit.runner.RunWith;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 @RunWith(JUnitQuickcheck.class)
@@ -58,4 +61,20 @@ public class EncodedTest {
             }
         }
     }
+
+    @Property
+    public void findFieldWithoutDecoding(List<String> s) {
+        if (s != null && s.size() < Short.MAX_VALUE) {
+            final Encoded e = new Encoded();
+            for (short tag = 0; tag < s.size(); tag++) {
+                e.append(tag, s.get(tag).getBytes(StandardCharsets.UTF_8));
+            }
+            final ByteBuffer bb = Bytes.toDirectBuffer(e.toByteArray());
+            for (short tag = 0; tag < s.size(); tag++) {
+                final ByteBuffer field = Encoded.field(bb, tag).orElseThrow(AssertionError::new);
+                assertEquals(s.get(tag), Coders.toString(Coders.toBytes(field)));
+            }
+            assertFalse(Encoded.field(bb, (short) s.size()).isPresent());
+        }
+    }
 }
\ No newline at end of file
@@ -40,6 +40,7 @@ import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
 import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.validator3.IntegrationTest;
 import net.ripe.rpki.validator3.domain.ta.TrustAnchorsFactory;
+import net.ripe.rpki.validator3.storage.Bytes;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -53,6 +54,7 @@ import java.io.InputStream;
 import java.security.KeyPair;
 
 import static net.ripe.rpki.validator3.domain.ta.TrustAnchorsFactory.KEY_PAIR_FACTORY;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 @RunWith(SpringRunner.class)
@@ -95,4 +97,26 @@ public class RpkiObjectCoderTest {
         assertEquals(rpkiObject, rpkiObject1);
     }
 
+    @Test
+    public void testView() throws IOException {
+        InputStream is = this.getClass().getResourceAsStream("/557B4C46969B11E681906146C4F9AE02.roa");
+        byte[] content = ByteStreams.toByteArray(is);
+
+        ValidationResult validationResult = ValidationResult.withLocation("whatever.roa");
+        CertificateRepositoryObject repositoryObject = CertificateRepositoryObjectFactory.createCertificateRepositoryObject(content, validationResult);
+        RpkiObject rpkiObject = new RpkiObject(repositoryObject);
+
+        RpkiObjectCoder coder = new RpkiObjectCoder();
+        RpkiObjectView view = RpkiObjectView.of(Bytes.toDirectBuffer(coder.toBytes(rpkiObject)));
+
+        assertEquals(rpkiObject.key(), view.key());
+        assertEquals(RpkiObject.Type.ROA, view.getType());
+        assertEquals(rpkiObject.getSerialNumber(), view.getSerialNumber());
+        assertEquals(rpkiObject.getSigningTime(), view.getSigningTime());
+        assertEquals(rpkiObject.getRoaPrefixes(), view.getRoaPrefixes());
+        assertArrayEquals(rpkiObject.getAuthorityKeyIdentifier(), view.getAuthorityKeyIdentifier());
+        assertArrayEquals(rpkiObject.getEncoded(), view.getEncoded());
+        assertEquals(rpkiObject, view.toRpkiObject());
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import com.google.common.collect.ImmutableMap;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArenaTest {
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void memoryIsReusedAfterReset() {
+        final Arena arena = Arena.get();
+        final long mark = arena.mark();
+        final ByteBuffer a = arena.key(Key.of("abc"));
+        assertEquals(3, a.remaining());
+        assertTrue(a.isDirect());
+        arena.reset(mark);
+
+        final ByteBuffer b = arena.key(Key.of("xyz"));
+        assertEquals(Key.of("xyz"), new Key(b));
+        // same memory as before the reset
+        assertEquals(Key.of("xyz"), new Key(a));
+        arena.reset(mark);
+    }
+
+    @Test
+    public void nestedAllocationsDoNotOverlap() {
+        Arena.withArena0(arena -> {
+            final ByteBuffer a = arena.key(Key.of("abc"));
+            Arena.withArena0(inner -> inner.key(Key.of("xyz")));
+            final ByteBuffer b = arena.key(Key.of("123"));
+            assertEquals(Key.of("abc"), new Key(a));
+            assertEquals(Key.of("123"), new Key(b));
+        });
+    }
+
+    @Test
+    public void bigBuffersAreAllocatedSeparately() {
+        final long direct = Arena.getDirectAllocations();
+        Arena.withArena0(arena -> assertEquals(Arena.CHUNK_SIZE + 1, arena.allocate(Arena.CHUNK_SIZE + 1).remaining()));
+        assertEquals(direct + 1, Arena.getDirectAllocations());
+    }
+
+    @Test
+    public void ixMapOperationsDoNotAllocate() throws Exception {
+        final Lmdb lmdb = LmdbTests.makeLmdb(tmp.newFolder().getAbsolutePath());
+        final IxMap<String> ixMap = lmdb.createIxMap("test",
+                ImmutableMap.of("length", IxMapTest::stringLen),
+                CoderFactory.makeCoder(String.class));
+
+        // warm up the arena of this thread
+        lmdb.writeTx0(tx -> ixMap.put(tx, Key.of(0L), "warm up"));
+
+        final long chunks = Arena.getChunkAllocations();
+        final long direct = Arena.getDirectAllocations();
+        lmdb.writeTx0(tx -> {
+            for (long i = 1; i < 10_000; i++) {
+                ixMap.put(tx, Key.of(i), "value " + i);
+            }
+        });
+        lmdb.readTx0(tx -> {
+            for (long i = 1; i < 10_000; i++) {
+                assertEquals("value " + i, ixMap.get(tx, Key.of(i)).get());
+            }
+        });
+        lmdb.writeTx0(tx -> {
+            for (long i = 1; i < 10_000; i++) {
+                ixMap.delete(tx, Key.of(i));
+            }
+        });
+        assertEquals(chunks, Arena.getChunkAllocations());
+        assertEquals(direct, Arena.getDirectAllocations());
+    }
+}
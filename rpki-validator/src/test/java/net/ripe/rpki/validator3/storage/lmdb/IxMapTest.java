@@ -31,9 +31,12 @@ package net.ripe.rpki.validator3.storage.lmdb;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.UnsignedBytes;
+import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
 import net.ripe.rpki.validator3.util.Time;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Rule;
@@ -43,8 +46,10 @@ import org.lmdbjava.Dbi;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -52,15 +57,21 @@ import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+@Slf4j
 public class IxMapTest {
 
     @Rule
@@ -102,6 +113,38 @@ public class IxMapTest {
     }
 
 
+    @Test
+    public void lazyStreams() {
+        Key ka = putAndGet("a");
+        putAndGet("aa");
+        putAndGet("ab");
+        putAndGet("bbb");
+
+        lmdb.readTx0(tx -> {
+            assertEquals(Sets.newHashSet(ixMap.values(tx)), ixMap.valueStream(tx).collect(Collectors.toSet()));
+            assertEquals(ixMap.keys(tx), ixMap.keyStream(tx).collect(Collectors.toSet()));
+            assertEquals(ixMap.all(tx).keySet(), ixMap.entryStream(tx).map(Pair::getKey).collect(Collectors.toSet()));
+            assertEquals(2, ixMap.valueStream(tx).limit(2).count());
+
+            assertEquals(Sets.newHashSet("aa", "ab"),
+                    ixMap.streamByIndex(LENGTH_INDEX, tx, intKey(2)).map(Pair::getValue).collect(Collectors.toSet()));
+            assertEquals(ixMap.getPkByIndex(LENGTH_INDEX, tx, intKey(2)),
+                    ixMap.streamPkByIndex(LENGTH_INDEX, tx, intKey(2)).collect(Collectors.toSet()));
+            assertEquals(0, ixMap.streamByIndex(LENGTH_INDEX, tx, intKey(10)).count());
+
+            try (Stream<String> s = ixMap.valueStream(tx)) {
+                assertTrue(s.findFirst().isPresent());
+            }
+        });
+
+        // an unfinished stream must not break the commit
+        lmdb.writeTx0(tx -> {
+            assertTrue(ixMap.keyStream(tx).anyMatch(ka::equals));
+            ixMap.delete(tx, ka);
+        });
+        lmdb.readTx0(tx -> assertFalse(ixMap.exists(tx, ka)));
+    }
+
     @Test
     @Ignore
     public void putAndUpdateWithBiggerValue() {
@@ -182,6 +225,53 @@ public class IxMapTest {
         });
     }
 
+    @Test
+    public void getAll() {
+        Key ka = putAndGet("a");
+        Key kb = putAndGet("b");
+        Key kc = putAndGet("c");
+        Key missing = key(UUID.randomUUID());
+
+        lmdb.readTx0(tx -> {
+            final Map<Key, String> all = ixMap.getAll(tx, Arrays.asList(kc, missing, ka, kc, kb));
+            assertEquals(ImmutableMap.of(ka, "a", kb, "b", kc, "c"), all);
+            final List<Key> sorted = new ArrayList<>(all.keySet());
+            sorted.sort(Comparator.comparing(Key::getBytes, UnsignedBytes.lexicographicalComparator()));
+            assertEquals(sorted, new ArrayList<>(all.keySet()));
+        });
+    }
+
+    @Test
+    public void renewedReadTxsSeeLatestData() {
+        Key ka = putAndGet("a");
+        try (Lmdb.RenewedReadTxs readTxs = lmdb.renewedReadTxs()) {
+            assertEquals(Optional.of("a"), readTxs.readTx(tx -> ixMap.get(tx, ka)));
+
+            lmdb.writeTx0(tx -> ixMap.put(tx, ka, "aa"));
+            assertEquals(Optional.of("aa"), readTxs.readTx(tx -> ixMap.get(tx, ka)));
+        }
+        assertTrue(lmdb.getTxs().isEmpty());
+    }
+
+    @Test
+    public void renewedReadTxsAreOnlyRenewedByTheirOwner() throws Exception {
+        Key ka = putAndGet("a");
+        final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try (Lmdb.RenewedReadTxs readTxs = lmdb.renewedReadTxs()) {
+            assertEquals(Optional.of("a"), otherThread.submit(() -> readTxs.readTx(tx -> ixMap.get(tx, ka))).get());
+            assertEquals(Optional.of("a"), readTxs.readTx(tx -> readTxs.readTx(nested -> ixMap.get(nested, ka))));
+            try {
+                otherThread.submit(readTxs::close).get();
+                fail("closed by another thread");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            otherThread.shutdown();
+        }
+        assertTrue(lmdb.getTxs().isEmpty());
+    }
+
     @Test(expected = NullPointerException.class)
     public void putAndGetNull() {
         putAndGet(null);
@@ -372,6 +462,125 @@ public class IxMapTest {
         assertEquals(ImmutableMap.of(Key.of(2L), "aBa"), lmdb.readTx(tx -> ixMap.getByIndex("lower", tx, Key.of("aba"))));
     }
 
+    @Test
+    public void testCounters() {
+        Key ka = putAndGet("a");
+        putAndGet("aa");
+        putAndGet("ab");
+        Key kbbb = putAndGet("bbb");
+
+        lmdb.readTx0(tx -> {
+            assertEquals(4, ixMap.size(tx));
+            assertEquals(1, ixMap.countByIndex(LENGTH_INDEX, tx, intKey(1)));
+            assertEquals(2, ixMap.countByIndex(LENGTH_INDEX, tx, intKey(2)));
+            assertEquals(0, ixMap.countByIndex(LENGTH_INDEX, tx, intKey(5)));
+            assertEquals(3, ixMap.countIndexKeys(LENGTH_INDEX, tx));
+        });
+
+        lmdb.writeTx0(tx -> {
+            ixMap.delete(tx, ka);
+            ixMap.put(tx, kbbb, "bb");
+        });
+
+        lmdb.readTx0(tx -> {
+            assertEquals(3, ixMap.size(tx));
+            assertEquals(3, ixMap.countByIndex(LENGTH_INDEX, tx, intKey(2)));
+            assertEquals(1, ixMap.countIndexKeys(LENGTH_INDEX, tx));
+            final long[] bytes = {0};
+            ixMap.forEach(tx, (k, v) -> bytes[0] += k.size() + v.remaining());
+            assertEquals(bytes[0], ixMap.sizeInfo(tx).getKeysAndValuesBytes());
+        });
+
+        lmdb.writeTx0(tx -> ixMap.clear(tx));
+        lmdb.readTx0(tx -> {
+            assertEquals(0, ixMap.size(tx));
+            assertEquals(0, ixMap.countIndexKeys(LENGTH_INDEX, tx));
+            assertEquals(0, ixMap.sizeInfo(tx).getKeysAndValuesBytes());
+        });
+    }
+
+    @Test
+    public void putAll() {
+        lmdb.writeTx0(tx -> {
+            ixMap.put(tx, Key.of(10L), "aa");
+            ixMap.put(tx, Key.of(20L), "bbb");
+        });
+
+        final Map<Key, String> values = ImmutableMap.of(
+                Key.of(30L), "ab",
+                Key.of(5L), "xxx",
+                Key.of(15L), "q",
+                Key.of(20L), "cc",
+                Key.of(40L), "zzzz");
+        lmdb.writeTx0(tx -> ixMap.putAll(tx, values));
+
+        lmdb.readTx0(tx -> {
+            assertEquals(6, ixMap.size(tx));
+            values.forEach((k, v) -> assertEquals(Optional.of(v), ixMap.get(tx, k)));
+            assertEquals(Sets.newHashSet("q"), new HashSet<>(getByLength(tx, 1)));
+            assertEquals(Sets.newHashSet("aa", "ab", "cc"), new HashSet<>(getByLength(tx, 2)));
+            assertEquals(Sets.newHashSet("xxx"), new HashSet<>(getByLength(tx, 3)));
+            assertEquals(Sets.newHashSet("zzzz"), new HashSet<>(getByLength(tx, 4)));
+            assertEquals(4, ixMap.countIndexKeys(LENGTH_INDEX, tx));
+        });
+
+        lmdb.writeTx0(tx -> ixMap.delete(tx, Key.of(40L)));
+        lmdb.readTx0(tx -> {
+            assertEquals(Sets.newHashSet(), new HashSet<>(getByLength(tx, 4)));
+            assertEquals(Sets.newHashSet(), new HashSet<>(getByPair(tx, "zz")));
+            assertEquals(3, ixMap.countIndexKeys(LENGTH_INDEX, tx));
+        });
+    }
+
+    @Test
+    public void deleteAndUpdateWithoutStoredIndexKeys() {
+        Key kaa = putAndGet("aa");
+        Key kab = putAndGet("ab");
+        putAndGet("bbb");
+
+        // same as for the values stored before the index keys were kept
+        lmdb.writeTx0(tx -> ixMap.indexKeysDb.drop(tx.txn()));
+
+        lmdb.writeTx0(tx -> {
+            ixMap.delete(tx, kaa);
+            ixMap.store(tx, kab, "xyz");
+        });
+
+        lmdb.readTx0(tx -> {
+            assertEquals(Sets.newHashSet(), new HashSet<>(getByLength(tx, 2)));
+            assertEquals(Sets.newHashSet("bbb", "xyz"), new HashSet<>(getByLength(tx, 3)));
+            assertEquals(Sets.newHashSet(), new HashSet<>(getByPair(tx, "aa")));
+            assertEquals(Sets.newHashSet("xyz"), new HashSet<>(getByPair(tx, "xy")));
+        });
+    }
+
+    /**
+     * Compare deleting values with the stored index keys to deleting them the old way,
+     * i.e. decoding every value to find out which index entries to remove.
+     */
+    @Test
+    @Ignore
+    public void deleteThroughput() {
+        final int n = 20_000;
+        final Random r = new Random();
+        for (boolean withIndexKeys : new boolean[]{false, true}) {
+            lmdb.writeTx0(tx -> {
+                for (int i = 0; i < n; i++) {
+                    ixMap.store(tx, Key.of(i), randomString(r, 2000));
+                }
+                if (!withIndexKeys) {
+                    ixMap.indexKeysDb.drop(tx.txn());
+                }
+            });
+            final Long time = Time.timed(() -> lmdb.writeTx0(tx -> {
+                for (int i = 0; i < n; i++) {
+                    ixMap.delete(tx, Key.of(i));
+                }
+            }));
+            log.info("{} stored index keys: {} deletes in {}ms", withIndexKeys ? "With" : "Without", n, time);
+        }
+    }
+
     private Set<String> getLongestStrings(Tx.Read tx) {
         return getValues(tx, ixMap.getPkByIndexMax(LENGTH_INDEX, tx));
     }
@@ -0,0 +1,142 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LmdbCompactionServiceTest {
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dataDirectory;
+    private Lmdb lmdb;
+    private IxMap<byte[]> ixMap;
+    private final byte[] value = new byte[10_000];
+
+    @Before
+    public void setUp() throws Exception {
+        dataDirectory = tmp.newFolder("db");
+        lmdb = LmdbTests.makeLmdb(dataDirectory.getAbsolutePath());
+        ixMap = lmdb.createIxMap("test", Collections.emptyMap(), CoderFactory.bytesCoder());
+        lmdb.writeTx0(tx -> {
+            for (int i = 0; i < 1000; i++) {
+                ixMap.put(tx, Key.of(i), value);
+            }
+        });
+        lmdb.writeTx0(tx -> {
+            for (int i = 10; i < 1000; i++) {
+                ixMap.delete(tx, Key.of(i));
+            }
+        });
+    }
+
+    @Test
+    public void backupIsCompactedAndComplete() throws Exception {
+        final LmdbCompactionService service = service();
+        final File backupDirectory = new File(tmp.getRoot(), "backups/daily");
+
+        final LmdbCompactionService.CompactionResult result = service.backup("daily");
+
+        assertTrue(result.getReclaimedBytes() > 0);
+        assertEquals(new File(backupDirectory, LmdbCompactionService.DATA_FILE).length(), result.getSizeAfter());
+
+        final Lmdb backup = LmdbTests.makeLmdb(backupDirectory.getAbsolutePath());
+        final IxMap<byte[]> backupMap = backup.createIxMap("test", Collections.emptyMap(), CoderFactory.bytesCoder());
+        backup.readTx0(tx -> {
+            assertEquals(10, backupMap.size(tx));
+            assertArrayEquals(value, backupMap.get(tx, Key.of(9)).get());
+        });
+    }
+
+    @Test
+    public void dataFileIsCompactedOnRestart() throws Exception {
+        final long sizeBefore = new File(dataDirectory, LmdbCompactionService.DATA_FILE).length();
+
+        final LmdbCompactionService.CompactionResult result = service().compact();
+        assertTrue(result.isAppliedOnRestart());
+        assertTrue(new File(dataDirectory, LmdbCompactionService.COMPACTION_REQUEST).exists());
+        assertFalse(LmdbCompactionService.compactedDirectory(dataDirectory).exists());
+
+        // a running validator keeps writing after the compaction has been requested
+        lmdb.writeTx0(tx -> ixMap.put(tx, Key.of(2000), value));
+        ((LmdbImpl) lmdb).waitForAllTxToFinishAndClose();
+
+        final Lmdb restarted = LmdbTests.makeLmdb(dataDirectory.getAbsolutePath());
+        assertFalse(new File(dataDirectory, LmdbCompactionService.COMPACTION_REQUEST).exists());
+        assertFalse(LmdbCompactionService.compactedDirectory(dataDirectory).exists());
+        assertTrue(new File(dataDirectory, LmdbCompactionService.DATA_FILE).length() < sizeBefore);
+
+        final IxMap<byte[]> restartedMap = restarted.createIxMap("test", Collections.emptyMap(), CoderFactory.bytesCoder());
+        restarted.readTx0(tx -> {
+            assertEquals(11, restartedMap.size(tx));
+            assertArrayEquals(value, restartedMap.get(tx, Key.of(9)).get());
+            assertArrayEquals(value, restartedMap.get(tx, Key.of(2000)).get());
+        });
+    }
+
+    @Test
+    public void dataFileIsNotCompactedWhenLittleIsReclaimed() throws Exception {
+        final LmdbCompactionService service = new LmdbCompactionService(lmdb, dataDirectory.getAbsolutePath(),
+                new File(tmp.getRoot(), "backups").getAbsolutePath(), 1.0);
+
+        assertFalse(service.compact().isAppliedOnRestart());
+        assertFalse(new File(dataDirectory, LmdbCompactionService.COMPACTION_REQUEST).exists());
+        assertFalse(LmdbCompactionService.compactedDirectory(dataDirectory).exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backupIsRestrictedToTheBackupRoot() throws Exception {
+        service().backup("../db");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backupIsNotMadeIntoTheBackupRootItself() throws Exception {
+        service().backup(".");
+    }
+
+    private LmdbCompactionService service() {
+        return new LmdbCompactionService(lmdb, dataDirectory.getAbsolutePath(),
+                new File(tmp.getRoot(), "backups").getAbsolutePath(), 0.2);
+    }
+}
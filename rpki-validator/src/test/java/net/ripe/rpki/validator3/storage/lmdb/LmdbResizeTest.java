@@ -0,0 +1,100 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lmdbjava.Env;
+
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LmdbResizeTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void growMapWhenItIsFull() throws Exception {
+        final Lmdb lmdb = LmdbTests.makeLmdb(tmp.newFolder().getAbsolutePath(), 1, 64);
+        final IxMap<byte[]> ixMap = lmdb.createIxMap("test", Collections.emptyMap(), CoderFactory.bytesCoder());
+
+        final byte[] value = new byte[100_000];
+        new Random(42).nextBytes(value);
+
+        lmdb.writeTx0(tx -> {
+            for (int i = 0; i < 40; i++) {
+                ixMap.put(tx, Key.of(i), value);
+            }
+        });
+
+        assertTrue(lmdb.getMapSize() > MB);
+        assertTrue(lmdb.getMapUsed() <= lmdb.getMapSize());
+        lmdb.readTx0(tx -> {
+            assertEquals(40, ixMap.size(tx));
+            assertArrayEquals(value, ixMap.get(tx, Key.of(39)).get());
+        });
+    }
+
+    @Test
+    public void failWhenMaximumSizeIsReached() throws Exception {
+        final Lmdb lmdb = LmdbTests.makeLmdb(tmp.newFolder().getAbsolutePath(), 1, 2);
+        final IxMap<byte[]> ixMap = lmdb.createIxMap("test", Collections.emptyMap(), CoderFactory.bytesCoder());
+
+        final byte[] value = new byte[100_000];
+        try {
+            lmdb.writeTx0(tx -> {
+                for (int i = 0; i < 40; i++) {
+                    ixMap.put(tx, Key.of(i), value);
+                }
+            });
+            fail("Expected the map to be full");
+        } catch (Env.MapFullException e) {
+            assertEquals(2 * MB, lmdb.getMapSize());
+        }
+    }
+
+    @Test
+    public void nextMapSize() {
+        assertEquals(2 * MB, Lmdb.nextMapSize(MB, 100 * MB));
+        assertEquals(100 * MB, Lmdb.nextMapSize(80 * MB, 100 * MB));
+        assertEquals(10240 * MB, Lmdb.nextMapSize(8192 * MB, 100_000 * MB));
+    }
+}
@@ -31,7 +31,13 @@ package net.ripe.rpki.validator3.storage.lmdb;
 
 public class LmdbTests {
     public static Lmdb makeLmdb(String path) throws Exception {
-        LmdbImpl lmdb = new LmdbImpl(path, 1024);
+        LmdbImpl lmdb = new LmdbImpl(path, 1024, 65536);
+        lmdb.initLmdb();
+        return lmdb;
+    }
+
+    public static Lmdb makeLmdb(String path, long sizeMb, long maxSizeMb) throws Exception {
+        LmdbImpl lmdb = new LmdbImpl(path, sizeMb, maxSizeMb);
         lmdb.initLmdb();
         return lmdb;
     }
@@ -0,0 +1,82 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.lmdb;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LmdbTxTrackingTest {
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private Lmdb lmdb;
+
+    @Before
+    public void setUp() throws Exception {
+        lmdb = LmdbTests.makeLmdb(tmp.newFolder().getAbsolutePath());
+    }
+
+    @Test
+    public void noStackTraceForShortTransactions() {
+        lmdb.readTx0(tx -> {
+            final Lmdb.TxInfo txInfo = lmdb.getTxs().get(tx.getId());
+            assertEquals(Thread.currentThread().getName(), txInfo.getThreadName());
+            assertNull(txInfo.getStackTrace());
+            assertTrue(lmdb.checkSlowTransactions(Duration.ofHours(1)).isEmpty());
+            assertFalse(txInfo.isSlow());
+        });
+        assertTrue(lmdb.getTxs().isEmpty());
+        assertEquals(0L, lmdb.getOldestReadTxAgeMillis());
+    }
+
+    @Test
+    public void detectSlowTransactionsOnce() {
+        lmdb.readTx0(tx -> {
+            final List<Lmdb.TxInfo> slow = lmdb.checkSlowTransactions(Duration.ofMillis(-1));
+            assertEquals(1, slow.size());
+            assertTrue(slow.get(0).isSlow());
+            assertTrue(slow.get(0).getStackTrace().stream().anyMatch(s -> s.contains("detectSlowTransactionsOnce")));
+
+            assertTrue(lmdb.checkSlowTransactions(Duration.ofMillis(-1)).isEmpty());
+        });
+        assertEquals(1L, lmdb.getSlowTxCount());
+    }
+}
@@ -40,6 +40,7 @@ import org.junit.rules.TemporaryFolder;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static net.ripe.rpki.validator3.storage.lmdb.IxMapTest.key;
 import static org.junit.Assert.assertEquals;
@@ -90,6 +91,23 @@ public class MultIxMapTest {
         });
     }
 
+    @Test
+    public void streamValuesOfOneKey() {
+        final Key k1 = key(UUID.randomUUID());
+        final Key k2 = key(UUID.randomUUID());
+        lmdb.writeTx0(tx -> {
+            multIxMap.put(tx, k1, "a");
+            multIxMap.put(tx, k1, "b");
+            multIxMap.put(tx, k2, "c");
+        });
+
+        lmdb.readTx0(tx -> {
+            assertEquals(Sets.newHashSet("a", "b"), multIxMap.stream(tx, k1).collect(Collectors.toSet()));
+            assertEquals(Sets.newHashSet("c"), multIxMap.stream(tx, k2).collect(Collectors.toSet()));
+            assertEquals(0, multIxMap.stream(tx, key(UUID.randomUUID())).count());
+        });
+    }
+
     @Test
     public void putAndDelete() {
         final Key k1 = key(UUID.randomUUID());
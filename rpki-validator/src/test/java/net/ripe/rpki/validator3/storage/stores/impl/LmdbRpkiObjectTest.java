@@ -0,0 +1,331 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.stores.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaCms;
+import net.ripe.rpki.commons.crypto.util.CertificateRepositoryObjectFactory;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.RpkiObject;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import net.ripe.rpki.validator3.storage.lmdb.IxMap;
+import net.ripe.rpki.validator3.storage.lmdb.Lmdb;
+import net.ripe.rpki.validator3.storage.lmdb.LmdbTests;
+import net.ripe.rpki.validator3.storage.lmdb.MultIxMap;
+import net.ripe.rpki.validator3.util.Sha256;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LmdbRpkiObjectTest {
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private Lmdb lmdb;
+    private LmdbRpkiObject rpkiObjects;
+
+    @Before
+    public void setUp() throws Exception {
+        lmdb = LmdbTests.makeLmdb(tmp.newFolder().getAbsolutePath());
+        rpkiObjects = new LmdbRpkiObject(lmdb);
+    }
+
+    @Test
+    public void testContentIsStoredSeparately() throws IOException {
+        final RpkiObject roa = readRoa();
+        lmdb.writeTx0(tx -> rpkiObjects.put(tx, roa));
+
+        final RpkiObject metadata = lmdb.readTx(tx -> rpkiObjects.get(tx, roa.key())).get();
+        assertNull(metadata.getEncoded());
+        assertEquals(roa.getType(), metadata.getType());
+        assertEquals(roa.getSerialNumber(), metadata.getSerialNumber());
+        assertEquals(roa.getRoaPrefixes(), metadata.getRoaPrefixes());
+
+        final Optional<RoaCms> roaCms = lmdb.readTx(tx -> rpkiObjects.findCertificateRepositoryObject(
+                tx, roa.key(), RoaCms.class, ValidationResult.withLocation("test.roa")));
+        assertTrue(roaCms.isPresent());
+        assertArrayEquals(roa.getEncoded(), roaCms.get().getEncoded());
+
+        final List<byte[]> streamed = lmdb.readTx(tx -> rpkiObjects.streamObjects(tx, RpkiObject.Type.ROA).collect(Collectors.toList()));
+        assertEquals(1, streamed.size());
+        assertArrayEquals(roa.getEncoded(), streamed.get(0));
+    }
+
+    @Test
+    public void testPutOfMetadataKeepsContent() throws IOException {
+        final RpkiObject roa = readRoa();
+        lmdb.writeTx0(tx -> rpkiObjects.put(tx, roa));
+        lmdb.writeTx0(tx -> rpkiObjects.get(tx, roa.key()).ifPresent(o -> rpkiObjects.put(tx, o)));
+
+        assertTrue(lmdb.readTx(tx -> rpkiObjects.findCertificateRepositoryObject(
+                tx, roa.key(), RoaCms.class, ValidationResult.withLocation("test.roa"))).isPresent());
+    }
+
+    @Test
+    public void testDeleteRemovesContent() throws IOException {
+        final RpkiObject roa = readRoa();
+        lmdb.writeTx0(tx -> rpkiObjects.put(tx, roa));
+        lmdb.writeTx0(tx -> rpkiObjects.delete(tx, roa));
+
+        assertFalse(lmdb.readTx(tx -> rpkiObjects.findCertificateRepositoryObject(
+                tx, roa.key(), RoaCms.class, ValidationResult.withLocation("test.roa"))).isPresent());
+        assertEquals(0L, (long) lmdb.readTx(tx -> rpkiObjects.streamObjects(tx, RpkiObject.Type.ROA).count()));
+    }
+
+    @Test
+    public void testLocations() throws IOException {
+        final RpkiObject roa = readRoa();
+        final String location1 = "rsync://repo.net/repo/b.roa";
+        final String location2 = "rsync://repo.net/repo/a.roa";
+        final String location3 = "rsync://other.net/a.roa";
+        lmdb.writeTx0(tx -> {
+            rpkiObjects.put(tx, roa, location1);
+            rpkiObjects.addLocation(tx, roa.key(), location2);
+            rpkiObjects.addLocation(tx, roa.key(), location3);
+            rpkiObjects.addLocation(tx, roa.key(), location1);
+        });
+
+        assertEquals(Arrays.asList(location3, location2, location1),
+                new ArrayList<>(lmdb.readTx(tx -> rpkiObjects.getLocations(tx, roa.key()))));
+
+        lmdb.writeTx0(tx -> {
+            rpkiObjects.deleteLocation(tx, roa.key(), location2);
+            rpkiObjects.deleteLocation(tx, roa.key(), "rsync://repo.net/repo/unknown.roa");
+        });
+        assertEquals(Arrays.asList(location3, location1),
+                new ArrayList<>(lmdb.readTx(tx -> rpkiObjects.getLocations(tx, roa.key()))));
+
+        // the dictionary survives a restart of the store
+        final LmdbRpkiObject reopened = new LmdbRpkiObject(lmdb);
+        assertEquals(Arrays.asList(location3, location1),
+                new ArrayList<>(lmdb.readTx(tx -> reopened.getLocations(tx, roa.key()))));
+
+        lmdb.writeTx0(tx -> rpkiObjects.delete(tx, roa));
+        assertTrue(lmdb.readTx(tx -> rpkiObjects.getLocations(tx, roa.key())).isEmpty());
+    }
+
+    @Test
+    public void testLocationsAreMigratedOnce() throws IOException {
+        final RpkiObject roa = readRoa();
+        final String oldLocation = "rsync://repo.net/repo/old.roa";
+        final String newLocation = "rsync://repo.net/repo/new.roa";
+        final MultIxMap<String> oldLocations = lmdb.createMultIxMap("rpki-objects-location", CoderFactory.stringCoder());
+        lmdb.writeTx0(tx -> {
+            rpkiObjects.put(tx, roa);
+            oldLocations.put(tx, roa.key(), oldLocation);
+        });
+
+        final LmdbRpkiObject migrated = new LmdbRpkiObject(lmdb);
+        assertEquals(Collections.singletonList(oldLocation),
+                new ArrayList<>(lmdb.readTx(tx -> migrated.getLocations(tx, roa.key()))));
+        assertEquals(0L, (long) lmdb.readTx(oldLocations::size));
+
+        lmdb.writeTx0(tx -> migrated.addLocation(tx, roa.key(), newLocation));
+
+        // nothing is left to migrate after the first start, so locations survive restarts
+        final LmdbRpkiObject restarted = new LmdbRpkiObject(lmdb);
+        assertEquals(Arrays.asList(newLocation, oldLocation),
+                new ArrayList<>(lmdb.readTx(tx -> restarted.getLocations(tx, roa.key()))));
+        final LmdbRpkiObject restartedAgain = new LmdbRpkiObject(lmdb);
+        assertEquals(Arrays.asList(newLocation, oldLocation),
+                new ArrayList<>(lmdb.readTx(tx -> restartedAgain.getLocations(tx, roa.key()))));
+    }
+
+    @Test
+    public void testReachabilityIsNotGuessedOnMigration() throws IOException {
+        final RpkiObject roa1 = readRoa();
+        final RpkiObject roa2 = readRoa("/g11HohjaKcA9vAJV9LrYPq1bKZQ.roa");
+        final IxMap<Long> oldReachable = lmdb.createIxMap("rpki-objects-reachable", ImmutableMap.of(), CoderFactory.longCoder());
+        lmdb.writeTx0(tx -> {
+            rpkiObjects.put(tx, roa1);
+            rpkiObjects.put(tx, roa2);
+            // the older one may just as well have been marked reachable by the latest cleanup
+            oldReachable.put(tx, roa1.key(), Instant.now().minus(Duration.ofDays(1)).toEpochMilli());
+            oldReachable.put(tx, roa2.key(), Instant.now().toEpochMilli());
+        });
+
+        final LmdbRpkiObject migrated = new LmdbRpkiObject(lmdb);
+        assertEquals(0L, (long) lmdb.readTx(oldReachable::size));
+
+        assertEquals(0L, (long) lmdb.writeTx(tx -> migrated.deleteUnreachableObjects(tx, Instant.now())));
+        assertTrue(lmdb.readTx(tx -> migrated.get(tx, roa1.key())).isPresent());
+        assertTrue(lmdb.readTx(tx -> migrated.get(tx, roa2.key())).isPresent());
+    }
+
+    @Test
+    public void testUnreferencedLocationsAreDeleted() throws IOException {
+        final RpkiObject roa1 = readRoa();
+        final RpkiObject roa2 = readRoa("/g11HohjaKcA9vAJV9LrYPq1bKZQ.roa");
+        final String location1 = "rsync://repo.net/repo/a.roa";
+        final String location2 = "rsync://repo.net/repo/b.roa";
+        final String location3 = "rsync://repo.net/repo/c.roa";
+        lmdb.writeTx0(tx -> {
+            rpkiObjects.put(tx, roa1, location1);
+            rpkiObjects.addLocation(tx, roa1.key(), location2);
+            rpkiObjects.put(tx, roa2, location3);
+        });
+
+        lmdb.writeTx0(tx -> {
+            rpkiObjects.deleteLocation(tx, roa1.key(), location2);
+            rpkiObjects.delete(tx, roa2);
+        });
+        assertEquals(2L, (long) lmdb.writeTx(rpkiObjects::deleteUnreferencedLocations));
+        assertEquals(0L, (long) lmdb.writeTx(rpkiObjects::deleteUnreferencedLocations));
+        assertEquals(Collections.singletonList(location1),
+                new ArrayList<>(lmdb.readTx(tx -> rpkiObjects.getLocations(tx, roa1.key()))));
+
+        // the ids of deleted locations can be given out again without mixing up locations
+        lmdb.writeTx0(tx -> {
+            rpkiObjects.put(tx, roa2, location3);
+            rpkiObjects.addLocation(tx, roa1.key(), location2);
+        });
+        assertEquals(Arrays.asList(location1, location2),
+                new ArrayList<>(lmdb.readTx(tx -> rpkiObjects.getLocations(tx, roa1.key()))));
+        assertEquals(Collections.singletonList(location3),
+                new ArrayList<>(lmdb.readTx(tx -> rpkiObjects.getLocations(tx, roa2.key()))));
+    }
+
+    @Test
+    public void testReachability() throws IOException {
+        final RpkiObject roa1 = readRoa();
+        final RpkiObject roa2 = readRoa("/g11HohjaKcA9vAJV9LrYPq1bKZQ.roa");
+        lmdb.writeTx0(tx -> {
+            rpkiObjects.put(tx, roa1);
+            rpkiObjects.put(tx, roa2);
+        });
+
+        final Set<Key> reachable = Collections.singleton(roa1.key());
+        final Pair<Set<Key>, Set<Key>> changes = lmdb.readTx(tx -> rpkiObjects.findReachabilityChanges(tx, reachable));
+        assertEquals(Collections.singleton(roa2.key()), changes.getLeft());
+        assertTrue(changes.getRight().isEmpty());
+
+        final Instant now = Instant.now();
+        lmdb.writeTx0(tx -> changes.getLeft().forEach(pk -> rpkiObjects.markUnreachable(tx, pk, now.minus(Duration.ofDays(2)))));
+
+        // nothing changed since the last time
+        final Pair<Set<Key>, Set<Key>> unchanged = lmdb.readTx(tx -> rpkiObjects.findReachabilityChanges(tx, reachable));
+        assertTrue(unchanged.getLeft().isEmpty());
+        assertTrue(unchanged.getRight().isEmpty());
+
+        // reachable again before the grace period is over
+        final Set<Key> both = new HashSet<>(Arrays.asList(roa1.key(), roa2.key()));
+        final Pair<Set<Key>, Set<Key>> again = lmdb.readTx(tx -> rpkiObjects.findReachabilityChanges(tx, both));
+        assertEquals(Collections.singleton(roa2.key()), again.getRight());
+        lmdb.writeTx0(tx -> again.getRight().forEach(pk -> rpkiObjects.markReachable(tx, pk)));
+        assertEquals(0L, (long) lmdb.writeTx(tx -> rpkiObjects.deleteUnreachableObjects(tx, now.minus(Duration.ofDays(1)))));
+
+        lmdb.writeTx0(tx -> rpkiObjects.markUnreachable(tx, roa2.key(), now.minus(Duration.ofDays(2))));
+        assertEquals(1L, (long) lmdb.writeTx(tx -> rpkiObjects.deleteUnreachableObjects(tx, now.minus(Duration.ofDays(1)))));
+        assertFalse(lmdb.readTx(tx -> rpkiObjects.get(tx, roa2.key())).isPresent());
+        assertTrue(lmdb.readTx(tx -> rpkiObjects.get(tx, roa1.key())).isPresent());
+    }
+
+    @Test
+    public void testExistsBySha256() throws IOException {
+        final RpkiObject roa1 = readRoa();
+        final RpkiObject roa2 = readRoa("/g11HohjaKcA9vAJV9LrYPq1bKZQ.roa");
+        final Key unknown = Key.of(Sha256.hash("not stored".getBytes()));
+        lmdb.writeTx0(tx -> rpkiObjects.put(tx, roa1));
+
+        assertTrue(lmdb.readTx(tx -> rpkiObjects.exists(tx, roa1.key())));
+        assertFalse(lmdb.readTx(tx -> rpkiObjects.exists(tx, unknown)));
+        assertFalse(lmdb.readTx(tx -> rpkiObjects.findBySha256(tx, unknown.getBytes())).isPresent());
+        assertEquals(Collections.singleton(roa1.key()),
+                lmdb.readTx(tx -> rpkiObjects.findAllBySha256(tx, Arrays.asList(roa1.key(), unknown))).keySet());
+
+        // objects stored before the store is created are found as well
+        final LmdbRpkiObject reopened = new LmdbRpkiObject(lmdb);
+        assertTrue(lmdb.readTx(tx -> reopened.exists(tx, roa1.key())));
+        lmdb.writeTx0(tx -> reopened.putAll(tx, Collections.singletonList(Pair.of("rsync://repo.net/repo/2.roa", roa2))));
+        assertTrue(lmdb.readTx(tx -> reopened.exists(tx, roa2.key())));
+
+        lmdb.writeTx0(tx -> reopened.delete(tx, roa1));
+        assertFalse(lmdb.readTx(tx -> reopened.exists(tx, roa1.key())));
+    }
+
+    @Test
+    public void testCompressedContent() throws IOException {
+        final RpkiObject roa1 = readRoa();
+        lmdb.writeTx0(tx -> rpkiObjects.put(tx, roa1));
+
+        final LmdbRpkiObject compressing = new LmdbRpkiObject(lmdb, true);
+        final RpkiObject roa2 = readRoa("/g11HohjaKcA9vAJV9LrYPq1bKZQ.roa");
+        lmdb.writeTx0(tx -> compressing.put(tx, roa2));
+        assertContent(compressing, roa1);
+        assertContent(compressing, roa2);
+
+        // switching compression off again doesn't make the content unreadable
+        final LmdbRpkiObject plain = new LmdbRpkiObject(lmdb, false);
+        assertContent(plain, roa1);
+        assertContent(plain, roa2);
+    }
+
+    private void assertContent(LmdbRpkiObject objects, RpkiObject roa) {
+        final Optional<RoaCms> roaCms = lmdb.readTx(tx -> objects.findCertificateRepositoryObject(
+                tx, roa.key(), RoaCms.class, ValidationResult.withLocation("test.roa")));
+        assertTrue(roaCms.isPresent());
+        assertArrayEquals(roa.getEncoded(), roaCms.get().getEncoded());
+    }
+
+    private RpkiObject readRoa() throws IOException {
+        return readRoa("/557B4C46969B11E681906146C4F9AE02.roa");
+    }
+
+    private RpkiObject readRoa(String resource) throws IOException {
+        InputStream is = this.getClass().getResourceAsStream(resource);
+        byte[] content = ByteStreams.toByteArray(is);
+        ValidationResult validationResult = ValidationResult.withLocation("test.roa");
+        return new RpkiObject(CertificateRepositoryObjectFactory.createCertificateRepositoryObject(content, validationResult));
+    }
+}
@@ -32,7 +32,9 @@ package net.ripe.rpki.validator3.storage.stores.impl;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.IntegrationTest;
 import net.ripe.rpki.validator3.TestObjects;
+import net.ripe.rpki.validator3.api.Paging;
 import net.ripe.rpki.validator3.api.SearchTerm;
+import net.ripe.rpki.validator3.api.Sorting;
 import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
@@ -41,7 +43,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 
@@ -95,4 +100,47 @@ public class LmdbRpkiRepostioriesTest extends GenericStorageTest {
         assertEquals(0, countAll);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void paging_follows_the_sort_index() {
+        final Ref<TrustAnchor> trustAnchorRef = rtx(tx -> this.getTrustAnchors().makeRef(tx, trustAnchor.key()));
+        wtx0(tx -> {
+            this.getRpkiRepositories().register(tx, trustAnchorRef, "rsync://a.rsync.repo", RpkiRepository.Type.RSYNC);
+            this.getRpkiRepositories().register(tx, trustAnchorRef, "rsync://z.rsync.repo", RpkiRepository.Type.RSYNC);
+        });
+
+        // ASC is from the largest to the smallest, as it has always been
+        assertEquals(Arrays.asList("rsync://z.rsync.repo", "rsync://some.rsync.repo"),
+                locations(Sorting.of(Sorting.By.LOCATION, Sorting.Direction.ASC), Paging.of(0L, 2L)));
+        assertEquals(Arrays.asList("rsync://some.rsync.repo", "rsync://z.rsync.repo"),
+                locations(Sorting.of(Sorting.By.LOCATION, Sorting.Direction.DESC), Paging.of(1L, 2L)));
+    }
+
+    @Test
+    public void counts_come_from_the_indexes() {
+        final Ref<TrustAnchor> trustAnchorRef = rtx(tx -> this.getTrustAnchors().makeRef(tx, trustAnchor.key()));
+        wtx0(tx -> {
+            final RpkiRepository downloaded = this.getRpkiRepositories().register(tx, trustAnchorRef,
+                    "https://rrdp.repo/notification.xml", RpkiRepository.Type.RRDP);
+            downloaded.setDownloaded();
+            this.getRpkiRepositories().update(tx, downloaded);
+        });
+
+        rtx0(tx -> {
+            assertEquals(2, this.getRpkiRepositories().countAll(tx, null, null, false, null));
+            assertEquals(1, this.getRpkiRepositories().countAll(tx, RpkiRepository.Status.DOWNLOADED, null, false, null));
+            assertEquals(1, this.getRpkiRepositories().countAll(tx, RpkiRepository.Status.PENDING, trustAnchor.key(), false, null));
+            assertEquals(0, this.getRpkiRepositories().countAll(tx, RpkiRepository.Status.FAILED, trustAnchor.key(), false, null));
+
+            final Map<RpkiRepository.Status, Long> statuses = this.getRpkiRepositories().countByStatus(tx, trustAnchor.key(), false);
+            assertEquals(Long.valueOf(1), statuses.get(RpkiRepository.Status.PENDING));
+            assertEquals(Long.valueOf(1), statuses.get(RpkiRepository.Status.DOWNLOADED));
+        });
+    }
+
+    private List<String> locations(Sorting sorting, Paging paging) {
+        return rtx(tx -> this.getRpkiRepositories()
+                .findAll(tx, null, trustAnchor.key(), false, null, sorting, paging)
+                .map(RpkiRepository::getLocationUri)
+                .collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.stores.impl;
+
+import com.google.common.io.ByteStreams;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaCms;
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ParsedObjectCacheTest {
+
+    private final ParsedObjectCache cache = new ParsedObjectCache(1, "PT1H");
+
+    @Test
+    public void parsesOnlyOnce() throws IOException {
+        final byte[] encoded = ByteStreams.toByteArray(getClass().getResourceAsStream("/557B4C46969B11E681906146C4F9AE02.roa"));
+        final Key key = Key.of(new byte[]{1, 2, 3});
+        final AtomicInteger reads = new AtomicInteger();
+
+        final Optional<RoaCms> roa1 = cache.get(key, RoaCms.class, "test.roa", () -> {
+            reads.incrementAndGet();
+            return Optional.of(encoded);
+        });
+        final Optional<CertificateRepositoryObject> roa2 = cache.get(key, CertificateRepositoryObject.class, "test.roa", () -> {
+            reads.incrementAndGet();
+            return Optional.of(encoded);
+        });
+
+        assertEquals(1, reads.get());
+        assertTrue(roa1.isPresent());
+        assertArrayEquals(encoded, roa1.get().getEncoded());
+        assertSame(roa1.get(), roa2.get());
+
+        // the type doesn't match, but it is still the same object
+        assertFalse(cache.get(key, ManifestCms.class, "test.mft", Optional::empty).isPresent());
+
+        cache.invalidate(key);
+        assertFalse(cache.get(key, RoaCms.class, "test.roa", Optional::empty).isPresent());
+    }
+
+    @Test
+    public void doesNotCacheUnparsableContent() {
+        final Key key = Key.of(new byte[]{4, 5, 6});
+        cache.get(key, CertificateRepositoryObject.class, "test.unknown", () -> Optional.of(new byte[]{0x30, 0x00}));
+        assertFalse(cache.get(key, CertificateRepositoryObject.class, "test.unknown", Optional::empty).isPresent());
+    }
+}
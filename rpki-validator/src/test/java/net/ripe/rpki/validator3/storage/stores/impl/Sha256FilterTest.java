@@ -0,0 +1,74 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.stores.impl;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.util.Sha256;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertTrue;
+
+public class Sha256FilterTest {
+
+    private static List<Key> hashes(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(i -> Key.of(Sha256.hash(("object " + i).getBytes())))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void should_contain_every_key_put() {
+        final Sha256Filter filter = new Sha256Filter(1000);
+        final List<Key> stored = hashes(0, 10_000);
+        stored.parallelStream().forEach(filter::put);
+
+        stored.forEach(k -> assertTrue(filter.mightContain(k)));
+        assertTrue("grows when full", filter.getCapacity() >= 10_000);
+    }
+
+    @Test
+    public void should_filter_out_most_other_keys() {
+        final Sha256Filter filter = new Sha256Filter(10_000);
+        hashes(0, 10_000).forEach(filter::put);
+
+        final long falsePositives = hashes(10_000, 20_000).stream().filter(filter::mightContain).count();
+        assertTrue("false positives: " + falsePositives, falsePositives < 200);
+    }
+
+    @Test
+    public void should_let_short_keys_through() {
+        final Sha256Filter filter = new Sha256Filter(1000);
+        assertTrue(filter.mightContain(Key.of(42L)));
+    }
+}